@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+/**
+ * Wakes up requests that wait for a host to have capacity (see
+ * {@link ConcurrencyLimitConfig.SaturationPolicy#WAIT}). Hosts signal whenever they release a concurrency slot;
+ * signaling is a single volatile read while nobody waits.
+ */
+class CapacitySignal {
+    private volatile int waiters; // written under the lock
+    private long version; // guarded by this
+
+    /**
+     * Registers the calling thread as a waiter; must be paired with {@link #unregister()}
+     */
+    synchronized void register() {
+        waiters++;
+    }
+
+    synchronized void unregister() {
+        waiters--;
+    }
+
+    /**
+     * Returns the current version, to be passed to {@link #await(long, long)} after checking for capacity
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Waits up to <code>timeoutNanos</code> for a signal, unless one was already received since <code>version</code>
+     * was read.
+     */
+    synchronized void await(long version, long timeoutNanos) throws InterruptedException {
+        if (this.version != version || timeoutNanos <= 0) return;
+        wait(timeoutNanos / 1000000, (int) (timeoutNanos % 1000000));
+    }
+
+    void signal() {
+        if (waiters == 0) return;
+        synchronized (this) {
+            version++;
+            notifyAll();
+        }
+    }
+}
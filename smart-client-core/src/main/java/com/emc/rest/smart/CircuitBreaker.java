@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-host circuit breaker. The circuit is <em>closed</em> while the host works; after a number of consecutive
+ * failures it <em>opens</em> and the host is avoided. Once the open time has passed, the circuit becomes
+ * <em>half-open</em> and only a limited number of concurrent trial requests are let through: enough successful
+ * trials close the circuit, while a failed trial opens it again (for twice as long, up to the max open time).
+ * <p>
+ * Recording a result in the closed state is lock-free; state transitions (which are rare) are synchronized.
+ */
+public class CircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final CircuitBreakerConfig config;
+
+    private volatile State state = State.CLOSED;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private int trialsInFlight, trialSuccesses, consecutiveTrips; // guarded by this
+    private volatile long stateTime = System.currentTimeMillis();
+    private volatile long openUntil;
+    private long trialsSince; // System.nanoTime() from which permits count as half-open trials; guarded by this
+
+    // set when the breaker is assigned to a host, which reports state changes to its listeners
+    volatile Host host;
+
+    public CircuitBreaker(CircuitBreakerConfig config) {
+        if (config == null) throw new NullPointerException("config");
+        this.config = config;
+    }
+
+    /**
+     * Returns true if a request may currently be sent (the circuit is closed, its open time has passed, or a
+     * half-open trial is available). This does not reserve anything; see {@link #tryAcquirePermit()}.
+     */
+    public boolean allowsRequests() {
+        State state = this.state;
+        if (state == State.CLOSED) return true;
+        if (state == State.OPEN) return System.currentTimeMillis() >= openUntil;
+        synchronized (this) {
+            return trialsInFlight < config.getHalfOpenTrials() || trialsExpired();
+        }
+    }
+
+    /**
+     * Reserves the right to send a request. In the closed state, this always succeeds. Otherwise, it only succeeds
+     * if a half-open trial is available (the open circuit becomes half-open once its open time has passed). A
+     * reserved trial is released by {@link #recordResult(boolean, long)} or {@link #releasePermit(long)}, passing the
+     * {@link System#nanoTime()} taken right after the permit was granted.
+     */
+    public boolean tryAcquirePermit() {
+        if (state == State.CLOSED) return true;
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() < openUntil) return false;
+                transition(State.HALF_OPEN);
+            } else if (state == State.HALF_OPEN) {
+                // trials that never reported back (i.e. the request was never sent) must not block the host forever
+                if (trialsExpired()) {
+                    trialsInFlight = 0;
+                    trialSuccesses = 0;
+                    stateTime = System.currentTimeMillis();
+                    trialsSince = System.nanoTime(); // late results of the expired trials no longer count
+                }
+                if (trialsInFlight >= config.getHalfOpenTrials()) return false;
+            } else {
+                return true; // closed in the meantime
+            }
+            trialsInFlight++;
+            return true;
+        }
+    }
+
+    /**
+     * Records the result of a call to the host. In the half-open state, the result is counted as a trial; callers
+     * that hold a permit should use {@link #recordResult(boolean, long)} instead, so that late results of requests
+     * sent before the circuit opened are not mistaken for trials.
+     */
+    public void recordResult(boolean isError) {
+        recordResult(isError, System.nanoTime());
+    }
+
+    /**
+     * Records the result of a call to the host, where <code>permitTime</code> is the {@link System#nanoTime()} taken
+     * right after {@link #tryAcquirePermit()} granted the request. In the half-open state, only results of permits
+     * granted after the circuit became half-open count as trials.
+     */
+    public void recordResult(boolean isError, long permitTime) {
+        State state = this.state;
+        if (state == State.CLOSED) {
+            recordClosedResult(isError);
+        } else if (state == State.HALF_OPEN) {
+            synchronized (this) {
+                if (this.state != State.HALF_OPEN || permitTime - trialsSince < 0) return;
+                if (trialsInFlight > 0) trialsInFlight--;
+                if (isError) transition(State.OPEN);
+                else if (++trialSuccesses >= config.getSuccessThreshold()) transition(State.CLOSED);
+            }
+        }
+        // results that arrive while the circuit is open are from requests sent before it opened
+    }
+
+    /**
+     * Records the result of a call that was not granted a permit by {@link #tryAcquirePermit()}. Such results count
+     * towards tripping a closed circuit, but are never counted as half-open trials.
+     */
+    void recordUnpermittedResult(boolean isError) {
+        if (state == State.CLOSED) recordClosedResult(isError);
+    }
+
+    /**
+     * Releases a permit that was granted by {@link #tryAcquirePermit()} but never used to send a request (i.e. there
+     * is no result to record). <code>permitTime</code> is as for {@link #recordResult(boolean, long)}.
+     */
+    public void releasePermit(long permitTime) {
+        if (state != State.HALF_OPEN) return;
+        synchronized (this) {
+            if (state == State.HALF_OPEN && permitTime - trialsSince >= 0 && trialsInFlight > 0) trialsInFlight--;
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public CircuitBreakerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Closes the circuit and clears all failure history.
+     */
+    public synchronized void reset() {
+        consecutiveTrips = 0;
+        transition(State.CLOSED);
+    }
+
+    private void recordClosedResult(boolean isError) {
+        if (!isError) {
+            if (consecutiveFailures.get() != 0) consecutiveFailures.set(0); // avoid a shared write on every call
+        } else if (consecutiveFailures.incrementAndGet() >= config.getFailureThreshold()) {
+            synchronized (this) {
+                if (this.state == State.CLOSED) transition(State.OPEN);
+            }
+        }
+    }
+
+    // caller must hold the lock
+    private void transition(State newState) {
+        if (newState == State.OPEN) {
+            // the open time doubles for each trip that immediately follows a failed trial
+            if (state == State.HALF_OPEN) consecutiveTrips++;
+            else consecutiveTrips = 0;
+        } else if (newState == State.CLOSED) {
+            consecutiveTrips = 0;
+        }
+        consecutiveFailures.set(0);
+        trialsInFlight = 0;
+        trialSuccesses = 0;
+        stateTime = System.currentTimeMillis();
+        trialsSince = System.nanoTime();
+        if (newState == State.OPEN) {
+            long openTime = config.getOpenTime() << Math.min(consecutiveTrips, Host.MAX_COOL_DOWN_EXP);
+            openUntil = stateTime + Math.min(openTime, config.getMaxOpenTime());
+        }
+        if (state == newState) return;
+        log.debug("circuit {} -> {}", state, newState);
+        boolean recovered = state == State.HALF_OPEN && newState == State.CLOSED;
+        state = newState;
+        Host host = this.host;
+        if (host != null && recovered) host.startSlowStart(); // ramp the recovered host back up like any other
+        if (host != null) host.postEvent(new HostEvent(HostEvent.Type.CIRCUIT_STATE_CHANGED, host, newState));
+    }
+
+    // caller must hold the lock; a trial that takes longer than the (base) open time is presumed lost
+    private boolean trialsExpired() {
+        return System.currentTimeMillis() - stateTime >= config.getOpenTime();
+    }
+
+    public enum State {
+        /**
+         * Requests flow normally
+         */
+        CLOSED,
+        /**
+         * The host is failing; no requests are sent until the open time has passed
+         */
+        OPEN,
+        /**
+         * A limited number of trial requests are let through to see if the host has recovered
+         */
+        HALF_OPEN
+    }
+}
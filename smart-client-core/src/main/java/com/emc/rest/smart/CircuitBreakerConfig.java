@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+/**
+ * Settings of a {@link CircuitBreaker}. A configuration can be shared by many breakers; changes take effect
+ * immediately.
+ */
+public class CircuitBreakerConfig {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final int DEFAULT_OPEN_TIME_MS = 5000;
+    public static final int DEFAULT_MAX_OPEN_TIME_MS = 60000;
+    public static final int DEFAULT_HALF_OPEN_TRIALS = 1;
+    public static final int DEFAULT_SUCCESS_THRESHOLD = 2;
+
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long openTime = DEFAULT_OPEN_TIME_MS;
+    private volatile long maxOpenTime = DEFAULT_MAX_OPEN_TIME_MS;
+    private volatile int halfOpenTrials = DEFAULT_HALF_OPEN_TRIALS;
+    private volatile int successThreshold = DEFAULT_SUCCESS_THRESHOLD;
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * Sets the number of consecutive failures that open the circuit. Defaults to {@value #DEFAULT_FAILURE_THRESHOLD}.
+     */
+    public void setFailureThreshold(int failureThreshold) {
+        if (failureThreshold < 1) throw new IllegalArgumentException("failureThreshold must be at least 1");
+        this.failureThreshold = failureThreshold;
+    }
+
+    public CircuitBreakerConfig withFailureThreshold(int failureThreshold) {
+        setFailureThreshold(failureThreshold);
+        return this;
+    }
+
+    public long getOpenTime() {
+        return openTime;
+    }
+
+    /**
+     * Sets the number of milliseconds the circuit stays open before trial requests are let through. This time is
+     * doubled each time a trial fails, up to the max open time. Defaults to {@value #DEFAULT_OPEN_TIME_MS}.
+     */
+    public void setOpenTime(long openTime) {
+        if (openTime <= 0) throw new IllegalArgumentException("openTime must be positive");
+        this.openTime = openTime;
+    }
+
+    public CircuitBreakerConfig withOpenTime(long openTime) {
+        setOpenTime(openTime);
+        return this;
+    }
+
+    public long getMaxOpenTime() {
+        return maxOpenTime;
+    }
+
+    /**
+     * Sets the maximum number of milliseconds the circuit stays open. Defaults to {@value #DEFAULT_MAX_OPEN_TIME_MS}.
+     */
+    public void setMaxOpenTime(long maxOpenTime) {
+        if (maxOpenTime <= 0) throw new IllegalArgumentException("maxOpenTime must be positive");
+        this.maxOpenTime = maxOpenTime;
+    }
+
+    public CircuitBreakerConfig withMaxOpenTime(long maxOpenTime) {
+        setMaxOpenTime(maxOpenTime);
+        return this;
+    }
+
+    public int getHalfOpenTrials() {
+        return halfOpenTrials;
+    }
+
+    /**
+     * Sets the number of trial requests that may be in flight at once while the circuit is half-open. Defaults to
+     * {@value #DEFAULT_HALF_OPEN_TRIALS}.
+     */
+    public void setHalfOpenTrials(int halfOpenTrials) {
+        if (halfOpenTrials < 1) throw new IllegalArgumentException("halfOpenTrials must be at least 1");
+        this.halfOpenTrials = halfOpenTrials;
+    }
+
+    public CircuitBreakerConfig withHalfOpenTrials(int halfOpenTrials) {
+        setHalfOpenTrials(halfOpenTrials);
+        return this;
+    }
+
+    public int getSuccessThreshold() {
+        return successThreshold;
+    }
+
+    /**
+     * Sets the number of successful trial requests that close the circuit again. Defaults to
+     * {@value #DEFAULT_SUCCESS_THRESHOLD}.
+     */
+    public void setSuccessThreshold(int successThreshold) {
+        if (successThreshold < 1) throw new IllegalArgumentException("successThreshold must be at least 1");
+        this.successThreshold = successThreshold;
+    }
+
+    public CircuitBreakerConfig withSuccessThreshold(int successThreshold) {
+        setSuccessThreshold(successThreshold);
+        return this;
+    }
+}
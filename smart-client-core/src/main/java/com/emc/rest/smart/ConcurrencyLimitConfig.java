@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+/**
+ * Settings of a {@link ConcurrencyLimiter}, and of what the load balancer does when every host is at its limit. A
+ * configuration can be shared by many limiters; changes take effect immediately.
+ */
+public class ConcurrencyLimitConfig {
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 2;
+    public static final int DEFAULT_MAX_LIMIT = 200;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2;
+    public static final int DEFAULT_BASELINE_WINDOW = 500;
+    public static final int DEFAULT_MAX_WAIT_MS = 1000;
+
+    private volatile int initialLimit = DEFAULT_INITIAL_LIMIT;
+    private volatile int minLimit = DEFAULT_MIN_LIMIT;
+    private volatile int maxLimit = DEFAULT_MAX_LIMIT;
+    private volatile double backoffRatio = DEFAULT_BACKOFF_RATIO;
+    private volatile double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+    private volatile int baselineWindow = DEFAULT_BASELINE_WINDOW;
+    private volatile SaturationPolicy saturationPolicy = SaturationPolicy.WAIT;
+    private volatile long maxWaitTime = DEFAULT_MAX_WAIT_MS;
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    /**
+     * Sets the concurrency limit of a host before any calls have completed. Defaults to
+     * {@value #DEFAULT_INITIAL_LIMIT}.
+     */
+    public void setInitialLimit(int initialLimit) {
+        if (initialLimit < 1) throw new IllegalArgumentException("initialLimit must be at least 1");
+        this.initialLimit = initialLimit;
+    }
+
+    public ConcurrencyLimitConfig withInitialLimit(int initialLimit) {
+        setInitialLimit(initialLimit);
+        return this;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * Sets the lowest concurrency limit of a host. Defaults to {@value #DEFAULT_MIN_LIMIT}.
+     */
+    public void setMinLimit(int minLimit) {
+        if (minLimit < 1) throw new IllegalArgumentException("minLimit must be at least 1");
+        this.minLimit = minLimit;
+    }
+
+    public ConcurrencyLimitConfig withMinLimit(int minLimit) {
+        setMinLimit(minLimit);
+        return this;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Sets the highest concurrency limit of a host. This should not exceed the connection pool's maximum connections
+     * per host. Defaults to {@value #DEFAULT_MAX_LIMIT}.
+     */
+    public void setMaxLimit(int maxLimit) {
+        if (maxLimit < 1) throw new IllegalArgumentException("maxLimit must be at least 1");
+        this.maxLimit = maxLimit;
+    }
+
+    public ConcurrencyLimitConfig withMaxLimit(int maxLimit) {
+        setMaxLimit(maxLimit);
+        return this;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * Sets the factor the limit is multiplied by when a call fails or is too slow. Defaults to
+     * {@value #DEFAULT_BACKOFF_RATIO}.
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1)
+            throw new IllegalArgumentException("backoffRatio must be > 0 and < 1");
+        this.backoffRatio = backoffRatio;
+    }
+
+    public ConcurrencyLimitConfig withBackoffRatio(double backoffRatio) {
+        setBackoffRatio(backoffRatio);
+        return this;
+    }
+
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    /**
+     * Sets how many times the host's baseline latency a call may take before it is considered too slow (a sign of
+     * queueing). Defaults to {@value #DEFAULT_LATENCY_TOLERANCE}.
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance <= 1) throw new IllegalArgumentException("latencyTolerance must be > 1");
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public ConcurrencyLimitConfig withLatencyTolerance(double latencyTolerance) {
+        setLatencyTolerance(latencyTolerance);
+        return this;
+    }
+
+    public int getBaselineWindow() {
+        return baselineWindow;
+    }
+
+    /**
+     * Sets the number of samples the moving average used as a host's baseline latency spans (a sample's weight is
+     * 1 / baselineWindow), so the baseline only follows sustained changes in latency. Defaults to
+     * {@value #DEFAULT_BASELINE_WINDOW}.
+     */
+    public void setBaselineWindow(int baselineWindow) {
+        if (baselineWindow < 1) throw new IllegalArgumentException("baselineWindow must be at least 1");
+        this.baselineWindow = baselineWindow;
+    }
+
+    public ConcurrencyLimitConfig withBaselineWindow(int baselineWindow) {
+        setBaselineWindow(baselineWindow);
+        return this;
+    }
+
+    public SaturationPolicy getSaturationPolicy() {
+        return saturationPolicy;
+    }
+
+    /**
+     * Sets what happens to a request when every host is at its concurrency limit. Defaults to
+     * {@link SaturationPolicy#WAIT}.
+     */
+    public void setSaturationPolicy(SaturationPolicy saturationPolicy) {
+        if (saturationPolicy == null) throw new NullPointerException("saturationPolicy");
+        this.saturationPolicy = saturationPolicy;
+    }
+
+    public ConcurrencyLimitConfig withSaturationPolicy(SaturationPolicy saturationPolicy) {
+        setSaturationPolicy(saturationPolicy);
+        return this;
+    }
+
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * Sets the maximum number of milliseconds a request waits for a host to drop below its limit (with
+     * {@link SaturationPolicy#WAIT}). Defaults to {@value #DEFAULT_MAX_WAIT_MS}.
+     */
+    public void setMaxWaitTime(long maxWaitTime) {
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    public ConcurrencyLimitConfig withMaxWaitTime(long maxWaitTime) {
+        setMaxWaitTime(maxWaitTime);
+        return this;
+    }
+
+    public enum SaturationPolicy {
+        /**
+         * The request fails immediately with a {@link SmartClientException}
+         */
+        FAIL_FAST,
+        /**
+         * The request waits (up to the max wait time) for a host to drop below its limit, then fails with a
+         * {@link SmartClientException}
+         */
+        WAIT
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive limit on the number of concurrent requests to a host, using additive increase/multiplicative decrease
+ * (AIMD) driven by observed latency. A call that fails, or takes longer than the latency tolerance times the host's
+ * baseline latency (a slow-moving average of successful calls that were not too slow), is taken as a sign of overload
+ * and the limit is multiplied by the backoff ratio. As in TCP congestion control, the limit is decreased at most once
+ * per latency window: calls that were already in flight when it was last decreased do not decrease it again.
+ * Otherwise, if the host was at least half-way to its limit, the limit grows by
+ * one. Each request permitted by the host reserves one of its slots (see {@link Host#tryAcquirePermit()}); the load
+ * balancer skips hosts that have no slot left.
+ * <p>
+ * Updates are lock-free.
+ */
+public class ConcurrencyLimiter {
+    private final ConcurrencyLimitConfig config;
+    private final AtomicLong limitBits;
+    private final AtomicLong baselineBits = new AtomicLong(Double.doubleToRawLongBits(0));
+    private final AtomicLong lastDecrease = new AtomicLong(); // System.nanoTime(), 0 if never
+
+    public ConcurrencyLimiter(ConcurrencyLimitConfig config) {
+        if (config == null) throw new NullPointerException("config");
+        this.config = config;
+        this.limitBits = new AtomicLong(Double.doubleToRawLongBits(config.getInitialLimit()));
+    }
+
+    /**
+     * Adjusts the limit for a completed call
+     *
+     * @param inFlight the number of calls that were in flight to the host (including this one)
+     */
+    public void onSample(boolean isError, long latencyNanos, int inFlight) {
+        double baseline = Double.longBitsToDouble(baselineBits.get());
+        boolean overloaded = isError || (baseline > 0 && latencyNanos > config.getLatencyTolerance() * baseline);
+        // slow calls would drag the baseline up, unless the limit is already at its min (then it is the new normal)
+        if (!isError && (!overloaded || getLimit() <= config.getMinLimit())) updateBaseline(latencyNanos);
+
+        if (overloaded) {
+            decrease(System.nanoTime() - latencyNanos);
+        } else if (inFlight * 2 >= getLimit()) {
+            adjust(1);
+        }
+    }
+
+    /**
+     * Reduces the limit for a call that failed without a response
+     */
+    public void onDrop() {
+        // the call's start time is unknown; assume it took as long as a call may take without being too slow
+        double baseline = Double.longBitsToDouble(baselineBits.get());
+        decrease(System.nanoTime() - (long) (config.getLatencyTolerance() * baseline));
+    }
+
+    /**
+     * Returns the baseline latency of the host in nanoseconds (0 until a call has succeeded)
+     */
+    public long getBaselineLatency() {
+        return (long) Double.longBitsToDouble(baselineBits.get());
+    }
+
+    /**
+     * Returns the current limit
+     */
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    public ConcurrencyLimitConfig getConfig() {
+        return config;
+    }
+
+    private void updateBaseline(long latencyNanos) {
+        long currentBits, nextBits;
+        do {
+            currentBits = baselineBits.get();
+            double baseline = Double.longBitsToDouble(currentBits);
+            // the first sample seeds the average
+            double next = baseline == 0 ? latencyNanos : baseline + (latencyNanos - baseline) / config.getBaselineWindow();
+            nextBits = Double.doubleToRawLongBits(next);
+        } while (!baselineBits.compareAndSet(currentBits, nextBits));
+    }
+
+    // decreases the limit unless the call (sent at sentTime) was already in flight at the last decrease
+    private void decrease(long sentTime) {
+        long last = lastDecrease.get();
+        if (last != 0 && sentTime - last < 0) return;
+        if (lastDecrease.compareAndSet(last, System.nanoTime())) adjust(-1);
+    }
+
+    private void adjust(int direction) {
+        long currentBits, nextBits;
+        do {
+            currentBits = limitBits.get();
+            double limit = Double.longBitsToDouble(currentBits);
+            double next = direction > 0 ? limit + 1 : limit * config.getBackoffRatio();
+            next = Math.max(config.getMinLimit(), Math.min(config.getMaxLimit(), next));
+            if (next == limit) return;
+            nextBits = Double.doubleToRawLongBits(next);
+        } while (!limitBits.compareAndSet(currentBits, nextBits));
+    }
+}
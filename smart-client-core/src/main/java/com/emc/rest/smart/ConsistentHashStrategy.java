@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Routes requests with the same affinity key (e.g. an object key or bucket/key pair, set in the
+ * {@value #AFFINITY_KEY} request property) to the same host, so the host's caches are used effectively.
+ * <p>
+ * Keys are mapped onto a consistent hash ring with {@link #getVirtualNodes() virtual nodes} for each host. The ring
+ * is updated incrementally as hosts are added or removed, so only the keys of those hosts move. Loads are bounded:
+ * if the host that owns a key is vetoed, unhealthy, or has more than {@link #getLoadFactor() loadFactor} times the
+ * average number of open connections, the next hosts on the ring are tried. If none of the first
+ * {@link #getMaxProbes() maxProbes} hosts are usable (or the request has no affinity key), the fallback strategy
+ * (by default, {@link LeastConnectionsStrategy}) picks the least loaded host. Only hosts in the list passed to
+ * {@link #selectHost(Host[], HostSelectionContext)} are chosen, so this strategy can also pick from a subset of the
+ * load balancer's hosts (e.g. as the delegate of a strategy that groups hosts).
+ */
+public class ConsistentHashStrategy implements HostSelectionStrategy {
+    public static final String AFFINITY_KEY = "com.emc.rest.smart.affinityKey";
+
+    public static final int DEFAULT_VIRTUAL_NODES = 100;
+    public static final double DEFAULT_LOAD_FACTOR = 1.25;
+    public static final int DEFAULT_MAX_PROBES = 8;
+
+    // virtual nodes whose hashes collide share a point, ordered by host name and port, so the ring only depends on
+    // the set of hosts (not the order they were added in)
+    private static final Comparator<Host> NODE_ORDER =
+            Comparator.comparing(Host::getName).thenComparingInt(Host::getPort);
+
+    private final ConcurrentSkipListMap<Long, Host[]> ring = new ConcurrentSkipListMap<>();
+    private final Set<Host> ringHosts = new LinkedHashSet<>(); // guarded by this
+    private final int virtualNodes;
+    private double loadFactor = DEFAULT_LOAD_FACTOR;
+    private int maxProbes = DEFAULT_MAX_PROBES;
+    private volatile HostSelectionStrategy fallbackStrategy = new LeastConnectionsStrategy();
+
+    public ConsistentHashStrategy() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes the number of points on the ring for each host (more points spread keys more evenly)
+     */
+    public ConsistentHashStrategy(int virtualNodes) {
+        if (virtualNodes < 1) throw new IllegalArgumentException("virtualNodes must be at least 1");
+        this.virtualNodes = virtualNodes;
+    }
+
+    @Override
+    public Host selectHost(Host[] hosts, HostSelectionContext context) {
+        Map<String, Object> requestProperties = context.getRequestProperties();
+        Object key = requestProperties == null ? null : requestProperties.get(AFFINITY_KEY);
+        if (key == null || ring.isEmpty()) return fallbackStrategy.selectHost(hosts, context);
+
+        // bound each host's load relative to the average (counting this request)
+        long totalOpen = 1;
+        for (Host host : hosts) {
+            totalOpen += Math.max(host.getOpenConnections(), 0);
+        }
+        double loadLimit = Math.ceil(loadFactor * totalOpen / Math.max(hosts.length, 1));
+
+        // walk the ring clockwise from the key's position, wrapping around once
+        long keyHash = hash(key.toString());
+        Host previous = null;
+        int probes = 0;
+        Iterator<Host[]> ringI = ring.tailMap(keyHash).values().iterator();
+        boolean wrapped = false;
+        while (probes < maxProbes) {
+            if (!ringI.hasNext()) {
+                if (wrapped) break;
+                ringI = ring.headMap(keyHash).values().iterator();
+                wrapped = true;
+                continue;
+            }
+            for (Host host : ringI.next()) {
+                if (host == previous || !contains(hosts, host)) continue; // adjacent nodes, or not a candidate
+                previous = host;
+                if (++probes > maxProbes) break;
+
+                if (host.getOpenConnections() < loadLimit && host.isHealthy() && !context.isVetoed(host)) return host;
+            }
+        }
+
+        // owner and its successors are unhealthy or overloaded
+        return fallbackStrategy.selectHost(hosts, context);
+    }
+
+    // identity check; host lists are short, and this only runs for the few hosts probed on the ring
+    private static boolean contains(Host[] hosts, Host host) {
+        for (Host candidate : hosts) {
+            if (candidate == host) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void hostsChanged(Collection<Host> addedHosts, Collection<Host> removedHosts) {
+        for (Host host : removedHosts) {
+            if (!ringHosts.remove(host)) continue;
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.computeIfPresent(hash(nodeName(host, i)), (hash, nodes) -> removeNode(nodes, host));
+            }
+        }
+        for (Host host : addedHosts) {
+            if (!ringHosts.add(host)) continue;
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.merge(hash(nodeName(host, i)), new Host[]{host}, (nodes, node) -> addNode(nodes, host));
+            }
+        }
+        fallbackStrategy.hostsChanged(addedHosts, removedHosts);
+    }
+
+    private static Host[] addNode(Host[] nodes, Host host) {
+        Host[] newNodes = Arrays.copyOf(nodes, nodes.length + 1);
+        newNodes[nodes.length] = host;
+        Arrays.sort(newNodes, NODE_ORDER);
+        return newNodes;
+    }
+
+    // returns null (removing the point) when no other host is left on it
+    private static Host[] removeNode(Host[] nodes, Host host) {
+        int index = Arrays.asList(nodes).indexOf(host);
+        if (index < 0) return nodes;
+        if (nodes.length == 1) return null;
+        Host[] newNodes = new Host[nodes.length - 1];
+        System.arraycopy(nodes, 0, newNodes, 0, index);
+        System.arraycopy(nodes, index + 1, newNodes, index, newNodes.length - index);
+        return newNodes;
+    }
+
+    private static String nodeName(Host host, int index) {
+        return host.getName() + ":" + host.getPort() + "#" + index;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, followed by a finalizer to spread similar keys across the ring.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public double getLoadFactor() {
+        return loadFactor;
+    }
+
+    /**
+     * Sets how far above the average number of open connections a host may go before keys overflow to the next
+     * host on the ring. Defaults to {@value #DEFAULT_LOAD_FACTOR}.
+     */
+    public void setLoadFactor(double loadFactor) {
+        if (loadFactor < 1) throw new IllegalArgumentException("loadFactor must be at least 1");
+        this.loadFactor = loadFactor;
+    }
+
+    public int getMaxProbes() {
+        return maxProbes;
+    }
+
+    /**
+     * Sets the number of hosts on the ring that are tried before falling back to the least loaded host. Defaults to
+     * {@value #DEFAULT_MAX_PROBES}.
+     */
+    public void setMaxProbes(int maxProbes) {
+        this.maxProbes = maxProbes;
+    }
+
+    public HostSelectionStrategy getFallbackStrategy() {
+        return fallbackStrategy;
+    }
+
+    /**
+     * Sets the strategy used when a request has no affinity key or its hosts on the ring are not usable. Defaults
+     * to {@link LeastConnectionsStrategy}. The fallback strategy is told about the current hosts and all later
+     * host changes.
+     */
+    public synchronized void setFallbackStrategy(HostSelectionStrategy fallbackStrategy) {
+        if (fallbackStrategy == null) throw new NullPointerException("fallbackStrategy");
+        fallbackStrategy.hostsChanged(new ArrayList<>(ringHosts), Collections.emptyList());
+        this.fallbackStrategy = fallbackStrategy;
+    }
+
+    public ConsistentHashStrategy withLoadFactor(double loadFactor) {
+        setLoadFactor(loadFactor);
+        return this;
+    }
+
+    public ConsistentHashStrategy withMaxProbes(int maxProbes) {
+        setMaxProbes(maxProbes);
+        return this;
+    }
+
+    public ConsistentHashStrategy withFallbackStrategy(HostSelectionStrategy fallbackStrategy) {
+        setFallbackStrategy(fallbackStrategy);
+        return this;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free exponentially weighted moving average of latency samples (in nanoseconds). The weight of past samples
+ * decays with elapsed time (<code>exp(-elapsed / decayTime)</code>), so the average follows the host's current
+ * behavior regardless of request rate. In peak mode, a sample that is higher than the current average replaces it
+ * outright, so the average reacts immediately to a slowdown and only recovers gradually. The value also decays
+ * towards zero while no samples are recorded, so an idle host is eventually tried again.
+ */
+final class Ewma {
+    private final boolean peak;
+    private final AtomicLong valueBits = new AtomicLong(Double.doubleToRawLongBits(0));
+    private volatile long stamp = System.nanoTime();
+    private volatile long decayNanos;
+    private volatile boolean sampled;
+
+    Ewma(boolean peak, long decayMs) {
+        this.peak = peak;
+        setDecayTime(decayMs);
+    }
+
+    void update(long sampleNanos) {
+        long now = System.nanoTime();
+        long elapsed = Math.max(now - stamp, 0);
+        stamp = now;
+        double weight = Math.exp(-(double) elapsed / decayNanos);
+
+        long currentBits, nextBits;
+        do {
+            currentBits = valueBits.get();
+            double current = Double.longBitsToDouble(currentBits);
+            double next = (peak && sampleNanos > current) ? sampleNanos : current * weight + sampleNanos * (1 - weight);
+            nextBits = Double.doubleToRawLongBits(next);
+        } while (!valueBits.compareAndSet(currentBits, nextBits));
+        if (!sampled) sampled = true;
+    }
+
+    /**
+     * Returns true if a sample has been recorded since this average was created or reset.
+     */
+    boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * Returns the current average in nanoseconds, decayed by the time since the last sample.
+     */
+    double get() {
+        long elapsed = Math.max(System.nanoTime() - stamp, 0);
+        return Double.longBitsToDouble(valueBits.get()) * Math.exp(-(double) elapsed / decayNanos);
+    }
+
+    void reset() {
+        valueBits.set(Double.doubleToRawLongBits(0));
+        stamp = System.nanoTime();
+        sampled = false;
+    }
+
+    long getDecayTime() {
+        return decayNanos / 1000000;
+    }
+
+    void setDecayTime(long decayMs) {
+        if (decayMs <= 0) throw new IllegalArgumentException("decay time must be positive");
+        this.decayNanos = decayMs * 1000000;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Settings (and statistics) of request hedging. If a hedged request has not received response headers after the
+ * hedge delay, a duplicate is sent to a different host and whichever responds first is used; the other response is
+ * closed when it arrives. Only idempotent requests without an entity are hedged, and hedges are limited by a
+ * {@link RequestBudget}.
+ * <p>
+ * The hedge delay is the given percentile of the host's response latency (once the host has enough samples), or the
+ * fixed delay otherwise.
+ */
+public class HedgingConfig {
+    public static final int DEFAULT_DELAY_MS = 50;
+    public static final double DEFAULT_DELAY_PERCENTILE = 95;
+    public static final int DEFAULT_MIN_SAMPLES = 100;
+    public static final double DEFAULT_BUDGET_RATIO = 0.05;
+
+    private volatile long delay = DEFAULT_DELAY_MS;
+    private volatile double delayPercentile = DEFAULT_DELAY_PERCENTILE;
+    private volatile int minSamples = DEFAULT_MIN_SAMPLES;
+    private volatile Set<String> methods = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("GET", "HEAD")));
+    private final RequestBudget budget = new RequestBudget(DEFAULT_BUDGET_RATIO);
+
+    private final LongAdder hedgeCount = new LongAdder();
+    private final LongAdder hedgeWinCount = new LongAdder();
+
+    /**
+     * Returns the hedge delay in milliseconds for a request to <code>host</code>
+     */
+    public long getDelay(Host host) {
+        double percentile = delayPercentile;
+        if (percentile > 0) {
+            LatencyHistogram.Snapshot latency = host.getResponseLatencyHistogram();
+            if (latency.getCount() >= minSamples) return Math.max(latency.getPercentile(percentile) / 1000000, 1);
+        }
+        return delay;
+    }
+
+    /**
+     * Returns true if requests with <code>method</code> may be hedged
+     */
+    public boolean isHedgeable(String method) {
+        return method != null && methods.contains(method.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Called by the smart client for each hedged request that was sent
+     */
+    public void hedgeSent() {
+        hedgeCount.increment();
+    }
+
+    /**
+     * Called by the smart client for each hedged request that responded before the original request
+     */
+    public void hedgeWon() {
+        hedgeWinCount.increment();
+    }
+
+    /**
+     * Returns the number of hedged requests that were sent
+     */
+    public long getHedgeCount() {
+        return hedgeCount.sum();
+    }
+
+    /**
+     * Returns the number of hedged requests whose response was used
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.sum();
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    /**
+     * Sets the fixed hedge delay in milliseconds, used when percentile-based delays are disabled or the host does not
+     * have enough samples yet. Defaults to {@value #DEFAULT_DELAY_MS}.
+     */
+    public void setDelay(long delay) {
+        if (delay < 0) throw new IllegalArgumentException("delay must not be negative");
+        this.delay = delay;
+    }
+
+    public HedgingConfig withDelay(long delay) {
+        setDelay(delay);
+        return this;
+    }
+
+    public double getDelayPercentile() {
+        return delayPercentile;
+    }
+
+    /**
+     * Sets the percentile of the host's response latency to use as the hedge delay. Set to 0 to always use the fixed
+     * delay. Defaults to {@value #DEFAULT_DELAY_PERCENTILE}.
+     */
+    public void setDelayPercentile(double delayPercentile) {
+        if (delayPercentile < 0 || delayPercentile > 100)
+            throw new IllegalArgumentException("delayPercentile must be between 0 and 100");
+        this.delayPercentile = delayPercentile;
+    }
+
+    public HedgingConfig withDelayPercentile(double delayPercentile) {
+        setDelayPercentile(delayPercentile);
+        return this;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    /**
+     * Sets the number of latency samples a host needs before its percentile is used as the hedge delay. Defaults to
+     * {@value #DEFAULT_MIN_SAMPLES}.
+     */
+    public void setMinSamples(int minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    public HedgingConfig withMinSamples(int minSamples) {
+        setMinSamples(minSamples);
+        return this;
+    }
+
+    public Set<String> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Sets the HTTP methods that may be hedged (these must be idempotent). Defaults to GET and HEAD.
+     */
+    public void setMethods(Set<String> methods) {
+        Set<String> upperMethods = new HashSet<>();
+        for (String method : methods) {
+            upperMethods.add(method.toUpperCase(Locale.ROOT));
+        }
+        this.methods = Collections.unmodifiableSet(upperMethods);
+    }
+
+    public HedgingConfig withMethods(String... methods) {
+        setMethods(new HashSet<>(Arrays.asList(methods)));
+        return this;
+    }
+
+    /**
+     * Returns the budget that limits hedged requests; its ratio defaults to {@value #DEFAULT_BUDGET_RATIO} (at most
+     * 5% extra requests)
+     */
+    public RequestBudget getBudget() {
+        return budget;
+    }
+
+    public HedgingConfig withBudgetRatio(double budgetRatio) {
+        budget.setRatio(budgetRatio);
+        return this;
+    }
+}
@@ -15,11 +15,18 @@
  */
 package com.emc.rest.smart;
 
+import com.emc.rest.smart.jfr.FlightRecorderEvents;
+import com.emc.rest.smart.jfr.HealthTransitionEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Some basic statements about response index calculation:
@@ -29,7 +36,21 @@ import java.util.Objects;
  *         <li>should be based primarily on number of open connections to the host</li>
  *         <li>an error will mark the host as unhealthy for <code>errorWaitTime</code> milliseconds</li>
  *         <li>multiple consecutive errors compound the unhealthy (cool down) period up to 16x the errorWaitTime</li>
+ *         <li>in {@link ResponseIndexMode#PEAK_EWMA} mode, open connections are weighted by a peak-sensitive moving
+ *         average of the host's response latency</li>
+ *         <li>in {@link ResponseIndexMode#IN_FLIGHT_BYTES} mode, the bytes still to be transferred by open
+ *         connections are added, so a large download weighs more than a small request</li>
+ *         <li>during a slow-start window (after the host is added or comes back healthy), the index is inflated so
+ *         the host's share of new requests ramps up gradually instead of all at once</li>
+ *         <li>if a {@link CircuitBreaker} is set, it replaces the error cool-down: the host is unhealthy while its
+ *         circuit is open, and only a limited number of trial requests are sent while it is half-open</li>
+ *         <li>a host ejected by an {@link OutlierDetector} is unhealthy until its ejection time is over</li>
+ *         <li>if a {@link ConcurrencyLimiter} is set, the host refuses requests while its open connections are at
+ *         the limit; likewise, if a {@link RateLimiter} is set, it refuses requests while no permit is available</li>
  *     </ul>
+ * <p>
+ * Statistics are kept in atomic (or striped) counters, so recording a call never blocks and the load balancer always
+ * reads current values. Use {@link #getSnapshot()} to read all statistics at once.
  */
 public class Host implements HostStats {
     private static final Logger log = LoggerFactory.getLogger(Host.class);
@@ -37,19 +58,69 @@ public class Host implements HostStats {
     public static final int DEFAULT_ERROR_WAIT_MS = 1500;
     public static final int LOG_DELAY = 60000; // 1 minute
     public static final int MAX_COOL_DOWN_EXP = 4;
+    public static final int DEFAULT_LATENCY_DECAY_MS = 10000;
+    public static final double DEFAULT_SLOW_START_MIN_WEIGHT = 0.1;
+    public static final int DEFAULT_WEIGHT = 100;
+    public static final int RECENT_WINDOW_BUCKETS = 60; // 1 minute at 1-second resolution
+    public static final int RECENT_WINDOW_BUCKET_MS = 1000;
+    public static final int HISTORY_WINDOW_BUCKETS = 15; // 15 minutes at 1-minute resolution
+    public static final int HISTORY_WINDOW_BUCKET_MS = 60000;
+    public static final long IN_FLIGHT_BYTES_PER_CONNECTION = 1024 * 1024; // 1MiB
+
+    // metrics kept in the recent-activity windows
+    private static final int RECENT_CALLS = 0, RECENT_ERRORS = 1, RECENT_LATENCY_COUNT = 2, RECENT_LATENCY_SUM = 3,
+            RECENT_BYTES_RECEIVED = 4, RECENT_BYTES_SENT = 5, RECENT_METRICS = 6;
 
     private final String name;
     private int port;
-    private boolean healthy = true;
+    private volatile boolean healthy = true;
     protected int errorWaitTime = DEFAULT_ERROR_WAIT_MS;
     private String logName;
 
-    protected int openConnections;
-    protected long lastConnectionTime;
-    protected long totalConnections;
-    protected long totalErrors;
-    protected long consecutiveErrors;
-    protected long lastLogTime;
+    protected final AtomicInteger openConnections = new AtomicInteger();
+    protected volatile long lastConnectionTime;
+    protected final LongAdder totalConnections = new LongAdder();
+    protected final LongAdder totalErrors = new LongAdder();
+    protected final AtomicLong consecutiveErrors = new AtomicLong();
+    protected final LongAdder totalBytesSent = new LongAdder();
+    protected final LongAdder totalBytesReceived = new LongAdder();
+    protected final AtomicLong inFlightBytes = new AtomicLong();
+    protected volatile long lastLogTime;
+
+    private volatile ResponseIndexMode responseIndexMode = ResponseIndexMode.OPEN_CONNECTIONS;
+    private final Ewma responseLatency = new Ewma(true, DEFAULT_LATENCY_DECAY_MS);
+    private final Ewma completionLatency = new Ewma(false, DEFAULT_LATENCY_DECAY_MS);
+    private volatile long defaultLatency; // ms; 0 means not set
+    private final LatencyHistogram responseLatencyHistogram = new LatencyHistogram();
+    private final LatencyHistogram completionLatencyHistogram = new LatencyHistogram();
+    private final LatencyHistogram[] phaseHistograms = new LatencyHistogram[RequestTiming.Phase.values().length];
+
+    private volatile int weight; // 0 means not set
+    private volatile long slowStartWindow;
+    private volatile double slowStartMinWeight = DEFAULT_SLOW_START_MIN_WEIGHT;
+    private volatile long slowStartTime;
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+    private final AtomicInteger reservedSlots = new AtomicInteger(); // concurrency slots held by permitted requests
+    private volatile RateLimiter rateLimiter;
+    // activity is kept in two tiers: fine buckets for short windows and coarse buckets for long ones
+    private final RollingWindow recentActivity = new RollingWindow(RECENT_WINDOW_BUCKETS, RECENT_WINDOW_BUCKET_MS, RECENT_METRICS);
+    private final RollingWindow activityHistory = new RollingWindow(HISTORY_WINDOW_BUCKETS, HISTORY_WINDOW_BUCKET_MS, RECENT_METRICS);
+
+    // managed by the outlier detector
+    volatile long ejectedUntil;
+    volatile int ejectionCount;
+
+    // set by the load balancer when it has a metrics registry (see setMetrics)
+    volatile HostMetrics metrics;
+
+    // set by the load balancer this host belongs to
+    volatile HostEventDispatcher eventDispatcher;
+    volatile CapacitySignal capacitySignal;
+    volatile LoadBalancer.PeerLatency peerLatency;
+
+    // selection ticket assigned by the load balancer; used to break ties between equally loaded hosts
+    volatile long lastSelection;
 
     /**
      * @param name the host name or IP address of this host
@@ -68,38 +139,151 @@ public class Host implements HostStats {
         this.port = port;
         if (port < 0) this.logName = name;
         else this.logName = name + ":" + port;
+        for (int i = 0; i < phaseHistograms.length; i++) {
+            phaseHistograms[i] = new LatencyHistogram();
+        }
     }
 
-    public synchronized void connectionOpened() {
-        openConnections++;
-        totalConnections++;
+    public void connectionOpened() {
+        // total is incremented first, so a reader never sees more open connections than total connections
+        totalConnections.increment();
+        openConnections.incrementAndGet();
         lastConnectionTime = System.currentTimeMillis();
     }
 
-    public synchronized void connectionClosed() {
-        openConnections--;
+    public void connectionClosed() {
+        int open = openConnections.decrementAndGet();
 
         // Just in case our stats get out of whack somehow, make sure people know about it
-        if (openConnections < 0) {
+        if (open < 0) {
             long currentTime = System.currentTimeMillis();
             if (currentTime - lastLogTime > LOG_DELAY) {
-                log.warn("openConnections for host {} is {} !", this, openConnections);
+                log.warn("openConnections for host {} is {} !", this, open);
                 lastLogTime = currentTime;
             }
         }
     }
 
-    public synchronized void callComplete(boolean isError) {
+    /**
+     * Records the time until response headers were received, then tallies the call like
+     * {@link #callComplete(boolean)}.
+     */
+    public void callComplete(boolean isError, long latencyNanos) {
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if (circuitBreaker != null) circuitBreaker.recordUnpermittedResult(isError);
+        recordCall(isError, latencyNanos);
+    }
+
+    /**
+     * Tallies a completed call that was granted by {@link #tryAcquirePermit()}. <code>latencyNanos</code> is the
+     * time until response headers were received (or -1 if the call produced no response) and
+     * <code>permitTime</code> is the {@link System#nanoTime()} taken right after the permit was granted, so that
+     * only calls permitted as half-open trials are counted as such by the circuit breaker.
+     */
+    public void callComplete(boolean isError, long latencyNanos, long permitTime) {
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if (circuitBreaker != null) circuitBreaker.recordResult(isError, permitTime);
+        releaseSlot();
+        recordCall(isError, latencyNanos);
+    }
+
+    private void recordCall(boolean isError, long latencyNanos) {
+        ConcurrencyLimiter concurrencyLimiter = this.concurrencyLimiter;
+        if (latencyNanos >= 0) {
+            boolean firstSample = !responseLatency.isSampled();
+            responseLatency.update(latencyNanos);
+            if (firstSample) invalidatePeerLatency();
+            responseLatencyHistogram.record(latencyNanos);
+            addActivity(RECENT_LATENCY_COUNT, 1);
+            addActivity(RECENT_LATENCY_SUM, latencyNanos);
+            HostMetrics metrics = this.metrics;
+            if (metrics != null) metrics.responseReceived(latencyNanos);
+
+            if (concurrencyLimiter != null) concurrencyLimiter.onSample(isError, latencyNanos, reservedSlots.get());
+        } else if (concurrencyLimiter != null && isError) {
+            concurrencyLimiter.onDrop();
+        }
+
+        addActivity(RECENT_CALLS, 1);
+        HostMetrics metrics = this.metrics;
+        if (metrics != null) metrics.callComplete(isError);
         if (isError) {
-            totalErrors++;
-            consecutiveErrors++;
-            log.debug("error tallied for {}; total errors: {}, consecutive errors: {}",
-                    logName, totalErrors, consecutiveErrors);
-        } else {
-            consecutiveErrors = 0;
+            addActivity(RECENT_ERRORS, 1);
+            totalErrors.increment();
+            long consecutive = consecutiveErrors.incrementAndGet();
+            if (log.isDebugEnabled())
+                log.debug("error tallied for {}; total errors: {}, consecutive errors: {}",
+                        logName, totalErrors.sum(), consecutive);
+        } else if (consecutiveErrors.get() != 0) { // avoid a shared write on every successful call
+            consecutiveErrors.set(0);
+        }
+    }
+
+    /**
+     * Records the total duration of the call (until the response stream was closed), then tallies the closure like
+     * {@link #connectionClosed()}.
+     */
+    public void connectionClosed(long durationNanos) {
+        completionLatency.update(durationNanos);
+        completionLatencyHistogram.record(durationNanos);
+        connectionClosed();
+    }
+
+    /**
+     * Records the duration of each observed phase of a completed request
+     */
+    public void requestTimed(RequestTiming timing) {
+        for (RequestTiming.Phase phase : RequestTiming.Phase.values()) {
+            long duration = timing.getDuration(phase);
+            if (duration >= 0) phaseHistograms[phase.ordinal()].record(duration);
         }
     }
 
+    /**
+     * Records <code>count</code> bytes of response body read from this host
+     */
+    public void bytesReceived(long count) {
+        totalBytesReceived.add(count);
+        addActivity(RECENT_BYTES_RECEIVED, count);
+    }
+
+    /**
+     * Records <code>count</code> bytes of request body written to this host
+     */
+    public void bytesSent(long count) {
+        totalBytesSent.add(count);
+        addActivity(RECENT_BYTES_SENT, count);
+    }
+
+    /**
+     * Adjusts the number of bytes still to be transferred by calls in progress: add the expected size when a transfer
+     * of known size starts, and subtract the bytes as they are transferred (and any remainder when it ends).
+     */
+    public void addInFlightBytes(long delta) {
+        inFlightBytes.addAndGet(delta);
+    }
+
+    /**
+     * Tallies a completed call (use {@link #callComplete(boolean, long)} if the call produced a response). This and
+     * {@link #callComplete(boolean, long)} only update statistics; calls that hold a permit from
+     * {@link #tryAcquirePermit()} must use {@link #callComplete(boolean, long, long)} so that their concurrency slot
+     * and half-open trial are released.
+     */
+    public void callComplete(boolean isError) {
+        callComplete(isError, -1);
+    }
+
+    /**
+     * Releases a permit granted by {@link #tryAcquirePermit()} that was not used to send a request (e.g. because the
+     * request failed before it was sent). <code>permitTime</code> is as for
+     * {@link #callComplete(boolean, long, long)}.
+     */
+    public void releasePermit(long permitTime) {
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if (circuitBreaker != null) circuitBreaker.releasePermit(permitTime);
+        releaseSlot();
+    }
+
     public String getName() {
         return name;
     }
@@ -109,7 +293,10 @@ public class Host implements HostStats {
     }
 
     public boolean isHealthy() {
-        if (!healthy) return false;
+        long consecutiveErrors = this.consecutiveErrors.get();
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if (!healthy || isEjected()) return false;
+        else if (circuitBreaker != null) return circuitBreaker.allowsRequests();
         else if (consecutiveErrors == 0) return true;
         else {
             // errorWaitTime * 2 ^ (min(errors-1, 4))
@@ -122,35 +309,211 @@ public class Host implements HostStats {
     }
 
     public void setHealthy(boolean healthy) {
+        boolean wasHealthy = this.healthy;
         this.healthy = healthy;
+        if (healthy == wasHealthy) return;
+        if (healthy) startSlowStart();
+        postEvent(new HostEvent(healthy ? HostEvent.Type.HEALTHY : HostEvent.Type.UNHEALTHY, this));
+        recordHealthTransition(healthy, false);
+    }
+
+    // called by the outlier detector when it ejects this host or returns it to service
+    void ejectionChanged(boolean ejected) {
+        postEvent(new HostEvent(ejected ? HostEvent.Type.EJECTED : HostEvent.Type.RESTORED, this));
+        recordHealthTransition(!ejected, true);
+    }
+
+    private void recordHealthTransition(boolean healthy, boolean outlier) {
+        if (FlightRecorderEvents.isActive()) {
+            HealthTransitionEvent event = new HealthTransitionEvent();
+            if (event.isEnabled()) {
+                event.setHost(name);
+                event.setHealthy(healthy);
+                event.setOutlier(outlier);
+                event.commit();
+            }
+        }
+    }
+
+    // called by the load balancer; the rate limiter publishes its wait times with the other meters of this host
+    void setMetrics(HostMetrics metrics) {
+        this.metrics = metrics;
+        RateLimiter rateLimiter = this.rateLimiter;
+        if (rateLimiter != null) rateLimiter.waitTimer = metrics == null ? null : metrics.getRateLimitWait();
+    }
+
+    /**
+     * Passes <code>event</code> to the {@link HostListener}s of the load balancer this host belongs to (if any).
+     * Subclasses use this to report state changes of their own (e.g. maintenance mode).
+     */
+    protected void postEvent(HostEvent event) {
+        HostEventDispatcher eventDispatcher = this.eventDispatcher;
+        if (eventDispatcher != null) eventDispatcher.post(event);
+    }
+
+    /**
+     * Returns true if this host is currently ejected by an {@link OutlierDetector}
+     */
+    public boolean isEjected() {
+        long ejectedUntil = this.ejectedUntil;
+        return ejectedUntil != 0 && System.currentTimeMillis() < ejectedUntil;
+    }
+
+    /**
+     * Called by the load balancer when this host is selected for a request. Returns false if the host is saturated,
+     * has no rate limit permit available, or its circuit breaker does not let the request through (i.e. all half-open
+     * trials are taken), in which case another host should be chosen. Otherwise, a concurrency slot is reserved for
+     * the request (if there is a limiter), which is released when the call is tallied by
+     * {@link #callComplete(boolean, long, long)} or the permit is released by {@link #releasePermit(long)}. Rate limit
+     * permits are not acquired here; the caller acquires them from {@link #getRateLimiter()}.
+     */
+    public boolean tryAcquirePermit() {
+        return tryAcquirePermit(true);
+    }
+
+    // the load balancer ignores the rate limit if no host has a permit available (the caller then waits for one)
+    boolean tryAcquirePermit(boolean checkRateLimit) {
+        if (!reserveSlot()) return false;
+        RateLimiter rateLimiter = this.rateLimiter;
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if ((checkRateLimit && rateLimiter != null && !rateLimiter.isAvailable())
+                || (circuitBreaker != null && !circuitBreaker.tryAcquirePermit())) {
+            releaseSlot();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean reserveSlot() {
+        ConcurrencyLimiter concurrencyLimiter = this.concurrencyLimiter;
+        if (concurrencyLimiter == null) return true;
+        int limit = concurrencyLimiter.getLimit();
+        while (true) {
+            int reserved = reservedSlots.get();
+            if (reserved >= limit) return false;
+            if (reservedSlots.compareAndSet(reserved, reserved + 1)) return true;
+        }
+    }
+
+    private void releaseSlot() {
+        // slots are only reserved while there is a limiter (and callers without a permit hold none)
+        int reserved;
+        do {
+            reserved = reservedSlots.get();
+            if (reserved == 0) return;
+        } while (!reservedSlots.compareAndSet(reserved, reserved - 1));
+        CapacitySignal capacitySignal = this.capacitySignal;
+        if (capacitySignal != null) capacitySignal.signal();
+    }
+
+    /**
+     * Returns true if the requests permitted by this host are at its concurrency limit (false if there is no limiter)
+     */
+    public boolean isSaturated() {
+        ConcurrencyLimiter concurrencyLimiter = this.concurrencyLimiter;
+        return concurrencyLimiter != null && reservedSlots.get() >= concurrencyLimiter.getLimit();
+    }
+
+    /**
+     * Returns the state of this host's circuit breaker ({@link CircuitBreaker.State#CLOSED} if there is none)
+     */
+    public CircuitBreaker.State getCircuitState() {
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        return circuitBreaker == null ? CircuitBreaker.State.CLOSED : circuitBreaker.getState();
     }
 
     public long getResponseIndex() {
-        return openConnections;
+        long index;
+        if (responseIndexMode == ResponseIndexMode.PEAK_EWMA) {
+            // cost of one more request, in microseconds of expected latency
+            long latencyUs = (long) (getExpectedLatency() / 1000);
+            index = (openConnections.get() + 1) * Math.max(latencyUs, 1);
+        } else if (responseIndexMode == ResponseIndexMode.IN_FLIGHT_BYTES) {
+            index = openConnections.get() + getInFlightBytes() / IN_FLIGHT_BYTES_PER_CONNECTION;
+        } else {
+            index = openConnections.get();
+        }
+
+        // while ramping up, the host looks as if it had (1 / weight) times the load it has
+        // (+1, so an idle host is not treated as free)
+        double weight = getSlowStartWeight();
+        if (weight < 1) index = (long) ((index + 1) / weight) - 1;
+
+        return index;
+    }
+
+    // a host that has not responded yet is assumed to be as fast as its peers (or the default latency, if set),
+    // rather than free, so it is not flooded with requests before its first response
+    private double getExpectedLatency() {
+        if (responseLatency.isSampled()) return responseLatency.get();
+        long defaultLatency = this.defaultLatency;
+        if (defaultLatency > 0) return defaultLatency * 1000000.0;
+        LoadBalancer.PeerLatency peerLatency = this.peerLatency;
+        return peerLatency == null ? 0 : peerLatency.get();
+    }
+
+    /**
+     * Starts the slow-start window of this host (if one is configured). This is done automatically when the host
+     * comes back healthy, when its circuit breaker closes after a half-open trial and when it is added to a load
+     * balancer.
+     */
+    protected void startSlowStart() {
+        if (slowStartWindow > 0) slowStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the effective weight of this host in its slow-start window, which ramps linearly from the
+     * slow-start minimum weight to 1 (full weight, outside of the window).
+     */
+    public double getSlowStartWeight() {
+        long startTime = slowStartTime;
+        if (startTime == 0) return 1;
+
+        long window = slowStartWindow;
+        long elapsed = System.currentTimeMillis() - startTime;
+        if (window <= 0 || elapsed >= window) return 1;
+
+        double minWeight = slowStartMinWeight;
+        return minWeight + (1 - minWeight) * Math.max(elapsed, 0) / window;
     }
 
     /**
      * Resets historical metrics. Use with care!
      */
-    public synchronized void resetStats() {
-        totalConnections = openConnections;
-        totalErrors = 0;
-        consecutiveErrors = 0;
+    public void resetStats() {
+        totalConnections.reset();
+        totalConnections.add(openConnections.get());
+        totalErrors.reset();
+        consecutiveErrors.set(0);
+        totalBytesSent.reset();
+        totalBytesReceived.reset();
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if (circuitBreaker != null) circuitBreaker.reset();
+        responseLatency.reset();
+        invalidatePeerLatency();
+        completionLatency.reset();
+        responseLatencyHistogram.reset();
+        completionLatencyHistogram.reset();
+        for (LatencyHistogram histogram : phaseHistograms) {
+            histogram.reset();
+        }
+        recentActivity.reset();
+        activityHistory.reset();
     }
 
     @Override
     public long getTotalConnections() {
-        return totalConnections;
+        return totalConnections.sum();
     }
 
     @Override
     public long getTotalErrors() {
-        return totalErrors;
+        return totalErrors.sum();
     }
 
     @Override
     public int getOpenConnections() {
-        return openConnections;
+        return openConnections.get();
     }
 
     @Override
@@ -159,7 +522,139 @@ public class Host implements HostStats {
     }
 
     public long getConsecutiveErrors() {
-        return consecutiveErrors;
+        return consecutiveErrors.get();
+    }
+
+    @Override
+    public long getTotalBytesSent() {
+        return totalBytesSent.sum();
+    }
+
+    @Override
+    public long getTotalBytesReceived() {
+        return totalBytesReceived.sum();
+    }
+
+    @Override
+    public long getInFlightBytes() {
+        return Math.max(inFlightBytes.get(), 0);
+    }
+
+    /**
+     * Reads all statistics of this host without blocking any request. Counters are read in an order that keeps them
+     * consistent with each other (open connections and total errors never exceed total connections).
+     */
+    @Override
+    public HostStatsSnapshot getSnapshot() {
+        int open = openConnections.get();
+        long errors = totalErrors.sum();
+        long total = totalConnections.sum();
+        Map<WindowStats.Window, WindowStats> windowStats = new EnumMap<>(WindowStats.Window.class);
+        for (WindowStats.Window window : WindowStats.Window.values()) {
+            windowStats.put(window, getWindowStats(window));
+        }
+        return new HostStatsSnapshot(name, port, Math.max(total, Math.max(open, errors)), errors, open,
+                new Date(lastConnectionTime), totalBytesSent.sum(), totalBytesReceived.sum(), getInFlightBytes(),
+                responseLatencyHistogram.getSnapshot(), completionLatencyHistogram.getSnapshot(), windowStats);
+    }
+
+    @Override
+    public WindowStats getWindowStats(WindowStats.Window window) {
+        return getWindowStats(window.getMillis());
+    }
+
+    /**
+     * Returns the totals and rates of the last <code>windowMillis</code> milliseconds. Windows of up to
+     * {@value #RECENT_WINDOW_BUCKETS} * {@value #RECENT_WINDOW_BUCKET_MS} ms are rounded up to whole seconds; longer
+     * ones are rounded up to whole minutes (the current minute counting as one), up to
+     * {@value #HISTORY_WINDOW_BUCKETS} * {@value #HISTORY_WINDOW_BUCKET_MS} ms.
+     */
+    public WindowStats getWindowStats(long windowMillis) {
+        RollingWindow activity = activityFor(windowMillis);
+        long[] sums = activity.sumAll(windowMillis);
+        long bucketMillis = activity.getBucketMillis();
+        long span = Math.min(activity.getWindowMillis(), (windowMillis + bucketMillis - 1) / bucketMillis * bucketMillis);
+        return new WindowStats(span, sums[RECENT_CALLS], sums[RECENT_ERRORS], sums[RECENT_BYTES_RECEIVED],
+                sums[RECENT_BYTES_SENT], sums[RECENT_LATENCY_COUNT], sums[RECENT_LATENCY_SUM]);
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getResponseLatencyHistogram() {
+        return responseLatencyHistogram.getSnapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCompletionLatencyHistogram() {
+        return completionLatencyHistogram.getSnapshot();
+    }
+
+    /**
+     * Returns the distribution of the duration of <code>phase</code> in the requests sent to this host
+     *
+     * @see #requestTimed(RequestTiming)
+     */
+    public LatencyHistogram.Snapshot getPhaseLatencyHistogram(RequestTiming.Phase phase) {
+        return phaseHistograms[phase.ordinal()].getSnapshot();
+    }
+
+    /**
+     * Returns the number of calls completed in the last <code>windowMillis</code> milliseconds (rounded as for
+     * {@link #getWindowStats(long)})
+     */
+    public long getRecentCalls(long windowMillis) {
+        return activityFor(windowMillis).sum(RECENT_CALLS, windowMillis);
+    }
+
+    /**
+     * Returns the number of errors in the last <code>windowMillis</code> milliseconds
+     */
+    public long getRecentErrors(long windowMillis) {
+        return activityFor(windowMillis).sum(RECENT_ERRORS, windowMillis);
+    }
+
+    /**
+     * Returns the mean time until response headers were received in the last <code>windowMillis</code> milliseconds,
+     * in nanoseconds (0 if no latency was recorded)
+     */
+    public long getRecentResponseLatency(long windowMillis) {
+        RollingWindow activity = activityFor(windowMillis);
+        long count = activity.sum(RECENT_LATENCY_COUNT, windowMillis);
+        return count == 0 ? 0 : activity.sum(RECENT_LATENCY_SUM, windowMillis) / count;
+    }
+
+    private void addActivity(int metric, long value) {
+        long now = System.currentTimeMillis();
+        recentActivity.add(metric, value, now);
+        activityHistory.add(metric, value, now);
+    }
+
+    // the fine tier answers windows it spans; longer windows fall back to the coarse tier
+    private RollingWindow activityFor(long windowMillis) {
+        return windowMillis <= recentActivity.getWindowMillis() ? recentActivity : activityHistory;
+    }
+
+    /**
+     * Returns the peak-sensitive moving average of the time until response headers are received, in nanoseconds.
+     */
+    public long getResponseLatencyEwma() {
+        return (long) responseLatency.get();
+    }
+
+    // the mean latency of the load balancer's hosts changes when a host gets its first sample or loses its samples
+    private void invalidatePeerLatency() {
+        LoadBalancer.PeerLatency peerLatency = this.peerLatency;
+        if (peerLatency != null) peerLatency.invalidate();
+    }
+
+    boolean hasResponseLatency() {
+        return responseLatency.isSampled();
+    }
+
+    /**
+     * Returns the moving average of the total call duration (until the response stream is closed), in nanoseconds.
+     */
+    public long getCompletionLatencyEwma() {
+        return (long) completionLatency.get();
     }
 
     @Override
@@ -178,7 +673,7 @@ public class Host implements HostStats {
     @Override
     public String toString() {
         return String.format("%s{totalConnections=%d, totalErrors=%d, openConnections=%d, lastConnectionTime=%s}",
-                logName, totalConnections, totalErrors, openConnections, new Date(lastConnectionTime));
+                logName, totalConnections.sum(), totalErrors.sum(), openConnections.get(), new Date(lastConnectionTime));
     }
 
     public int getErrorWaitTime() {
@@ -197,4 +692,198 @@ public class Host implements HostStats {
         setErrorWaitTime(errorWaitTime);
         return this;
     }
+
+    public ResponseIndexMode getResponseIndexMode() {
+        return responseIndexMode;
+    }
+
+    /**
+     * Sets how the response index (load) of this host is calculated. Defaults to
+     * {@link ResponseIndexMode#OPEN_CONNECTIONS}.
+     */
+    public void setResponseIndexMode(ResponseIndexMode responseIndexMode) {
+        if (responseIndexMode == null) throw new NullPointerException("responseIndexMode");
+        this.responseIndexMode = responseIndexMode;
+    }
+
+    public Host withResponseIndexMode(ResponseIndexMode responseIndexMode) {
+        setResponseIndexMode(responseIndexMode);
+        return this;
+    }
+
+    public long getLatencyDecayTime() {
+        return responseLatency.getDecayTime();
+    }
+
+    /**
+     * Sets the time constant (in milliseconds) of the latency moving averages. A sample's weight drops to ~37% after
+     * this much time has passed. Defaults to {@value #DEFAULT_LATENCY_DECAY_MS}.
+     */
+    public void setLatencyDecayTime(long latencyDecayTime) {
+        responseLatency.setDecayTime(latencyDecayTime);
+        completionLatency.setDecayTime(latencyDecayTime);
+    }
+
+    public Host withLatencyDecayTime(long latencyDecayTime) {
+        setLatencyDecayTime(latencyDecayTime);
+        return this;
+    }
+
+    public long getDefaultLatency() {
+        return defaultLatency;
+    }
+
+    /**
+     * Sets the response latency (in milliseconds) assumed in {@link ResponseIndexMode#PEAK_EWMA} mode until this host
+     * has responded to a request. Defaults to 0 (not set), in which case the mean latency of the other hosts in the
+     * load balancer is assumed.
+     */
+    public void setDefaultLatency(long defaultLatency) {
+        if (defaultLatency < 0) throw new IllegalArgumentException("defaultLatency must not be negative");
+        this.defaultLatency = defaultLatency;
+    }
+
+    public Host withDefaultLatency(long defaultLatency) {
+        setDefaultLatency(defaultLatency);
+        return this;
+    }
+
+    /**
+     * Returns the capacity weight of this host ({@value #DEFAULT_WEIGHT} unless set)
+     */
+    public int getWeight() {
+        int weight = this.weight;
+        return weight == 0 ? DEFAULT_WEIGHT : weight;
+    }
+
+    /**
+     * Sets the capacity weight of this host relative to other hosts (e.g. a host with weight 200 can handle twice the
+     * load of a host with weight 100). Weights are used by {@link WeightedLeastRequestStrategy}. A host list provider
+     * can update the weight of a known host by returning a host with the new weight set; hosts without an explicit
+     * weight do not change it. Defaults to {@value #DEFAULT_WEIGHT}.
+     */
+    public void setWeight(int weight) {
+        if (weight < 1) throw new IllegalArgumentException("weight must be at least 1");
+        this.weight = weight;
+    }
+
+    public Host withWeight(int weight) {
+        setWeight(weight);
+        return this;
+    }
+
+    boolean isWeightSet() {
+        return weight != 0;
+    }
+
+    public long getSlowStartWindow() {
+        return slowStartWindow;
+    }
+
+    /**
+     * Sets the slow-start window in milliseconds. When this host is added to a load balancer, comes back healthy or
+     * recovers from an open circuit, its weight ramps up over this period, so it is not flooded with requests because it has no open connections.
+     * Defaults to 0 (disabled).
+     */
+    public void setSlowStartWindow(long slowStartWindow) {
+        this.slowStartWindow = slowStartWindow;
+    }
+
+    public Host withSlowStartWindow(long slowStartWindow) {
+        setSlowStartWindow(slowStartWindow);
+        return this;
+    }
+
+    public double getSlowStartMinWeight() {
+        return slowStartMinWeight;
+    }
+
+    /**
+     * Sets the weight (between 0 and 1, exclusive of 0) of this host at the start of its slow-start window. Defaults
+     * to {@value #DEFAULT_SLOW_START_MIN_WEIGHT}.
+     */
+    public void setSlowStartMinWeight(double slowStartMinWeight) {
+        if (slowStartMinWeight <= 0 || slowStartMinWeight > 1)
+            throw new IllegalArgumentException("slowStartMinWeight must be > 0 and <= 1");
+        this.slowStartMinWeight = slowStartMinWeight;
+    }
+
+    public Host withSlowStartMinWeight(double slowStartMinWeight) {
+        setSlowStartMinWeight(slowStartMinWeight);
+        return this;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets the circuit breaker of this host, which is driven by the results passed to
+     * {@link #callComplete(boolean)}. Defaults to null (the error cool-down is used instead).
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        if (circuitBreaker != null) circuitBreaker.host = this;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public Host withCircuitBreaker(CircuitBreaker circuitBreaker) {
+        setCircuitBreaker(circuitBreaker);
+        return this;
+    }
+
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Sets the adaptive concurrency limiter of this host, which is driven by the results passed to
+     * {@link #callComplete(boolean, long)}. Defaults to null (no limit).
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public Host withConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        setConcurrencyLimiter(concurrencyLimiter);
+        return this;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets a rate limiter for requests to this host. The load balancer avoids this host while no permit is
+     * available, and the smart client acquires a permit before each request. Defaults to null (no limit).
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        if (rateLimiter != null) {
+            HostMetrics metrics = this.metrics;
+            rateLimiter.waitTimer = metrics == null ? null : metrics.getRateLimitWait();
+        }
+    }
+
+    public Host withRateLimiter(RateLimiter rateLimiter) {
+        setRateLimiter(rateLimiter);
+        return this;
+    }
+
+    public enum ResponseIndexMode {
+        /**
+         * The response index is the number of open connections
+         */
+        OPEN_CONNECTIONS,
+        /**
+         * The response index is the number of open connections (plus one) multiplied by the peak-EWMA response
+         * latency in microseconds, so a host that is slow to respond is avoided even when it has few connections. A
+         * host that has not responded yet is assumed to have the {@link #setDefaultLatency(long) default latency}.
+         */
+        PEAK_EWMA,
+        /**
+         * The response index is the number of open connections plus the bytes still to be transferred by them, with
+         * every {@value Host#IN_FLIGHT_BYTES_PER_CONNECTION} bytes counting as one more connection
+         */
+        IN_FLIGHT_BYTES
+    }
 }
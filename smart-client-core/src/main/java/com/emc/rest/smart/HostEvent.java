@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+/**
+ * A change in the state of a host, delivered to {@link HostListener}s registered with a {@link LoadBalancer}.
+ */
+public class HostEvent {
+    private final Type type;
+    private final Host host;
+    private final CircuitBreaker.State circuitState;
+    private final long time;
+
+    public HostEvent(Type type, Host host) {
+        this(type, host, null);
+    }
+
+    public HostEvent(Type type, Host host, CircuitBreaker.State circuitState) {
+        if (type == null) throw new NullPointerException("type");
+        if (host == null) throw new NullPointerException("host");
+        this.type = type;
+        this.host = host;
+        this.circuitState = circuitState;
+        this.time = System.currentTimeMillis();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Host getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the new circuit state for {@link Type#CIRCUIT_STATE_CHANGED} events (null for all other types)
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return circuitState;
+    }
+
+    /**
+     * Returns the time (in epoch milliseconds) when the change happened
+     */
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return type + (circuitState != null ? "(" + circuitState + ")" : "") + " " + host.getName();
+    }
+
+    public enum Type {
+        ADDED(Group.MEMBERSHIP),
+        REMOVED(Group.MEMBERSHIP),
+        HEALTHY(Group.HEALTH),
+        UNHEALTHY(Group.HEALTH),
+        MAINTENANCE_ON(Group.MAINTENANCE),
+        MAINTENANCE_OFF(Group.MAINTENANCE),
+        CIRCUIT_STATE_CHANGED(Group.CIRCUIT),
+        EJECTED(Group.EJECTION),
+        RESTORED(Group.EJECTION);
+
+        // events of the same group (for the same host) supersede each other
+        final Group group;
+
+        Type(Group group) {
+            this.group = group;
+        }
+    }
+
+    enum Group {
+        MEMBERSHIP, HEALTH, MAINTENANCE, CIRCUIT, EJECTION
+    }
+}
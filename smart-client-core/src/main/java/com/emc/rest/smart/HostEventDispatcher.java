@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers host events to listeners asynchronously. Posting an event never blocks: it replaces any pending event of
+ * the same group for the same host (so at most one event per host and group is ever queued), and at most one drain
+ * task is submitted to the executor at a time.
+ */
+class HostEventDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(HostEventDispatcher.class);
+
+    private final List<HostListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Key, HostEvent> pending = new LinkedHashMap<>(); // guarded by this
+    private boolean draining; // guarded by this
+    private volatile Executor executor = newDefaultExecutor();
+
+    void addListener(HostListener listener) {
+        if (listener == null) throw new NullPointerException("listener");
+        listeners.add(listener);
+    }
+
+    void removeListener(HostListener listener) {
+        listeners.remove(listener);
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = executor != null ? executor : newDefaultExecutor();
+    }
+
+    void post(HostEvent event) {
+        if (listeners.isEmpty()) return;
+        synchronized (this) {
+            Key key = new Key(event.getHost(), event.getType().group);
+            pending.remove(key); // re-insert, so events are delivered in the order of their latest change
+            pending.put(key, event);
+            if (draining) return;
+            draining = true;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // pending events are kept and delivered with the next event
+            synchronized (this) {
+                draining = false;
+            }
+            log.warn("host event executor rejected delivery", e);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            HostEvent event;
+            synchronized (this) {
+                Iterator<HostEvent> iterator = pending.values().iterator();
+                if (!iterator.hasNext()) {
+                    draining = false;
+                    return;
+                }
+                event = iterator.next();
+                iterator.remove();
+            }
+            for (HostListener listener : listeners) {
+                try {
+                    listener.hostChanged(event);
+                } catch (Throwable t) {
+                    log.warn("host listener failed on " + event, t);
+                }
+            }
+        }
+    }
+
+    // a single daemon thread that goes away when idle
+    private static Executor newDefaultExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1), runnable -> {
+            Thread thread = new Thread(runnable, "smart-client-host-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class Key {
+        final Host host;
+        final HostEvent.Group group;
+
+        Key(Host host, HostEvent.Group group) {
+            this.host = host;
+            this.group = group;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return host.equals(key.host) && group == key.group;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * host.hashCode() + group.hashCode();
+        }
+    }
+}
@@ -18,6 +18,10 @@ package com.emc.rest.smart;
 import java.util.List;
 
 public interface HostListProvider {
+    /**
+     * Returns the current list of hosts. Hosts that are already known to the load balancer keep their state, but take
+     * on the weight of the returned host if it is set (see {@link Host#setWeight(int)}).
+     */
     List<Host> getHostList();
 
     /**
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+/**
+ * Receives host state changes from a {@link LoadBalancer}.
+ *
+ * @see LoadBalancer#addHostListener(HostListener)
+ */
+public interface HostListener {
+    /**
+     * Called (on the load balancer's event executor, never on a request or polling thread) when a host changes
+     * state. Only the latest event of each kind is delivered for a host, so a flapping host may skip intermediate
+     * transitions.
+     */
+    void hostChanged(HostEvent event);
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.emc.rest.smart.metrics.Counter;
+import com.emc.rest.smart.metrics.Meter;
+import com.emc.rest.smart.metrics.MetricsRegistry;
+import com.emc.rest.smart.metrics.Timer;
+
+/**
+ * The meters of one host, created by the load balancer when it has a metrics registry. Hosts without metrics don't
+ * have an instance, so recording costs nothing unless metrics are enabled.
+ */
+final class HostMetrics {
+    private final MetricsRegistry registry;
+    private final List<Meter> meters = new ArrayList<>();
+    private final Counter selections;
+    private final Counter calls;
+    private final Counter errors;
+    private final Timer latency;
+    private final Timer rateLimitWait;
+    private final Counter healthChecks;
+    private final Counter healthCheckFailures;
+
+    HostMetrics(MetricsRegistry registry, Host host) {
+        this.registry = registry;
+        String[] tags = {"host", host.getName()};
+        selections = add(registry.counter("host.selections", tags));
+        calls = add(registry.counter("host.calls", tags));
+        errors = add(registry.counter("host.errors", tags));
+        latency = add(registry.timer("host.latency", tags));
+        rateLimitWait = add(registry.timer("host.rateLimitWait", tags));
+        healthChecks = add(registry.counter("host.healthChecks", tags));
+        healthCheckFailures = add(registry.counter("host.healthCheckFailures", tags));
+        add(registry.gauge("host.inFlight", host::getOpenConnections, tags));
+        add(registry.gauge("host.inFlightBytes", host::getInFlightBytes, tags));
+        add(registry.gauge("host.bytesSent", host::getTotalBytesSent, tags));
+        add(registry.gauge("host.bytesReceived", host::getTotalBytesReceived, tags));
+        add(registry.gauge("host.healthy", () -> host.isHealthy() ? 1 : 0, tags));
+        add(registry.gauge("host.requestRate", () -> host.getWindowStats(WindowStats.Window.ONE_MINUTE).getRequestRate(), tags));
+        add(registry.gauge("host.errorRate", () -> host.getWindowStats(WindowStats.Window.ONE_MINUTE).getErrorRate(), tags));
+    }
+
+    private <T extends Meter> T add(T meter) {
+        meters.add(meter);
+        return meter;
+    }
+
+    MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    Timer getRateLimitWait() {
+        return rateLimitWait;
+    }
+
+    void selected() {
+        selections.increment();
+    }
+
+    void responseReceived(long latencyNanos) {
+        latency.record(latencyNanos);
+    }
+
+    void callComplete(boolean isError) {
+        calls.increment();
+        if (isError) errors.increment();
+    }
+
+    void healthChecked(boolean healthy) {
+        healthChecks.increment();
+        if (!healthy) healthCheckFailures.increment();
+    }
+
+    /**
+     * Removes all meters of the host from the registry
+     */
+    void remove() {
+        for (Meter meter : meters) {
+            registry.remove(meter);
+        }
+    }
+}
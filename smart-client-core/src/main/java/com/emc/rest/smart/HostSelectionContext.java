@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-request state passed to a {@link HostSelectionStrategy}.
+ */
+public class HostSelectionContext {
+    private final LoadBalancer loadBalancer;
+    private final Map<String, Object> requestProperties;
+    private final HostVetoRule[] vetoRules;
+    private List<Host> excludedHosts;
+
+    public HostSelectionContext(LoadBalancer loadBalancer, Map<String, Object> requestProperties) {
+        this.loadBalancer = loadBalancer;
+        this.requestProperties = requestProperties;
+        this.vetoRules = loadBalancer.getApplicableVetoRules(requestProperties);
+    }
+
+    /**
+     * Returns true if any veto rule excludes <code>host</code> for this request, or if it was excluded by the load
+     * balancer.
+     */
+    public boolean isVetoed(Host host) {
+        if (excludedHosts != null && excludedHosts.contains(host)) return true;
+        if (vetoRules == null) return false;
+        for (HostVetoRule vetoRule : vetoRules) {
+            if (vetoRule.shouldVeto(host, requestProperties)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if any veto rule (or exclusion) applies to this request. If not, {@link #isVetoed(Host)} is always
+     * false.
+     */
+    public boolean hasVetoRules() {
+        return vetoRules != null || excludedHosts != null;
+    }
+
+    /**
+     * Excludes <code>host</code> from this request (e.g. because it refused the request after it was selected).
+     */
+    void exclude(Host host) {
+        if (excludedHosts == null) excludedHosts = new ArrayList<>(2);
+        excludedHosts.add(host);
+    }
+
+    int getExcludedCount() {
+        return excludedHosts == null ? 0 : excludedHosts.size();
+    }
+
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    /**
+     * May be null.
+     */
+    public Map<String, Object> getRequestProperties() {
+        return requestProperties;
+    }
+}
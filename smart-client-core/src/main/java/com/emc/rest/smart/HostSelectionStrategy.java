@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.Collection;
+
+/**
+ * Decides which host the next request is sent to. Implementations must be thread-safe and should not block, as this
+ * is called on the request path.
+ */
+public interface HostSelectionStrategy {
+    /**
+     * Selects a host from <code>hosts</code>, which is an immutable snapshot of the load balancer's host list and must
+     * not be modified. Hosts for which {@link HostSelectionContext#isVetoed(Host)} returns true must not be selected.
+     * Healthy hosts should be preferred, but if none are healthy, an unhealthy host should still be returned.
+     *
+     * @return the selected host, or null if every host is vetoed
+     */
+    Host selectHost(Host[] hosts, HostSelectionContext context);
+
+    /**
+     * Called (off the request path) when hosts are added to or removed from the load balancer, and with all current
+     * hosts when this strategy is installed. Strategies that keep state about hosts can use this to update it
+     * incrementally. The default implementation does nothing.
+     */
+    default void hostsChanged(Collection<Host> addedHosts, Collection<Host> removedHosts) {
+    }
+}
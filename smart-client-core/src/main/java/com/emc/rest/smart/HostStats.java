@@ -16,7 +16,13 @@
 package com.emc.rest.smart;
 
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
 
+/**
+ * Statistics of a host. Only the connection counts are required; implementations that don't track the other
+ * statistics inherit defaults that report no activity.
+ */
 public interface HostStats {
     long getTotalConnections();
 
@@ -25,4 +31,60 @@ public interface HostStats {
     int getOpenConnections();
 
     Date getLastConnectionTime();
+
+    /**
+     * Returns the number of request body bytes written to the host
+     */
+    default long getTotalBytesSent() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of response body bytes read from the host
+     */
+    default long getTotalBytesReceived() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of bytes still to be transferred by the calls in progress (as far as their size is known)
+     */
+    default long getInFlightBytes() {
+        return 0;
+    }
+
+    /**
+     * Returns the distribution of the time until response headers were received
+     */
+    default LatencyHistogram.Snapshot getResponseLatencyHistogram() {
+        return LatencyHistogram.Snapshot.EMPTY;
+    }
+
+    /**
+     * Returns the distribution of the total call duration (until the response stream was closed)
+     */
+    default LatencyHistogram.Snapshot getCompletionLatencyHistogram() {
+        return LatencyHistogram.Snapshot.EMPTY;
+    }
+
+    /**
+     * Returns the totals and rates of the given recent window
+     */
+    default WindowStats getWindowStats(WindowStats.Window window) {
+        return new WindowStats(window.getMillis(), 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Returns an immutable copy of these statistics, taken without blocking any request. The default implementation
+     * copies the values of the other methods into an unnamed snapshot.
+     */
+    default HostStatsSnapshot getSnapshot() {
+        Map<WindowStats.Window, WindowStats> windowStats = new EnumMap<>(WindowStats.Window.class);
+        for (WindowStats.Window window : WindowStats.Window.values()) {
+            windowStats.put(window, getWindowStats(window));
+        }
+        return new HostStatsSnapshot(null, -1, getTotalConnections(), getTotalErrors(), getOpenConnections(),
+                getLastConnectionTime(), getTotalBytesSent(), getTotalBytesReceived(), getInFlightBytes(),
+                getResponseLatencyHistogram(), getCompletionLatencyHistogram(), windowStats);
+    }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * An immutable, point-in-time copy of a host's statistics.
+ *
+ * @see Host#getSnapshot()
+ */
+public class HostStatsSnapshot implements HostStats {
+    private final String name;
+    private final int port;
+    private final long totalConnections;
+    private final long totalErrors;
+    private final int openConnections;
+    private final Date lastConnectionTime;
+    private final long totalBytesSent;
+    private final long totalBytesReceived;
+    private final long inFlightBytes;
+    private final LatencyHistogram.Snapshot responseLatencyHistogram;
+    private final LatencyHistogram.Snapshot completionLatencyHistogram;
+    private final Map<WindowStats.Window, WindowStats> windowStats;
+
+    public HostStatsSnapshot(String name, int port, long totalConnections, long totalErrors, int openConnections,
+                             Date lastConnectionTime, long totalBytesSent, long totalBytesReceived, long inFlightBytes,
+                             LatencyHistogram.Snapshot responseLatencyHistogram,
+                             LatencyHistogram.Snapshot completionLatencyHistogram,
+                             Map<WindowStats.Window, WindowStats> windowStats) {
+        this.name = name;
+        this.port = port;
+        this.totalConnections = totalConnections;
+        this.totalErrors = totalErrors;
+        this.openConnections = openConnections;
+        this.lastConnectionTime = lastConnectionTime;
+        this.totalBytesSent = totalBytesSent;
+        this.totalBytesReceived = totalBytesReceived;
+        this.inFlightBytes = inFlightBytes;
+        this.responseLatencyHistogram = responseLatencyHistogram;
+        this.completionLatencyHistogram = completionLatencyHistogram;
+        this.windowStats = windowStats.isEmpty() ? Collections.emptyMap() : new EnumMap<>(windowStats);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public long getTotalConnections() {
+        return totalConnections;
+    }
+
+    @Override
+    public long getTotalErrors() {
+        return totalErrors;
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return openConnections;
+    }
+
+    @Override
+    public Date getLastConnectionTime() {
+        return new Date(lastConnectionTime.getTime());
+    }
+
+    @Override
+    public long getTotalBytesSent() {
+        return totalBytesSent;
+    }
+
+    @Override
+    public long getTotalBytesReceived() {
+        return totalBytesReceived;
+    }
+
+    @Override
+    public long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getResponseLatencyHistogram() {
+        return responseLatencyHistogram;
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCompletionLatencyHistogram() {
+        return completionLatencyHistogram;
+    }
+
+    @Override
+    public WindowStats getWindowStats(WindowStats.Window window) {
+        WindowStats stats = windowStats.get(window);
+        return stats != null ? stats : new WindowStats(window.getMillis(), 0, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public HostStatsSnapshot getSnapshot() {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{totalConnections=%d, totalErrors=%d, openConnections=%d, lastConnectionTime=%s}",
+                port < 0 ? name : name + ":" + port, totalConnections, totalErrors, openConnections, lastConnectionTime);
+    }
+}
@@ -16,7 +16,20 @@
 package com.emc.rest.smart;
 
 import java.util.Map;
+import java.util.Set;
 
 public interface HostVetoRule {
+    /**
+     * @param requestProperties a read-only view of the request's properties (may be null)
+     */
     boolean shouldVeto(Host host, Map<String, Object> requestProperties);
+
+    /**
+     * Returns the names of the request properties this rule depends on. If none of them are set on a request, the
+     * rule is skipped for that request without being evaluated for any host. The default (null) means the rule is
+     * always evaluated. The returned set must not change after the rule is given to the load balancer.
+     */
+    default Set<String> getRequiredProperties() {
+        return null;
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, lock-free latency histogram with log-linear buckets. Latencies are tracked with microsecond
+ * resolution: each power-of-two range is split into {@value #SUB_BUCKETS} linear sub-buckets, so any recorded value is
+ * reported within ~6% of its actual value. Values above {@link #MAX_TRACKABLE_MICROS} (about 19 hours) are clamped.
+ * <p>
+ * Recording a value does not allocate or block. Use {@link #getSnapshot()} to get an immutable copy that can be
+ * queried for percentiles and merged with other snapshots (e.g. to aggregate across hosts).
+ */
+public final class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public static final int MAX_EXPONENT = 36;
+    public static final long MAX_TRACKABLE_MICROS = (1L << MAX_EXPONENT) - 1;
+    static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sumMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a latency value given in nanoseconds.
+     */
+    public void record(long latencyNanos) {
+        long micros = Math.min(Math.max(latencyNanos / 1000, 0), MAX_TRACKABLE_MICROS);
+        buckets.incrementAndGet(bucketIndex(micros));
+        sumMicros.add(micros);
+
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    /**
+     * Returns a copy of the current state of this histogram. Values recorded concurrently may or may not be included.
+     */
+    public Snapshot getSnapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, sumMicros.sum(), maxMicros.get());
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently may survive the reset.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        sumMicros.reset();
+        maxMicros.set(0);
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value (in microseconds) that falls into the bucket at <code>index</code>.
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /**
+     * An immutable copy of a {@link LatencyHistogram}. All values are returned in nanoseconds.
+     */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKET_COUNT], 0, 0, 0);
+
+        private final long[] counts;
+        private final long count;
+        private final long sumMicros;
+        private final long maxMicros;
+
+        private Snapshot(long[] counts, long count, long sumMicros, long maxMicros) {
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : sumMicros * 1000 / count;
+        }
+
+        public long getMax() {
+            return maxMicros * 1000;
+        }
+
+        /**
+         * Returns the value at the given percentile (0-100), e.g. 99.9 for the p999 latency. The result is the upper
+         * bound of the bucket containing the percentile (never more than the recorded maximum), or 0 if no values
+         * were recorded.
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) return 0;
+            if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("percentile must be 0-100");
+            long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(bucketUpperBound(i), maxMicros) * 1000;
+            }
+            return maxMicros * 1000;
+        }
+
+        /**
+         * Returns a new snapshot that combines the values of this snapshot and <code>other</code>.
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, count + other.count, sumMicros + other.sumMicros,
+                    Math.max(maxMicros, other.maxMicros));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{count=%d, mean=%dus, p50=%dus, p99=%dus, p999=%dus, max=%dus}", count,
+                    getMean() / 1000, getPercentile(50) / 1000, getPercentile(99) / 1000, getPercentile(99.9) / 1000,
+                    getMax() / 1000);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+/**
+ * Scans every host and selects the one with the lowest response index, preferring healthy hosts. Ties go to the host
+ * that was selected least recently. This is the default strategy.
+ */
+public class LeastConnectionsStrategy implements HostSelectionStrategy {
+    @Override
+    public Host selectHost(Host[] hosts, HostSelectionContext context) {
+        Host topHost = null, topHealthyHost = null;
+
+        long lowestIndex = Long.MAX_VALUE, lowestHealthyIndex = Long.MAX_VALUE;
+
+        for (Host host : hosts) {
+
+            // apply any veto rules
+            if (context.isVetoed(host)) continue;
+
+            // get response index for a host
+            long hostIndex = host.getResponseIndex();
+
+            // remember the host with the lowest index
+            if (hostIndex < lowestIndex || (hostIndex == lowestIndex && selectedBefore(host, topHost))) {
+                topHost = host;
+                lowestIndex = hostIndex;
+            }
+
+            // also keep track of the top *healthy* host
+            if (host.isHealthy() && (hostIndex < lowestHealthyIndex
+                    || (hostIndex == lowestHealthyIndex && selectedBefore(host, topHealthyHost)))) {
+                topHealthyHost = host;
+                lowestHealthyIndex = hostIndex;
+            }
+        }
+
+        // if there are no healthy hosts, we still need a host to contact
+        return topHealthyHost != null ? topHealthyHost : topHost;
+    }
+
+    static boolean selectedBefore(Host host, Host other) {
+        return other != null && host.lastSelection < other.lastSelection;
+    }
+}
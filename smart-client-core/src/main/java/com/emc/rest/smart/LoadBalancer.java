@@ -16,79 +16,230 @@
 package com.emc.rest.smart;
 
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.emc.rest.smart.jfr.FlightRecorderEvents;
+import com.emc.rest.smart.jfr.HostSelectionEvent;
+import com.emc.rest.smart.metrics.Counter;
+import com.emc.rest.smart.metrics.Meter;
+import com.emc.rest.smart.metrics.MetricsRegistry;
+import com.emc.rest.smart.metrics.Timer;
+
+/**
+ * Host selection is lock-free: requests read an immutable snapshot of the host list, which is replaced as a whole
+ * whenever the list is updated.
+ */
 public class LoadBalancer {
-    private final Deque<Host> hosts = new ArrayDeque<>();
-    private List<HostVetoRule> vetoRules;
+
+    private volatile Host[] hosts;
+    private final Object updateLock = new Object();
+    private final AtomicLong cursor = new AtomicLong();
+    private volatile List<HostVetoRule> vetoRules;
+    private volatile VetoRuleSet vetoRuleSet;
+    private volatile HostSelectionStrategy selectionStrategy = new LeastConnectionsStrategy();
+    private Host.ResponseIndexMode responseIndexMode;
+    private long latencyDecayTime;
+    private long slowStartWindow;
+    private double slowStartMinWeight;
+    private CircuitBreakerConfig circuitBreakerConfig;
+    private volatile ConcurrencyLimitConfig concurrencyLimitConfig;
+    private double hostRateLimit;
+    private int hostRateLimitBurst = 1;
+    private volatile MetricsRegistry metricsRegistry;
+    private final List<Meter> metrics = new ArrayList<>(); // guarded by updateLock
+    private volatile Counter retries, hedges, saturations;
+    private volatile Timer rateLimitWait;
+    private final HostEventDispatcher eventDispatcher = new HostEventDispatcher();
+    private final CapacitySignal capacitySignal = new CapacitySignal();
+    private final PeerLatency peerLatency = new PeerLatency();
 
     public LoadBalancer(List<Host> initialHosts) {
 
-        // seed the host map
-        hosts.addAll(initialHosts);
+        // seed the host list
+        hosts = initialHosts.toArray(new Host[0]);
+        for (Host host : hosts) {
+            host.eventDispatcher = eventDispatcher;
+            host.capacitySignal = capacitySignal;
+            host.peerLatency = peerLatency;
+        }
     }
 
     /**
-     * Returns the host with the lowest response index.
+     * Returns the host chosen by the configured {@link HostSelectionStrategy} (by default, the host with the lowest
+     * response index). The chosen host is stamped with a ticket from an atomic cursor, which strategies use to break
+     * ties in favor of the host that was selected least recently. If the chosen host refuses the request (it is at
+     * its concurrency limit, has no rate limit permit available, or its circuit breaker does not let the request
+     * through), the choice is repeated without it. If only rate limits stand in the way, the best host is chosen
+     * regardless of them (the caller waits for the permit).
+     *
+     * @throws SmartClientException if every host is at its concurrency limit (after waiting, depending on the
+     *                              {@link ConcurrencyLimitConfig.SaturationPolicy saturation policy}), or no host lets
+     *                              the request through
      */
     public Host getTopHost(Map<String, Object> requestProperties) {
-        Host topHost = null, topHealthyHost = null;
-
-        long lowestIndex = Long.MAX_VALUE, lowestHealthyIndex = Long.MAX_VALUE;
+        return getTopHost(requestProperties, null);
+    }
 
-        synchronized (hosts) {
-            for (Host host : hosts) {
+    /**
+     * Same as {@link #getTopHost(Map)}, but never selects one of <code>excludedHosts</code> (e.g. hosts that were
+     * already tried for this request). Returns null if no other host is available or lets the request through; unlike
+     * {@link #getTopHost(Map)}, this never waits for capacity or throws because hosts are saturated, so the caller can
+     * fall back to the excluded hosts.
+     */
+    public Host getTopHost(Map<String, Object> requestProperties, Collection<Host> excludedHosts) {
+        return getTopHost(requestProperties, excludedHosts, true);
+    }
 
-                // apply any veto rules
-                if (shouldVeto(host, requestProperties)) continue;
+    /**
+     * Same as {@link #getTopHost(Map, Collection)}, but if <code>mayWait</code> is false, this fails immediately when
+     * every host is at its concurrency limit, regardless of the
+     * {@link ConcurrencyLimitConfig.SaturationPolicy saturation policy} (e.g. for callers that must not block).
+     */
+    public Host getTopHost(Map<String, Object> requestProperties, Collection<Host> excludedHosts, boolean mayWait) {
+        HostSelectionEvent event = FlightRecorderEvents.isActive() ? new HostSelectionEvent() : null;
+        if (event != null) event.begin();
 
-                // get response index for a host
-                long hostIndex = host.getResponseIndex();
+        Host[] hosts = this.hosts;
+        HostSelectionContext context = newContext(requestProperties, excludedHosts);
+        Host firstChoice = selectionStrategy.selectHost(hosts, context);
+        Host topHost = selectPermittedHost(hosts, context, firstChoice, true);
 
-                // remember the host with the lowest index
-                if (hostIndex < lowestIndex) {
-                    topHost = host;
-                    lowestIndex = hostIndex;
-                }
+        if (topHost == null && firstChoice != null) {
+            // rate limits only make the caller wait, so they are no reason to give up
+            topHost = selectPermittedHost(hosts, newContext(requestProperties, excludedHosts), firstChoice, false);
+        }
 
-                // also keep track of the top *healthy* host
-                if (host.isHealthy() && hostIndex < lowestHealthyIndex) {
-                    topHealthyHost = host;
-                    lowestHealthyIndex = hostIndex;
-                }
-            }
+        // with exclusions, the caller can still fall back to the excluded hosts, so only a full choice waits or fails
+        if (topHost == null && firstChoice != null && (excludedHosts == null || excludedHosts.isEmpty())) {
+            ConcurrencyLimitConfig limitConfig = this.concurrencyLimitConfig;
+            if (limitConfig != null && anySaturated(hosts))
+                topHost = awaitCapacity(requestProperties, limitConfig, mayWait);
+            else
+                throw new SmartClientException("no host is available (their circuit breakers are open)");
+        }
 
-            // if there are no healthy hosts, we still need a host to contact
-            if (topHealthyHost != null) topHost = topHealthyHost;
+        if (topHost != null) {
+            // stamp the top host as an extra tie-breaker (it moves to the back of the line)
+            topHost.lastSelection = cursor.incrementAndGet();
+            HostMetrics metrics = topHost.metrics;
+            if (metrics != null) metrics.selected();
+        }
 
-            // move the top host to the end of the host list as an extra tie-breaker
-            hosts.remove(topHost);
-            hosts.add(topHost);
+        if (event != null && event.shouldCommit()) {
+            event.setHost(topHost == null ? null : topHost.getName());
+            event.setCandidates(hosts.length);
+            event.setExcluded(context.getExcludedCount());
+            event.commit();
         }
 
         return topHost;
     }
 
+    private Host selectPermittedHost(Host[] hosts, HostSelectionContext context, Host choice,
+                                     boolean checkRateLimit) {
+        while (choice != null && !choice.tryAcquirePermit(checkRateLimit)) {
+            context.exclude(choice);
+            choice = selectionStrategy.selectHost(hosts, context);
+        }
+        return choice;
+    }
+
+    private static boolean anySaturated(Host[] hosts) {
+        for (Host host : hosts) {
+            if (host.isSaturated()) return true;
+        }
+        return false;
+    }
+
+    private HostSelectionContext newContext(Map<String, Object> requestProperties, Collection<Host> excludedHosts) {
+        HostSelectionContext context = new HostSelectionContext(this, requestProperties);
+        if (excludedHosts != null) {
+            for (Host host : excludedHosts) {
+                context.exclude(host);
+            }
+        }
+        return context;
+    }
+
+    private Host awaitCapacity(Map<String, Object> requestProperties, ConcurrencyLimitConfig limitConfig,
+                               boolean mayWait) {
+        if (mayWait && limitConfig.getSaturationPolicy() == ConcurrencyLimitConfig.SaturationPolicy.WAIT) {
+            // woken up whenever a host releases a concurrency slot
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(limitConfig.getMaxWaitTime());
+            capacitySignal.register();
+            try {
+                while (true) {
+                    long version = capacitySignal.getVersion();
+                    Host[] hosts = this.hosts;
+                    HostSelectionContext context = new HostSelectionContext(this, requestProperties);
+                    Host host = selectPermittedHost(hosts, context, selectionStrategy.selectHost(hosts, context), false);
+                    if (host != null) return host;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    capacitySignal.await(version, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                capacitySignal.unregister();
+            }
+        }
+        Counter saturations = this.saturations;
+        if (saturations != null) saturations.increment();
+        throw new SmartClientException("all hosts are at their concurrency limit");
+    }
+
+    /**
+     * Returns true if any veto rule excludes <code>host</code> from a request with the given properties.
+     *
+     * @deprecated host selection no longer calls this method (so overriding it has no effect); veto rules are
+     * evaluated by {@link HostSelectionContext#isVetoed(Host)}, which should be used instead
+     */
+    @Deprecated
     protected boolean shouldVeto(Host host, Map<String, Object> requestProperties) {
-        if (vetoRules != null) {
-            for (HostVetoRule vetoRule : vetoRules) {
-                if (vetoRule.shouldVeto(host, requestProperties)) return true;
+        return new HostSelectionContext(this, requestProperties).isVetoed(host);
+    }
+
+    /**
+     * Returns the veto rules that apply to a request with the given properties (see
+     * {@link HostVetoRule#getRequiredProperties()}), or null if there are none. This is evaluated once per request,
+     * so rules that don't apply are never run against any host.
+     */
+    HostVetoRule[] getApplicableVetoRules(Map<String, Object> requestProperties) {
+        VetoRuleSet ruleSet = this.vetoRuleSet;
+        if (ruleSet == null) return null;
+
+        // assume all rules apply, and only copy the array once one doesn't
+        HostVetoRule[] applicableRules = ruleSet.rules;
+        int count = 0;
+        for (int i = 0; i < ruleSet.rules.length; i++) {
+            if (ruleSet.appliesTo(i, requestProperties)) {
+                if (applicableRules != ruleSet.rules) applicableRules[count] = ruleSet.rules[i];
+                count++;
+            } else if (applicableRules == ruleSet.rules) {
+                applicableRules = Arrays.copyOf(ruleSet.rules, ruleSet.rules.length);
             }
         }
-        return false;
+
+        if (count == 0) return null;
+        return count == applicableRules.length ? applicableRules : Arrays.copyOf(applicableRules, count);
     }
 
     /**
      * Returns a list of all known hosts. This list is a clone; modification will not affect the load balancer
      */
-    public synchronized List<Host> getAllHosts() {
-        return new ArrayList<>(hosts);
+    public List<Host> getAllHosts() {
+        return new ArrayList<>(Arrays.asList(hosts));
     }
 
     /**
      * Returns stats for all active hosts in this load balancer
      */
-    public synchronized HostStats[] getHostStats() {
-        return hosts.toArray(new HostStats[0]);
+    public HostStats[] getHostStats() {
+        Host[] hosts = this.hosts;
+        return Arrays.copyOf(hosts, hosts.length, HostStats[].class);
     }
 
     /**
@@ -125,50 +276,560 @@ public class LoadBalancer {
     }
 
     /**
-     * Ensure this method is called sparingly as it will block getTopHost() calls, pausing all new connections!
+     * Returns the distribution of the time until response headers were received, merged across all hosts
+     */
+    public LatencyHistogram.Snapshot getResponseLatencyHistogram() {
+        LatencyHistogram.Snapshot merged = LatencyHistogram.Snapshot.EMPTY;
+        for (Host host : hosts) {
+            merged = merged.merge(host.getResponseLatencyHistogram());
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the distribution of the total call duration (until the response stream was closed), merged across all
+     * hosts
+     */
+    public LatencyHistogram.Snapshot getCompletionLatencyHistogram() {
+        LatencyHistogram.Snapshot merged = LatencyHistogram.Snapshot.EMPTY;
+        for (Host host : hosts) {
+            merged = merged.merge(host.getCompletionLatencyHistogram());
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the distribution of the duration of a request phase, merged across all hosts
+     */
+    public LatencyHistogram.Snapshot getPhaseLatencyHistogram(RequestTiming.Phase phase) {
+        LatencyHistogram.Snapshot merged = LatencyHistogram.Snapshot.EMPTY;
+        for (Host host : hosts) {
+            merged = merged.merge(host.getPhaseLatencyHistogram(phase));
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the totals and rates of the last <code>windowMillis</code> milliseconds, summed across all hosts
+     *
+     * @see Host#getWindowStats(long)
+     */
+    public WindowStats getWindowStats(long windowMillis) {
+        WindowStats total = null;
+        for (Host host : hosts) {
+            WindowStats stats = host.getWindowStats(windowMillis);
+            total = total == null ? stats : total.merge(stats);
+        }
+        return total != null ? total : new WindowStats(windowMillis, 0, 0, 0, 0, 0, 0);
+    }
+
+    public WindowStats getWindowStats(WindowStats.Window window) {
+        return getWindowStats(window.getMillis());
+    }
+
+    /**
+     * Builds a new host list and publishes it atomically; concurrent calls to getTopHost() are not blocked and will
+     * see either the old or the new list. Hosts that are already known keep their instance (and therefore their
+     * state and statistics); only their weight is taken from the updated list (if it is set there).
      */
     protected void updateHosts(List<Host> updatedHosts) {
-        // don't modify the parameter
-        List<Host> hostList = new ArrayList<>(updatedHosts);
-
-        // remove hosts from stored list that are not present in updated list
-        // remove hosts in updated list that are already present in stored list
-        synchronized (hosts) {
-            Iterator<Host> hostI = hosts.iterator();
-            while (hostI.hasNext()) {
-                Host host = hostI.next();
-                boolean stillThere = false;
-                Iterator<Host> hostListI = hostList.iterator();
-                while (hostListI.hasNext()) {
-                    Host hostFromUpdate = hostListI.next();
-                    if (host.equals(hostFromUpdate)) {
-
-                        // this host is in both the stored list and the updated list
-                        stillThere = true;
-                        hostListI.remove();
-                        break;
-                    }
+        // only one update may run at a time, so no changes are lost
+        synchronized (updateLock) {
+            // hosts in the updated list that are not yet known (duplicates are ignored)
+            Map<Host, Host> addedHosts = new LinkedHashMap<>();
+            for (Host host : updatedHosts) {
+                addedHosts.putIfAbsent(host, host);
+            }
+            List<Host> removedHosts = new ArrayList<>();
+            List<Host> newHosts = new ArrayList<>(addedHosts.size());
+
+            // keep hosts from stored list that are present in updated list (preserving their state)
+            for (Host host : hosts) {
+                Host updatedHost = addedHosts.remove(host);
+                if (updatedHost != null) {
+                    if (updatedHost != host && updatedHost.isWeightSet()) host.setWeight(updatedHost.getWeight());
+                    newHosts.add(host);
+                } else {
+                    removedHosts.add(host);
+                    removeMetrics(host);
+                    eventDispatcher.post(new HostEvent(HostEvent.Type.REMOVED, host));
+                    host.eventDispatcher = null;
+                    host.capacitySignal = null;
+                    host.peerLatency = null;
                 }
+            }
 
-                // this host doesn't appear in the updated list, so remove it
-                if (!stillThere) hostI.remove();
+            // what's left are new hosts, so add them
+            // (new hosts start cold, so they are ramped up if slow-start is enabled)
+            for (Host host : addedHosts.keySet()) {
+                configureHost(host);
+                host.startSlowStart();
+                host.eventDispatcher = eventDispatcher;
+                host.capacitySignal = capacitySignal;
+                host.peerLatency = peerLatency;
+                newHosts.add(host);
+                eventDispatcher.post(new HostEvent(HostEvent.Type.ADDED, host));
             }
 
-            // what's left in the updated list are new hosts, so add them
-            hosts.addAll(hostList);
+            hosts = newHosts.toArray(new Host[0]);
+            peerLatency.invalidate();
+
+            if (!addedHosts.isEmpty() || !removedHosts.isEmpty())
+                selectionStrategy.hostsChanged(addedHosts.keySet(), removedHosts);
+        }
+    }
+
+    private void removeMetrics(Host host) {
+        HostMetrics metrics = host.metrics;
+        if (metrics != null) {
+            metrics.remove();
+            host.setMetrics(null);
         }
     }
 
+    /**
+     * Applies the load balancer-wide host settings (those that have been set) to <code>host</code>. This is called
+     * for hosts added by {@link #updateHosts(List)}, and for all current hosts whenever one of the settings changes.
+     */
+    protected void configureHost(Host host) {
+        if (responseIndexMode != null) host.setResponseIndexMode(responseIndexMode);
+        if (latencyDecayTime > 0) host.setLatencyDecayTime(latencyDecayTime);
+        if (slowStartWindow > 0) host.setSlowStartWindow(slowStartWindow);
+        if (slowStartMinWeight > 0) host.setSlowStartMinWeight(slowStartMinWeight);
+        if (circuitBreakerConfig != null && (host.getCircuitBreaker() == null
+                || host.getCircuitBreaker().getConfig() != circuitBreakerConfig))
+            host.setCircuitBreaker(new CircuitBreaker(circuitBreakerConfig));
+        if (concurrencyLimitConfig != null && (host.getConcurrencyLimiter() == null
+                || host.getConcurrencyLimiter().getConfig() != concurrencyLimitConfig))
+            host.setConcurrencyLimiter(new ConcurrencyLimiter(concurrencyLimitConfig));
+        if (hostRateLimit > 0) {
+            RateLimiter rateLimiter = host.getRateLimiter();
+            if (rateLimiter == null) {
+                host.setRateLimiter(new RateLimiter(hostRateLimit, hostRateLimitBurst));
+            } else {
+                rateLimiter.setRate(hostRateLimit);
+                rateLimiter.setBurst(hostRateLimitBurst);
+            }
+        }
+        MetricsRegistry metricsRegistry = this.metricsRegistry;
+        if (metricsRegistry != null && (host.metrics == null || host.metrics.getRegistry() != metricsRegistry)) {
+            removeMetrics(host);
+            host.setMetrics(new HostMetrics(metricsRegistry, host));
+        }
+    }
+
+    private void configureAllHosts() {
+        synchronized (updateLock) {
+            for (Host host : hosts) {
+                configureHost(host);
+            }
+        }
+    }
+
+    /**
+     * Returns an unmodifiable copy of the rules passed to {@link #setVetoRules(List)} (or null if none were set)
+     */
     public List<HostVetoRule> getVetoRules() {
         return vetoRules;
     }
 
+    /**
+     * Sets the rules that can exclude hosts from a request. The list is copied when this method is called, so later
+     * changes to it have no effect.
+     */
     public void setVetoRules(List<HostVetoRule> vetoRules) {
-        this.vetoRules = vetoRules;
+        List<HostVetoRule> copy = vetoRules == null ? null : Collections.unmodifiableList(new ArrayList<>(vetoRules));
+        this.vetoRules = copy;
+        this.vetoRuleSet = (copy == null || copy.isEmpty()) ? null : new VetoRuleSet(copy);
     }
 
     public LoadBalancer withVetoRules(HostVetoRule... vetoRules) {
         setVetoRules(Arrays.asList(vetoRules));
         return this;
     }
+
+    public HostSelectionStrategy getSelectionStrategy() {
+        return selectionStrategy;
+    }
+
+    /**
+     * Sets the strategy used to pick a host for each request. Defaults to {@link LeastConnectionsStrategy}.
+     */
+    public void setSelectionStrategy(HostSelectionStrategy selectionStrategy) {
+        if (selectionStrategy == null) throw new NullPointerException("selectionStrategy");
+        synchronized (updateLock) {
+            selectionStrategy.hostsChanged(Arrays.asList(hosts), Collections.<Host>emptyList());
+            this.selectionStrategy = selectionStrategy;
+        }
+    }
+
+    public LoadBalancer withSelectionStrategy(HostSelectionStrategy selectionStrategy) {
+        setSelectionStrategy(selectionStrategy);
+        return this;
+    }
+
+    public Host.ResponseIndexMode getResponseIndexMode() {
+        return responseIndexMode;
+    }
+
+    /**
+     * Sets the response index mode of all hosts in this load balancer, including hosts added later.
+     *
+     * @see Host#setResponseIndexMode(Host.ResponseIndexMode)
+     */
+    public void setResponseIndexMode(Host.ResponseIndexMode responseIndexMode) {
+        this.responseIndexMode = responseIndexMode;
+        configureAllHosts();
+    }
+
+    public LoadBalancer withResponseIndexMode(Host.ResponseIndexMode responseIndexMode) {
+        setResponseIndexMode(responseIndexMode);
+        return this;
+    }
+
+    public long getLatencyDecayTime() {
+        return latencyDecayTime;
+    }
+
+    /**
+     * Sets the latency decay time (in milliseconds) of all hosts in this load balancer, including hosts added later.
+     *
+     * @see Host#setLatencyDecayTime(long)
+     */
+    public void setLatencyDecayTime(long latencyDecayTime) {
+        this.latencyDecayTime = latencyDecayTime;
+        configureAllHosts();
+    }
+
+    public LoadBalancer withLatencyDecayTime(long latencyDecayTime) {
+        setLatencyDecayTime(latencyDecayTime);
+        return this;
+    }
+
+    public long getSlowStartWindow() {
+        return slowStartWindow;
+    }
+
+    /**
+     * Sets the slow-start window (in milliseconds) of all hosts in this load balancer, including hosts added later.
+     * Hosts added by a host list update are ramped up over this window.
+     *
+     * @see Host#setSlowStartWindow(long)
+     */
+    public void setSlowStartWindow(long slowStartWindow) {
+        this.slowStartWindow = slowStartWindow;
+        configureAllHosts();
+    }
+
+    public LoadBalancer withSlowStartWindow(long slowStartWindow) {
+        setSlowStartWindow(slowStartWindow);
+        return this;
+    }
+
+    public double getSlowStartMinWeight() {
+        return slowStartMinWeight;
+    }
+
+    /**
+     * Sets the slow-start minimum weight of all hosts in this load balancer, including hosts added later.
+     *
+     * @see Host#setSlowStartMinWeight(double)
+     */
+    public void setSlowStartMinWeight(double slowStartMinWeight) {
+        this.slowStartMinWeight = slowStartMinWeight;
+        configureAllHosts();
+    }
+
+    public LoadBalancer withSlowStartMinWeight(double slowStartMinWeight) {
+        setSlowStartMinWeight(slowStartMinWeight);
+        return this;
+    }
+
+    public CircuitBreakerConfig getCircuitBreakerConfig() {
+        return circuitBreakerConfig;
+    }
+
+    /**
+     * Gives every host in this load balancer (including hosts added later) its own {@link CircuitBreaker} with the
+     * given configuration. Hosts that are unchanged by a host list update keep their breaker (and its state). Set to
+     * null to remove all breakers.
+     *
+     * @see Host#setCircuitBreaker(CircuitBreaker)
+     */
+    public void setCircuitBreakerConfig(CircuitBreakerConfig circuitBreakerConfig) {
+        this.circuitBreakerConfig = circuitBreakerConfig;
+        if (circuitBreakerConfig == null) {
+            synchronized (updateLock) {
+                for (Host host : hosts) {
+                    host.setCircuitBreaker(null);
+                }
+            }
+        } else {
+            configureAllHosts();
+        }
+    }
+
+    public LoadBalancer withCircuitBreakerConfig(CircuitBreakerConfig circuitBreakerConfig) {
+        setCircuitBreakerConfig(circuitBreakerConfig);
+        return this;
+    }
+
+    public ConcurrencyLimitConfig getConcurrencyLimitConfig() {
+        return concurrencyLimitConfig;
+    }
+
+    /**
+     * Gives every host in this load balancer (including hosts added later) its own adaptive
+     * {@link ConcurrencyLimiter} with the given configuration. Hosts at their limit are skipped; if all hosts are at
+     * their limit, the configured saturation policy applies. Set to null to remove all limits.
+     *
+     * @see Host#setConcurrencyLimiter(ConcurrencyLimiter)
+     */
+    public void setConcurrencyLimitConfig(ConcurrencyLimitConfig concurrencyLimitConfig) {
+        this.concurrencyLimitConfig = concurrencyLimitConfig;
+        if (concurrencyLimitConfig == null) {
+            synchronized (updateLock) {
+                for (Host host : hosts) {
+                    host.setConcurrencyLimiter(null);
+                }
+            }
+        } else {
+            configureAllHosts();
+        }
+    }
+
+    public LoadBalancer withConcurrencyLimitConfig(ConcurrencyLimitConfig concurrencyLimitConfig) {
+        setConcurrencyLimitConfig(concurrencyLimitConfig);
+        return this;
+    }
+
+    public double getHostRateLimit() {
+        return hostRateLimit;
+    }
+
+    public int getHostRateLimitBurst() {
+        return hostRateLimitBurst;
+    }
+
+    /**
+     * Limits the request rate of every host in this load balancer (including hosts added later) with its own
+     * {@link RateLimiter}. Hosts without an available permit are avoided. Set the rate to 0 to remove all limits.
+     *
+     * @param requestsPerSecond the sustained rate per host
+     * @param burst             the number of requests that can be sent to a host at once after an idle period
+     * @see Host#setRateLimiter(RateLimiter)
+     */
+    public void setHostRateLimit(double requestsPerSecond, int burst) {
+        if (requestsPerSecond > 0 && burst < 1) throw new IllegalArgumentException("burst must be at least 1");
+        synchronized (updateLock) {
+            this.hostRateLimit = requestsPerSecond;
+            this.hostRateLimitBurst = burst;
+            for (Host host : hosts) {
+                if (requestsPerSecond > 0) configureHost(host);
+                else host.setRateLimiter(null);
+            }
+        }
+    }
+
+    public LoadBalancer withHostRateLimit(double requestsPerSecond, int burst) {
+        setHostRateLimit(requestsPerSecond, burst);
+        return this;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Publishes the metrics of this load balancer and its hosts (including hosts added later) to
+     * <code>metricsRegistry</code>. Set to null to remove all metrics. The meters are:
+     * <ul>
+     * <li><code>loadBalancer.hosts</code>, <code>loadBalancer.healthyHosts</code> and
+     * <code>loadBalancer.inFlight</code> (gauges)</li>
+     * <li><code>loadBalancer.retries</code>, <code>loadBalancer.hedges</code> and
+     * <code>loadBalancer.saturations</code> (requests that failed because all hosts were at their concurrency
+     * limit) (counters)</li>
+     * <li><code>loadBalancer.rateLimitWait</code> (timer of the wait for the global rate limit of the
+     * {@link SmartConfig})</li>
+     * <li>per host (tagged with <code>host</code>): <code>host.selections</code>, <code>host.calls</code>,
+     * <code>host.errors</code>, <code>host.healthChecks</code> and <code>host.healthCheckFailures</code> (counters),
+     * <code>host.latency</code> (timer of the time until response headers were received),
+     * <code>host.rateLimitWait</code> (timer of the wait for the host's rate limit), and
+     * <code>host.inFlight</code>, <code>host.inFlightBytes</code>, <code>host.bytesSent</code>,
+     * <code>host.bytesReceived</code>, <code>host.healthy</code>, <code>host.requestRate</code> and
+     * <code>host.errorRate</code> (gauges; rates are per second over the last minute)</li>
+     * </ul>
+     *
+     * @see com.emc.rest.smart.metrics.JmxMetricsRegistry
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        synchronized (updateLock) {
+            MetricsRegistry oldRegistry = this.metricsRegistry;
+            if (oldRegistry != null) {
+                for (Meter meter : metrics) {
+                    oldRegistry.remove(meter);
+                }
+            }
+            metrics.clear();
+            retries = null;
+            hedges = null;
+            saturations = null;
+            rateLimitWait = null;
+
+            this.metricsRegistry = metricsRegistry;
+            if (metricsRegistry != null) {
+                metrics.add(metricsRegistry.gauge("loadBalancer.hosts", () -> hosts.length));
+                metrics.add(metricsRegistry.gauge("loadBalancer.healthyHosts", this::getHealthyHostCount));
+                metrics.add(metricsRegistry.gauge("loadBalancer.inFlight", this::getOpenConnections));
+                retries = metricsRegistry.counter("loadBalancer.retries");
+                metrics.add(retries);
+                hedges = metricsRegistry.counter("loadBalancer.hedges");
+                metrics.add(hedges);
+                saturations = metricsRegistry.counter("loadBalancer.saturations");
+                metrics.add(saturations);
+                rateLimitWait = metricsRegistry.timer("loadBalancer.rateLimitWait");
+                metrics.add(rateLimitWait);
+            }
+            for (Host host : hosts) {
+                if (metricsRegistry != null) configureHost(host);
+                else removeMetrics(host);
+            }
+        }
+    }
+
+    /**
+     * Counts a retry in the <code>loadBalancer.retries</code> metric (if there is a metrics registry)
+     */
+    public void countRetry() {
+        Counter retries = this.retries;
+        if (retries != null) retries.increment();
+    }
+
+    /**
+     * Counts a hedged request in the <code>loadBalancer.hedges</code> metric (if there is a metrics registry)
+     */
+    public void countHedge() {
+        Counter hedges = this.hedges;
+        if (hedges != null) hedges.increment();
+    }
+
+    // the timer of the global rate limiter (which belongs to the smart config), if there is a metrics registry
+    Timer getRateLimitWait() {
+        return rateLimitWait;
+    }
+
+    public LoadBalancer withMetricsRegistry(MetricsRegistry metricsRegistry) {
+        setMetricsRegistry(metricsRegistry);
+        return this;
+    }
+
+    /**
+     * Registers a listener for host state changes: hosts added or removed by a host list update, hosts marked
+     * healthy or unhealthy, maintenance mode (for hosts that support it) and circuit breaker state changes. Events
+     * are delivered asynchronously on the {@link #setHostEventExecutor(Executor) host event executor}, so listeners
+     * never block requests or the polling daemon. Pending events of the same kind for the same host are coalesced:
+     * only the latest one is delivered.
+     */
+    public void addHostListener(HostListener listener) {
+        eventDispatcher.addListener(listener);
+    }
+
+    public void removeHostListener(HostListener listener) {
+        eventDispatcher.removeListener(listener);
+    }
+
+    public LoadBalancer withHostListener(HostListener listener) {
+        addHostListener(listener);
+        return this;
+    }
+
+    public Executor getHostEventExecutor() {
+        return eventDispatcher.getExecutor();
+    }
+
+    /**
+     * Sets the executor that delivers host events to listeners. At most one delivery task is submitted at a time.
+     * Defaults to a single daemon thread that stops when idle; set to null to restore the default.
+     */
+    public void setHostEventExecutor(Executor hostEventExecutor) {
+        eventDispatcher.setExecutor(hostEventExecutor);
+    }
+
+    public LoadBalancer withHostEventExecutor(Executor hostEventExecutor) {
+        setHostEventExecutor(hostEventExecutor);
+        return this;
+    }
+
+    private int getHealthyHostCount() {
+        int count = 0;
+        for (Host host : hosts) {
+            if (host.isHealthy()) count++;
+        }
+        return count;
+    }
+
+    /**
+     * The mean response latency EWMA (in nanoseconds) of the hosts that have responded, which is assumed for hosts
+     * that have not responded yet (0 if there are none). Computing it takes a pass over the hosts, so the value is
+     * cached and only refreshed every {@value #REFRESH_MS} ms, or when a host gets its first sample (or loses it).
+     */
+    final class PeerLatency {
+        static final long REFRESH_MS = 1000;
+
+        private final AtomicLong refreshTime = new AtomicLong(System.nanoTime());
+        private volatile boolean stale = true;
+        private volatile long mean;
+
+        long get() {
+            long now = System.nanoTime(), lastRefresh = refreshTime.get();
+            if ((stale || now - lastRefresh >= TimeUnit.MILLISECONDS.toNanos(REFRESH_MS))
+                    && refreshTime.compareAndSet(lastRefresh, now)) {
+                stale = false; // cleared before the pass, so a sample that arrives during it triggers another one
+                mean = computeMean();
+            }
+            return mean;
+        }
+
+        void invalidate() {
+            stale = true;
+        }
+
+        private long computeMean() {
+            long sum = 0;
+            int count = 0;
+            for (Host host : hosts) {
+                if (!host.hasResponseLatency()) continue;
+                sum += host.getResponseLatencyEwma();
+                count++;
+            }
+            return count == 0 ? 0 : sum / count;
+        }
+    }
+
+    /**
+     * Veto rules along with their required properties, captured when the rules are set
+     */
+    private static class VetoRuleSet {
+        final HostVetoRule[] rules;
+        final String[][] requiredProperties;
+
+        VetoRuleSet(List<HostVetoRule> vetoRules) {
+            rules = vetoRules.toArray(new HostVetoRule[0]);
+            requiredProperties = new String[rules.length][];
+            for (int i = 0; i < rules.length; i++) {
+                Set<String> required = rules[i].getRequiredProperties();
+                if (required != null) requiredProperties[i] = required.toArray(new String[0]);
+            }
+        }
+
+        boolean appliesTo(int ruleIndex, Map<String, Object> requestProperties) {
+            String[] required = requiredProperties[ruleIndex];
+            if (required == null) return true;
+            if (requestProperties == null) return false;
+            for (String propName : required) {
+                if (requestProperties.get(propName) != null) return true;
+            }
+            return false;
+        }
+    }
 }
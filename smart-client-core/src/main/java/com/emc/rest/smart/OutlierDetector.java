@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ejects hosts whose recent error rate or latency is far worse than that of the rest of the fleet. Unlike the
+ * consecutive-error cool-down, this catches hosts that fail a large fraction of requests while still succeeding
+ * often enough to reset their error streak.
+ * <p>
+ * {@link #detectOutliers(LoadBalancer)} is meant to be called every {@link #getInterval() interval} from a background
+ * thread (the smart client factory schedules it when an outlier detector is set in {@link SmartConfig}); nothing is
+ * done on the request path besides tallying calls in each host's sliding window. Each pass:
+ * <ul>
+ *     <li>returns hosts whose ejection time is over (they are ramped up if slow-start is enabled)</li>
+ *     <li>compares each host that had enough requests in the last interval to the other hosts: its error rate must
+ *     exceed theirs by the error rate threshold and by <code>stdevFactor</code> standard deviations, or its mean
+ *     latency must exceed <code>latencyFactor</code> times theirs</li>
+ *     <li>ejects outliers (worst first) for <code>baseEjectionTime * (number of times ejected)</code>, up to the max
+ *     ejection time, while no more than the max ejection percentage of hosts (but at least one) is ejected</li>
+ * </ul>
+ * The ejection multiplier of a host that is not ejected decreases by one every pass.
+ */
+public class OutlierDetector {
+    private static final Logger log = LoggerFactory.getLogger(OutlierDetector.class);
+
+    public static final int DEFAULT_INTERVAL_MS = 10000;
+    public static final int DEFAULT_BASE_EJECTION_TIME_MS = 30000;
+    public static final int DEFAULT_MAX_EJECTION_TIME_MS = 300000;
+    public static final int DEFAULT_MAX_EJECTION_PERCENT = 10;
+    public static final int DEFAULT_MIN_HOSTS = 3;
+    public static final int DEFAULT_MIN_REQUEST_VOLUME = 20;
+    public static final double DEFAULT_STDEV_FACTOR = 1.9;
+    public static final double DEFAULT_ERROR_RATE_THRESHOLD = 0.1;
+    public static final double DEFAULT_LATENCY_FACTOR = 3;
+
+    private long interval = DEFAULT_INTERVAL_MS;
+    private long baseEjectionTime = DEFAULT_BASE_EJECTION_TIME_MS;
+    private long maxEjectionTime = DEFAULT_MAX_EJECTION_TIME_MS;
+    private int maxEjectionPercent = DEFAULT_MAX_EJECTION_PERCENT;
+    private int minHosts = DEFAULT_MIN_HOSTS;
+    private int minRequestVolume = DEFAULT_MIN_REQUEST_VOLUME;
+    private double stdevFactor = DEFAULT_STDEV_FACTOR;
+    private double errorRateThreshold = DEFAULT_ERROR_RATE_THRESHOLD;
+    private double latencyFactor = DEFAULT_LATENCY_FACTOR;
+
+    /**
+     * Runs one detection pass over the hosts of <code>loadBalancer</code>
+     */
+    public synchronized void detectOutliers(LoadBalancer loadBalancer) {
+        long now = System.currentTimeMillis();
+        List<Host> hosts = loadBalancer.getAllHosts();
+
+        // return hosts whose ejection is over, and let the others slowly earn back a short ejection time
+        int ejectedCount = 0;
+        for (Host host : hosts) {
+            if (host.ejectedUntil != 0 && now >= host.ejectedUntil) {
+                host.ejectedUntil = 0;
+                host.startSlowStart();
+                host.ejectionChanged(false);
+                log.info("ejection of {} is over", host.getName());
+            } else if (host.ejectedUntil != 0) {
+                ejectedCount++;
+            } else if (host.ejectionCount > 0) {
+                host.ejectionCount--;
+            }
+        }
+
+        // only hosts with enough recent traffic are compared
+        List<Sample> samples = new ArrayList<>();
+        for (Host host : hosts) {
+            if (host.ejectedUntil != 0) continue;
+            long calls = host.getRecentCalls(interval);
+            if (calls < minRequestVolume) continue;
+            samples.add(new Sample(host, (double) host.getRecentErrors(interval) / calls,
+                    host.getRecentResponseLatency(interval)));
+        }
+        if (samples.size() < minHosts) return;
+
+        double errorSum = 0, errorSquareSum = 0, latencySum = 0;
+        for (Sample sample : samples) {
+            errorSum += sample.errorRate;
+            errorSquareSum += sample.errorRate * sample.errorRate;
+            latencySum += sample.latency;
+        }
+
+        // compare each host with the others (so an outlier does not skew its own baseline)
+        int others = samples.size() - 1;
+        for (Sample sample : samples) {
+            double errorMean = (errorSum - sample.errorRate) / others;
+            double errorVariance = (errorSquareSum - sample.errorRate * sample.errorRate) / others - errorMean * errorMean;
+            double errorStdev = Math.sqrt(Math.max(errorVariance, 0));
+            double latencyMean = (latencySum - sample.latency) / others;
+
+            // error outliers rank above latency outliers (severity > 1 vs. between 0 and 1)
+            if (sample.errorRate - errorMean >= errorRateThreshold
+                    && sample.errorRate > errorMean + stdevFactor * errorStdev) {
+                sample.severity = 1 + sample.errorRate - errorMean;
+            } else if (latencyFactor > 0 && latencyMean > 0 && sample.latency > latencyFactor * latencyMean) {
+                sample.severity = 1 - latencyMean / sample.latency;
+            }
+        }
+
+        samples.sort((s1, s2) -> Double.compare(s2.severity, s1.severity));
+        int maxEjected = Math.max(1, hosts.size() * maxEjectionPercent / 100);
+        for (Sample sample : samples) {
+            if (sample.severity == 0 || ejectedCount >= maxEjected) break;
+            eject(sample.host, now);
+            ejectedCount++;
+            log.warn("ejecting outlier {} for {}ms (error rate: {}, mean latency: {}ms)", sample.host.getName(),
+                    sample.host.ejectedUntil - now, String.format("%.3f", sample.errorRate), sample.latency / 1000000);
+        }
+    }
+
+    private void eject(Host host, long now) {
+        int ejectionCount = host.ejectionCount + 1;
+        host.ejectionCount = ejectionCount;
+        host.ejectedUntil = now + Math.min(baseEjectionTime * ejectionCount, Math.max(baseEjectionTime, maxEjectionTime));
+        host.ejectionChanged(true);
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Sets the interval in milliseconds between detection passes, which is also the sliding window over which hosts
+     * are compared (intervals longer than a minute are compared at 1-minute resolution, up to 15 minutes). Defaults
+     * to {@value #DEFAULT_INTERVAL_MS}.
+     */
+    public void setInterval(long interval) {
+        if (interval <= 0) throw new IllegalArgumentException("interval must be positive");
+        this.interval = interval;
+    }
+
+    public OutlierDetector withInterval(long interval) {
+        setInterval(interval);
+        return this;
+    }
+
+    public long getBaseEjectionTime() {
+        return baseEjectionTime;
+    }
+
+    /**
+     * Sets the time in milliseconds a host is ejected for; this is multiplied by the number of times it was recently
+     * ejected. Defaults to {@value #DEFAULT_BASE_EJECTION_TIME_MS}.
+     */
+    public void setBaseEjectionTime(long baseEjectionTime) {
+        this.baseEjectionTime = baseEjectionTime;
+    }
+
+    public OutlierDetector withBaseEjectionTime(long baseEjectionTime) {
+        setBaseEjectionTime(baseEjectionTime);
+        return this;
+    }
+
+    public long getMaxEjectionTime() {
+        return maxEjectionTime;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a host is ejected for. Defaults to {@value #DEFAULT_MAX_EJECTION_TIME_MS}.
+     */
+    public void setMaxEjectionTime(long maxEjectionTime) {
+        this.maxEjectionTime = maxEjectionTime;
+    }
+
+    public OutlierDetector withMaxEjectionTime(long maxEjectionTime) {
+        setMaxEjectionTime(maxEjectionTime);
+        return this;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    /**
+     * Sets the maximum percentage of hosts that may be ejected at once (at least one host may always be ejected).
+     * Defaults to {@value #DEFAULT_MAX_EJECTION_PERCENT}.
+     */
+    public void setMaxEjectionPercent(int maxEjectionPercent) {
+        this.maxEjectionPercent = maxEjectionPercent;
+    }
+
+    public OutlierDetector withMaxEjectionPercent(int maxEjectionPercent) {
+        setMaxEjectionPercent(maxEjectionPercent);
+        return this;
+    }
+
+    public int getMinHosts() {
+        return minHosts;
+    }
+
+    /**
+     * Sets the minimum number of hosts with enough requests for outliers to be detected. Defaults to
+     * {@value #DEFAULT_MIN_HOSTS}.
+     */
+    public void setMinHosts(int minHosts) {
+        if (minHosts < 2) throw new IllegalArgumentException("minHosts must be at least 2");
+        this.minHosts = minHosts;
+    }
+
+    public OutlierDetector withMinHosts(int minHosts) {
+        setMinHosts(minHosts);
+        return this;
+    }
+
+    public int getMinRequestVolume() {
+        return minRequestVolume;
+    }
+
+    /**
+     * Sets the minimum number of requests a host must have completed in the last interval to be compared with the
+     * others. Defaults to {@value #DEFAULT_MIN_REQUEST_VOLUME}.
+     */
+    public void setMinRequestVolume(int minRequestVolume) {
+        this.minRequestVolume = minRequestVolume;
+    }
+
+    public OutlierDetector withMinRequestVolume(int minRequestVolume) {
+        setMinRequestVolume(minRequestVolume);
+        return this;
+    }
+
+    public double getStdevFactor() {
+        return stdevFactor;
+    }
+
+    /**
+     * Sets the number of standard deviations (of the other hosts' error rates) by which a host's error rate must
+     * exceed their mean. Defaults to {@value #DEFAULT_STDEV_FACTOR}.
+     */
+    public void setStdevFactor(double stdevFactor) {
+        this.stdevFactor = stdevFactor;
+    }
+
+    public OutlierDetector withStdevFactor(double stdevFactor) {
+        setStdevFactor(stdevFactor);
+        return this;
+    }
+
+    public double getErrorRateThreshold() {
+        return errorRateThreshold;
+    }
+
+    /**
+     * Sets the minimum difference between a host's error rate and the mean error rate of the other hosts (0.1 is ten
+     * percentage points) for it to be an outlier. Defaults to {@value #DEFAULT_ERROR_RATE_THRESHOLD}.
+     */
+    public void setErrorRateThreshold(double errorRateThreshold) {
+        this.errorRateThreshold = errorRateThreshold;
+    }
+
+    public OutlierDetector withErrorRateThreshold(double errorRateThreshold) {
+        setErrorRateThreshold(errorRateThreshold);
+        return this;
+    }
+
+    public double getLatencyFactor() {
+        return latencyFactor;
+    }
+
+    /**
+     * Sets how many times the mean latency of the other hosts a host's mean latency must exceed for it to be an
+     * outlier. Set to 0 to disable latency outlier detection. Defaults to {@value #DEFAULT_LATENCY_FACTOR}.
+     */
+    public void setLatencyFactor(double latencyFactor) {
+        this.latencyFactor = latencyFactor;
+    }
+
+    public OutlierDetector withLatencyFactor(double latencyFactor) {
+        setLatencyFactor(latencyFactor);
+        return this;
+    }
+
+    private static class Sample {
+        final Host host;
+        final double errorRate;
+        final long latency;
+        double severity;
+
+        Sample(Host host, double errorRate, long latency) {
+            this.host = host;
+            this.errorRate = errorRate;
+            this.latency = latency;
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.emc.rest.smart;
 
+import com.emc.rest.smart.jfr.FlightRecorderEvents;
+import com.emc.rest.smart.jfr.PollingCycleEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +41,10 @@ public class PollingDaemon extends Thread {
         while (running) {
             long start = System.currentTimeMillis();
             log.debug("polling daemon running");
+            PollingCycleEvent event = FlightRecorderEvents.isActive() ? new PollingCycleEvent() : null;
+            if (event != null) event.begin();
+            long phaseStart = System.nanoTime();
+            int unhealthyHosts = 0;
 
             LoadBalancer loadBalancer = smartConfig.getLoadBalancer();
             HostListProvider hostListProvider = smartConfig.getHostListProvider();
@@ -54,6 +60,8 @@ public class PollingDaemon extends Thread {
                     log.warn("unable to enumerate servers", t);
                 }
             }
+            long discoveryDuration = System.nanoTime() - phaseStart;
+            phaseStart = System.nanoTime();
 
             if (!smartConfig.isHealthCheckEnabled()) {
                 log.info("health check is disabled; not checking hosts");
@@ -64,14 +72,25 @@ public class PollingDaemon extends Thread {
                     try {
                         hostListProvider.runHealthCheck(host);
                         host.setHealthy(true);
+                        healthChecked(host, true);
                         log.debug("health check successful for {}; host is marked healthy", host.getName());
                     } catch (Throwable t) {
                         host.setHealthy(false);
+                        healthChecked(host, false);
+                        unhealthyHosts++;
                         log.warn("health check failed for " + host.getName() + "; host is marked unhealthy", t);
                     }
                 }
             }
 
+            if (event != null && event.shouldCommit()) {
+                event.setDiscoveryDuration(discoveryDuration);
+                event.setHealthCheckDuration(System.nanoTime() - phaseStart);
+                event.setHosts(loadBalancer.getAllHosts().size());
+                event.setUnhealthyHosts(unhealthyHosts);
+                event.commit();
+            }
+
             long callTime = System.currentTimeMillis() - start;
             try {
                 long sleepTime = smartConfig.getPollInterval() * 1000L - callTime;
@@ -84,6 +103,11 @@ public class PollingDaemon extends Thread {
         }
     }
 
+    private void healthChecked(Host host, boolean healthy) {
+        HostMetrics metrics = host.metrics;
+        if (metrics != null) metrics.healthChecked(healthy);
+    }
+
     public void terminate() {
         running = false;
     }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples two random healthy, non-vetoed hosts and selects the one with the lower response index ("power of two
+ * choices"). Selection is O(1) regardless of the number of hosts, and because each request sees a different pair of
+ * hosts, bursts of concurrent requests do not all land on the same "best" host.
+ * <p>
+ * If no eligible host is found within a few samples (i.e. most hosts are vetoed or unhealthy), selection falls back
+ * to a full scan using {@link LeastConnectionsStrategy}.
+ */
+public class PowerOfTwoChoicesStrategy implements HostSelectionStrategy {
+    public static final int DEFAULT_MAX_SAMPLES = 8;
+
+    private final HostSelectionStrategy fallbackStrategy = new LeastConnectionsStrategy();
+    private int maxSamples = DEFAULT_MAX_SAMPLES;
+
+    @Override
+    public Host selectHost(Host[] hosts, HostSelectionContext context) {
+        if (hosts.length < 3) return fallbackStrategy.selectHost(hosts, context);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Host first = null, second = null;
+        int firstIndex = -1;
+
+        for (int i = 0; i < maxSamples && second == null; i++) {
+            int index = random.nextInt(hosts.length);
+            if (index == firstIndex) continue;
+
+            Host host = hosts[index];
+            if (!host.isHealthy() || context.isVetoed(host)) continue;
+
+            if (first == null) {
+                first = host;
+                firstIndex = index;
+            } else {
+                second = host;
+            }
+        }
+
+        if (first == null) return fallbackStrategy.selectHost(hosts, context);
+        if (second == null) return first;
+
+        long firstIndexValue = first.getResponseIndex(), secondIndexValue = second.getResponseIndex();
+        if (secondIndexValue < firstIndexValue
+                || (secondIndexValue == firstIndexValue && LeastConnectionsStrategy.selectedBefore(second, first)))
+            return second;
+        return first;
+    }
+
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    /**
+     * Sets the maximum number of random samples taken to find two eligible hosts before falling back to a full scan.
+     * Defaults to {@value #DEFAULT_MAX_SAMPLES}.
+     */
+    public void setMaxSamples(int maxSamples) {
+        this.maxSamples = maxSamples;
+    }
+
+    public PowerOfTwoChoicesStrategy withMaxSamples(int maxSamples) {
+        setMaxSamples(maxSamples);
+        return this;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.emc.rest.smart.metrics.Timer;
+
+/**
+ * Lock-free token bucket, implemented as a generic cell rate algorithm (GCRA): the only state is the theoretical
+ * arrival time of the next request, which is advanced by one emission interval (1 / rate) per permit with a single
+ * CAS. Up to <code>burst</code> permits are available at once after an idle period.
+ * <p>
+ * {@link #tryAcquire()} never waits. {@link #tryAcquire(long)} reserves a permit if it becomes available within the
+ * timeout and waits until then; a permit that would take longer is not reserved, so a rejected caller does not delay
+ * others. {@link #reserve(long)} reserves a permit the same way, but leaves the waiting to the caller (e.g. to
+ * schedule an asynchronous request). Wait times are recorded in a histogram (and published as a timer when the
+ * limiter is used by a load balancer with a metrics registry).
+ */
+public class RateLimiter {
+    private final AtomicLong nextFreeTime = new AtomicLong(System.nanoTime());
+    private volatile long intervalNanos;
+    private volatile int burst;
+
+    private final LongAdder acquiredCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LatencyHistogram waitTimeHistogram = new LatencyHistogram();
+
+    // set by the host or smart config that uses this limiter when there is a metrics registry
+    volatile Timer waitTimer;
+
+    /**
+     * @param permitsPerSecond the sustained rate
+     * @param burst            the number of permits that can be acquired at once (at least 1)
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        setRate(permitsPerSecond);
+        setBurst(burst);
+    }
+
+    /**
+     * Acquires a permit if one is available right now
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(0);
+    }
+
+    /**
+     * Acquires a permit, waiting up to <code>timeoutMillis</code> milliseconds for it
+     *
+     * @return false if no permit is available within the timeout (or the thread was interrupted while waiting)
+     */
+    public boolean tryAcquire(long timeoutMillis) {
+        long waitNanos = reserve(timeoutMillis);
+        if (waitNanos < 0) return false;
+        if (waitNanos > 0) {
+            long deadline = System.nanoTime() + waitNanos;
+            for (long remaining = waitNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(remaining);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    return false; // the reserved slot is forfeited
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reserves a permit if it becomes available within <code>timeoutMillis</code> milliseconds, without waiting for
+     * it
+     *
+     * @return the time in nanoseconds until the permit may be used (0 if it is available right now), or -1 if no
+     * permit is available within the timeout
+     */
+    public long reserve(long timeoutMillis) {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMillis, 0));
+        long now = System.nanoTime();
+        long interval = intervalNanos;
+        long burstNanos = (burst - 1) * interval;
+
+        // reserve the next emission slot, unless it is too far in the future
+        long freeTime, waitNanos;
+        do {
+            freeTime = nextFreeTime.get();
+            long start = freeTime - now < 0 ? now : freeTime;
+            waitNanos = Math.max(start - now - burstNanos, 0);
+            if (waitNanos > timeoutNanos) {
+                rejectedCount.increment();
+                return -1;
+            }
+            if (nextFreeTime.compareAndSet(freeTime, start + interval)) break;
+        } while (true);
+
+        acquiredCount.increment();
+        waitTimeHistogram.record(waitNanos);
+        Timer waitTimer = this.waitTimer;
+        if (waitTimer != null) waitTimer.record(waitNanos);
+        return waitNanos;
+    }
+
+    /**
+     * Returns true if a permit is available right now (without acquiring it)
+     */
+    public boolean isAvailable() {
+        return nextFreeTime.get() - System.nanoTime() <= (burst - 1) * intervalNanos;
+    }
+
+    /**
+     * Returns the number of permits acquired
+     */
+    public long getAcquiredCount() {
+        return acquiredCount.sum();
+    }
+
+    /**
+     * Returns the number of acquisitions that failed (no permit within the timeout)
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Returns the distribution of the time callers waited for a permit (in nanoseconds)
+     */
+    public LatencyHistogram.Snapshot getWaitTimeHistogram() {
+        return waitTimeHistogram.getSnapshot();
+    }
+
+    public double getRate() {
+        return TimeUnit.SECONDS.toNanos(1) / (double) intervalNanos;
+    }
+
+    /**
+     * Sets the sustained rate in permits per second
+     */
+    public void setRate(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0)) throw new IllegalArgumentException("rate must be positive");
+        this.intervalNanos = Math.max((long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond), 1);
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Sets the number of permits that can be acquired at once after an idle period
+     */
+    public void setBurst(int burst) {
+        if (burst < 1) throw new IllegalArgumentException("burst must be at least 1");
+        this.burst = burst;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free budget for extra requests (e.g. hedges or retries), earned as a fraction of regular requests: each
+ * deposit adds <code>ratio</code> tokens (up to a maximum balance) and each extra request withdraws one whole token.
+ * With a ratio of 0.05, extra requests add at most 5% to the load, and bursts are limited to the maximum balance.
+ * <p>
+ * Optionally, a minimum rate of extra requests is always allowed (even without a balance), so that extra requests are
+ * possible when there is little regular traffic.
+ */
+public class RequestBudget {
+    public static final double DEFAULT_MAX_BALANCE = 10;
+
+    // balance is kept in fixed point, so it can be updated with a single CAS
+    private static final long SCALE = 1000;
+
+    private final AtomicLong balance = new AtomicLong();
+    private volatile long deposit;
+    private volatile long maxBalance;
+    private volatile RateLimiter minRateLimiter;
+
+    /**
+     * @param ratio the number of tokens earned per regular request (between 0 and 1)
+     */
+    public RequestBudget(double ratio) {
+        this(ratio, DEFAULT_MAX_BALANCE);
+    }
+
+    /**
+     * @param ratio      the number of tokens earned per regular request (between 0 and 1)
+     * @param maxBalance the maximum number of tokens that can be saved up
+     */
+    public RequestBudget(double ratio, double maxBalance) {
+        setRatio(ratio);
+        setMaxBalance(maxBalance);
+    }
+
+    /**
+     * Earns tokens for a regular request
+     */
+    public void deposit() {
+        long max = maxBalance, current;
+        do {
+            current = balance.get();
+            if (current >= max) return;
+        } while (!balance.compareAndSet(current, Math.min(current + deposit, max)));
+    }
+
+    /**
+     * Spends one token for an extra request, if there is one (or the minimum rate allows it)
+     */
+    public boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < SCALE) {
+                RateLimiter minRateLimiter = this.minRateLimiter;
+                return minRateLimiter != null && minRateLimiter.tryAcquire();
+            }
+        } while (!balance.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    /**
+     * Returns the current number of tokens
+     */
+    public double getBalance() {
+        return (double) balance.get() / SCALE;
+    }
+
+    public double getRatio() {
+        return (double) deposit / SCALE;
+    }
+
+    public void setRatio(double ratio) {
+        if (ratio < 0 || ratio > 1) throw new IllegalArgumentException("ratio must be between 0 and 1");
+        this.deposit = Math.round(ratio * SCALE);
+    }
+
+    public double getMinRate() {
+        RateLimiter minRateLimiter = this.minRateLimiter;
+        return minRateLimiter == null ? 0 : minRateLimiter.getRate();
+    }
+
+    /**
+     * Sets the number of extra requests per second that are allowed regardless of the balance. Defaults to 0.
+     */
+    public void setMinRate(double minRate) {
+        if (minRate < 0) throw new IllegalArgumentException("minRate must not be negative");
+        this.minRateLimiter = minRate == 0 ? null : new RateLimiter(minRate, (int) Math.max(Math.ceil(minRate), 1));
+    }
+
+    public RequestBudget withMinRate(double minRate) {
+        setMinRate(minRate);
+        return this;
+    }
+
+    public double getMaxBalance() {
+        return (double) maxBalance / SCALE;
+    }
+
+    public void setMaxBalance(double maxBalance) {
+        if (maxBalance < 1) throw new IllegalArgumentException("maxBalance must be at least 1");
+        this.maxBalance = Math.round(maxBalance * SCALE);
+    }
+}
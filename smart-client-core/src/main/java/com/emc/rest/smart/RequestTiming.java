@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+/**
+ * Monotonic ({@link System#nanoTime()}) timestamps of the phases of a single request attempt. Phases that were not
+ * observed (e.g. the connection lease when the connector does not report it) have no duration.
+ * <p>
+ * The phases are consecutive: host selection (including rate limit waits), connection lease (waiting for a pooled
+ * connection), connect (TCP connect and TLS handshake; zero if a pooled connection was reused), first byte (sending
+ * the request until the response headers are received) and body (reading the response until it is closed).
+ */
+public class RequestTiming {
+    private final long startTime;
+    private volatile long selectedTime, sentTime, leasedTime, connectedTime, firstByteTime, completeTime;
+
+    public RequestTiming() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * @param startTime the {@link System#nanoTime()} at which the attempt started
+     */
+    public RequestTiming(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public void hostSelected() {
+        selectedTime = System.nanoTime();
+    }
+
+    /**
+     * Marks the request as handed to the connector
+     */
+    public void requestSent() {
+        sentTime = System.nanoTime();
+    }
+
+    public void connectionLeased() {
+        leasedTime = System.nanoTime();
+    }
+
+    public void connected() {
+        connectedTime = System.nanoTime();
+    }
+
+    /**
+     * Marks the response headers as received
+     */
+    public void firstByteReceived() {
+        firstByteTime = System.nanoTime();
+    }
+
+    /**
+     * Marks the response as complete (i.e. its body was closed)
+     */
+    public void completed() {
+        completeTime = System.nanoTime();
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the duration of <code>phase</code> in nanoseconds, or -1 if it was not (or not yet) observed
+     */
+    public long getDuration(Phase phase) {
+        switch (phase) {
+            case SELECTION:
+                return between(startTime, selectedTime);
+            case CONNECTION_LEASE:
+                return between(sentTime, leasedTime);
+            case CONNECT:
+                if (connectedTime == 0) return leasedTime == 0 ? -1 : 0; // pooled connection was reused
+                return between(leasedTime, connectedTime);
+            case FIRST_BYTE:
+                long readyTime = connectedTime != 0 ? connectedTime : leasedTime != 0 ? leasedTime : sentTime;
+                return between(readyTime, firstByteTime);
+            case BODY:
+                return between(firstByteTime, completeTime);
+            default:
+                throw new IllegalArgumentException("unknown phase " + phase);
+        }
+    }
+
+    /**
+     * Returns the time from the start of the attempt until the response was complete (or until the response headers
+     * were received, if it is not complete yet), or -1 if there was no response
+     */
+    public long getTotalTime() {
+        return between(startTime, completeTime != 0 ? completeTime : firstByteTime);
+    }
+
+    private static long between(long from, long to) {
+        return from == 0 || to == 0 ? -1 : Math.max(to - from, 0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("RequestTiming{");
+        for (Phase phase : Phase.values()) {
+            long duration = getDuration(phase);
+            sb.append(phase).append('=').append(duration < 0 ? "n/a" : duration / 1000 + "us").append(", ");
+        }
+        long total = getTotalTime();
+        return sb.append("total=").append(total < 0 ? "n/a" : total / 1000 + "us").append('}').toString();
+    }
+
+    public enum Phase {
+        SELECTION, CONNECTION_LEASE, CONNECT, FIRST_BYTE, BODY
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.net.SocketTimeoutException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which failed requests are retried (in addition to connection errors, which are always retried on another
+ * host) and how long to wait before each retry. Only requests with an idempotent method are retried, when they get a
+ * retryable status code (503 by default) or fail with a retryable exception (read timeouts by default).
+ * <p>
+ * The wait before retry <code>n</code> (starting at 0) is a random value between 0 and
+ * <code>min(maxBackoff, initialBackoff * 2^n)</code> ("full jitter"). If the response has a Retry-After header, the
+ * wait is at least that long; if Retry-After is longer than the max retry-after, the response is returned instead.
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_INITIAL_BACKOFF = 50; // ms
+    public static final int DEFAULT_MAX_BACKOFF = 2000; // ms
+    public static final int DEFAULT_MAX_RETRY_AFTER = 10000; // ms
+
+    private volatile Set<String> idempotentMethods = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "PUT", "DELETE")));
+    private volatile Set<Integer> retryableStatusCodes = Collections.singleton(503);
+    private volatile List<Class<? extends Throwable>> retryableExceptions =
+            Collections.singletonList(SocketTimeoutException.class);
+    private volatile long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private volatile long maxRetryAfter = DEFAULT_MAX_RETRY_AFTER;
+
+    /**
+     * Returns true if requests with <code>method</code> may be retried
+     */
+    public boolean isIdempotent(String method) {
+        return method != null && idempotentMethods.contains(method.toUpperCase(Locale.ROOT));
+    }
+
+    public boolean isRetryableStatus(int status) {
+        return retryableStatusCodes.contains(status);
+    }
+
+    /**
+     * Returns true if <code>t</code> or any of its causes is one of the retryable exception types
+     */
+    public boolean isRetryableException(Throwable t) {
+        List<Class<? extends Throwable>> retryableExceptions = this.retryableExceptions;
+        while (t != null) {
+            for (Class<? extends Throwable> type : retryableExceptions) {
+                if (type.isInstance(t)) return true;
+            }
+            t = t.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Returns a random back-off in milliseconds for the retry after <code>attempt</code> (starting at 0)
+     */
+    public long getBackoff(int attempt) {
+        long ceiling = initialBackoff << Math.min(attempt, 30);
+        if (ceiling < 0 || ceiling > maxBackoff) ceiling = maxBackoff;
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Returns the wait in milliseconds before the retry after <code>attempt</code>, honoring the response's
+     * <code>retryAfter</code> header (may be null), or -1 if the server asked to wait longer than the max retry-after
+     */
+    public long getRetryDelay(int attempt, String retryAfter) {
+        long backoff = getBackoff(attempt);
+        long retryAfterMillis = parseRetryAfter(retryAfter, System.currentTimeMillis());
+        if (retryAfterMillis > maxRetryAfter) return -1;
+        return Math.max(backoff, retryAfterMillis);
+    }
+
+    /**
+     * Parses a Retry-After header value (delay-seconds or HTTP-date) into milliseconds from <code>now</code>; returns
+     * 0 if the value is missing or invalid
+     */
+    static long parseRetryAfter(String retryAfter, long now) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) return 0;
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(Long.parseLong(retryAfter), 0) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                long time = ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.max(time - now, 0);
+            } catch (DateTimeParseException e2) {
+                return 0;
+            }
+        }
+    }
+
+    public Set<String> getIdempotentMethods() {
+        return idempotentMethods;
+    }
+
+    /**
+     * Sets the HTTP methods that may be retried. Defaults to GET, HEAD, OPTIONS, PUT and DELETE. Requests with a
+     * streamed (non-repeatable) entity are never retried.
+     */
+    public void setIdempotentMethods(Set<String> idempotentMethods) {
+        Set<String> upperMethods = new HashSet<>();
+        for (String method : idempotentMethods) {
+            upperMethods.add(method.toUpperCase(Locale.ROOT));
+        }
+        this.idempotentMethods = Collections.unmodifiableSet(upperMethods);
+    }
+
+    public RetryPolicy withIdempotentMethods(String... idempotentMethods) {
+        setIdempotentMethods(new HashSet<>(Arrays.asList(idempotentMethods)));
+        return this;
+    }
+
+    public Set<Integer> getRetryableStatusCodes() {
+        return retryableStatusCodes;
+    }
+
+    /**
+     * Sets the response status codes that are retried. Defaults to 503.
+     */
+    public void setRetryableStatusCodes(Set<Integer> retryableStatusCodes) {
+        this.retryableStatusCodes = Collections.unmodifiableSet(new HashSet<>(retryableStatusCodes));
+    }
+
+    public RetryPolicy withRetryableStatusCodes(Integer... retryableStatusCodes) {
+        setRetryableStatusCodes(new HashSet<>(Arrays.asList(retryableStatusCodes)));
+        return this;
+    }
+
+    public List<Class<? extends Throwable>> getRetryableExceptions() {
+        return retryableExceptions;
+    }
+
+    /**
+     * Sets the exception types that are retried (matched anywhere in the cause chain). Defaults to
+     * {@link SocketTimeoutException} (read timeouts). The list is copied, so later changes to it have no effect.
+     */
+    public void setRetryableExceptions(List<Class<? extends Throwable>> retryableExceptions) {
+        this.retryableExceptions = Collections.unmodifiableList(new ArrayList<>(retryableExceptions));
+    }
+
+    @SafeVarargs
+    public final RetryPolicy withRetryableExceptions(Class<? extends Throwable>... retryableExceptions) {
+        // copied element by element, as passing the generic array on could cause heap pollution
+        List<Class<? extends Throwable>> exceptionList = new ArrayList<>(retryableExceptions.length);
+        for (Class<? extends Throwable> type : retryableExceptions) {
+            exceptionList.add(type);
+        }
+        setRetryableExceptions(exceptionList);
+        return this;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * Sets the maximum back-off in milliseconds before the first retry; it doubles for each further retry. Defaults to
+     * {@value #DEFAULT_INITIAL_BACKOFF}.
+     */
+    public void setInitialBackoff(long initialBackoff) {
+        if (initialBackoff < 0) throw new IllegalArgumentException("initialBackoff must not be negative");
+        this.initialBackoff = initialBackoff;
+    }
+
+    public RetryPolicy withInitialBackoff(long initialBackoff) {
+        setInitialBackoff(initialBackoff);
+        return this;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * Sets the upper limit of the back-off in milliseconds. Defaults to {@value #DEFAULT_MAX_BACKOFF}.
+     */
+    public void setMaxBackoff(long maxBackoff) {
+        if (maxBackoff < 0) throw new IllegalArgumentException("maxBackoff must not be negative");
+        this.maxBackoff = maxBackoff;
+    }
+
+    public RetryPolicy withMaxBackoff(long maxBackoff) {
+        setMaxBackoff(maxBackoff);
+        return this;
+    }
+
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    /**
+     * Sets the longest Retry-After (in milliseconds) that is waited for; if a server asks for a longer wait, its
+     * response is returned to the caller. Defaults to {@value #DEFAULT_MAX_RETRY_AFTER}.
+     */
+    public void setMaxRetryAfter(long maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    public RetryPolicy withMaxRetryAfter(long maxRetryAfter) {
+        setMaxRetryAfter(maxRetryAfter);
+        return this;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free sliding window of counters, kept in a ring buffer of time buckets. Each bucket holds one value per
+ * metric. A bucket is cleared and reused once the ring wraps around to it, so recording is a few atomic operations
+ * and never allocates. Sums are exact within a bucket, but a value recorded at the very moment its bucket is being
+ * recycled may be lost.
+ */
+public final class RollingWindow {
+    private final int bucketCount;
+    private final long bucketMillis;
+    private final int metricCount;
+    private final AtomicLongArray epochs;
+    private final AtomicLongArray values;
+
+    /**
+     * @param bucketCount  the number of buckets in the ring (the window spans bucketCount * bucketMillis)
+     * @param bucketMillis the time span of each bucket in milliseconds
+     * @param metricCount  the number of metrics kept in each bucket
+     */
+    public RollingWindow(int bucketCount, long bucketMillis, int metricCount) {
+        if (bucketCount < 1 || bucketMillis < 1 || metricCount < 1)
+            throw new IllegalArgumentException("bucketCount, bucketMillis and metricCount must be positive");
+        this.bucketCount = bucketCount;
+        this.bucketMillis = bucketMillis;
+        this.metricCount = metricCount;
+        this.epochs = new AtomicLongArray(bucketCount);
+        this.values = new AtomicLongArray(bucketCount * metricCount);
+        for (int i = 0; i < bucketCount; i++) {
+            epochs.set(i, -1);
+        }
+    }
+
+    /**
+     * Adds <code>value</code> to <code>metric</code> in the current bucket
+     */
+    public void add(int metric, long value) {
+        add(metric, value, System.currentTimeMillis());
+    }
+
+    void add(int metric, long value, long timeMillis) {
+        values.addAndGet(bucketFor(timeMillis) * metricCount + metric, value);
+    }
+
+    /**
+     * Returns the sum of <code>metric</code> over the last <code>windowMillis</code> milliseconds (rounded up to whole
+     * buckets, and limited to the span of this window)
+     */
+    public long sum(int metric, long windowMillis) {
+        return sum(metric, windowMillis, System.currentTimeMillis());
+    }
+
+    long sum(int metric, long windowMillis, long timeMillis) {
+        long epoch = timeMillis / bucketMillis;
+        long buckets = Math.min(bucketCount, (windowMillis + bucketMillis - 1) / bucketMillis);
+        long sum = 0;
+        for (long e = epoch; e > epoch - buckets && e >= 0; e--) {
+            int bucket = (int) (e % bucketCount);
+            if (epochs.get(bucket) == e) sum += values.get(bucket * metricCount + metric);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sums of all metrics over the last <code>windowMillis</code> milliseconds, in one pass over the
+     * buckets (see {@link #sum(int, long)})
+     */
+    public long[] sumAll(long windowMillis) {
+        return sumAll(windowMillis, System.currentTimeMillis());
+    }
+
+    long[] sumAll(long windowMillis, long timeMillis) {
+        long epoch = timeMillis / bucketMillis;
+        long buckets = Math.min(bucketCount, (windowMillis + bucketMillis - 1) / bucketMillis);
+        long[] sums = new long[metricCount];
+        for (long e = epoch; e > epoch - buckets && e >= 0; e--) {
+            int bucket = (int) (e % bucketCount);
+            if (epochs.get(bucket) != e) continue;
+            for (int metric = 0; metric < metricCount; metric++) {
+                sums[metric] += values.get(bucket * metricCount + metric);
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Clears all buckets
+     */
+    public void reset() {
+        for (int i = 0; i < bucketCount; i++) {
+            epochs.set(i, -1);
+            for (int metric = 0; metric < metricCount; metric++) {
+                values.set(i * metricCount + metric, 0);
+            }
+        }
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * Returns the time span of this window in milliseconds
+     */
+    public long getWindowMillis() {
+        return bucketCount * bucketMillis;
+    }
+
+    private int bucketFor(long timeMillis) {
+        long epoch = timeMillis / bucketMillis;
+        int bucket = (int) (epoch % bucketCount);
+        long bucketEpoch = epochs.get(bucket);
+
+        // the first thread to reach a stale bucket clears it
+        if (bucketEpoch < epoch && epochs.compareAndSet(bucket, bucketEpoch, epoch)) {
+            for (int metric = 0; metric < metricCount; metric++) {
+                values.set(bucket * metricCount + metric, 0);
+            }
+        }
+        return bucket;
+    }
+}
@@ -24,6 +24,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.emc.rest.smart.metrics.MetricsRegistry;
+
 /**
  * Houses configuration for the smart client.
  */
@@ -33,6 +35,7 @@ public class SmartConfig {
 
     public static final int DEFAULT_POLL_INTERVAL = 120; // seconds
     public static final int DEFAULT_MAX_RETRY_ATTEMPTS = 2;
+    public static final int DEFAULT_RATE_LIMIT_TIMEOUT = 1000; // ms
 
     private URI proxyUri;
     private String proxyUser;
@@ -45,6 +48,13 @@ public class SmartConfig {
     private boolean healthCheckEnabled = true;
     private int maxRetryAttempts = DEFAULT_MAX_RETRY_ATTEMPTS;
     private int maxConnectionIdleTime = 0;
+    private OutlierDetector outlierDetector;
+    private RateLimiter rateLimiter;
+    private long rateLimitTimeout = DEFAULT_RATE_LIMIT_TIMEOUT;
+    private HedgingConfig hedgingConfig;
+    private RetryPolicy retryPolicy;
+    private long requestDeadline;
+    private RequestBudget retryBudget;
 
     private final Map<String, Object> properties = new HashMap<>();
 
@@ -226,6 +236,165 @@ public class SmartConfig {
         return this;
     }
 
+    public OutlierDetector getOutlierDetector() {
+        return outlierDetector;
+    }
+
+    /**
+     * Sets an outlier detector, which the smart client runs in the background to eject hosts with an abnormal error
+     * rate or latency. Defaults to null (no outlier detection).
+     */
+    public void setOutlierDetector(OutlierDetector outlierDetector) {
+        this.outlierDetector = outlierDetector;
+    }
+
+    public SmartConfig withOutlierDetector(OutlierDetector outlierDetector) {
+        setOutlierDetector(outlierDetector);
+        return this;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets a global rate limiter; a permit is acquired for every request attempt, regardless of host. Defaults to null
+     * (no limit).
+     *
+     * @see #setHostRateLimit(double, int)
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        if (rateLimiter != null) rateLimiter.waitTimer = loadBalancer.getRateLimitWait();
+    }
+
+    public SmartConfig withRateLimiter(RateLimiter rateLimiter) {
+        setRateLimiter(rateLimiter);
+        return this;
+    }
+
+    /**
+     * Convenience for {@link LoadBalancer#setHostRateLimit(double, int)}
+     */
+    public void setHostRateLimit(double requestsPerSecond, int burst) {
+        loadBalancer.setHostRateLimit(requestsPerSecond, burst);
+    }
+
+    public SmartConfig withHostRateLimit(double requestsPerSecond, int burst) {
+        setHostRateLimit(requestsPerSecond, burst);
+        return this;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return loadBalancer.getMetricsRegistry();
+    }
+
+    /**
+     * Convenience for {@link LoadBalancer#setMetricsRegistry(MetricsRegistry)}, which also publishes the wait times of
+     * the global {@link #setRateLimiter(RateLimiter) rate limiter}
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        loadBalancer.setMetricsRegistry(metricsRegistry);
+        RateLimiter rateLimiter = this.rateLimiter;
+        if (rateLimiter != null) rateLimiter.waitTimer = loadBalancer.getRateLimitWait();
+    }
+
+    public SmartConfig withMetricsRegistry(MetricsRegistry metricsRegistry) {
+        setMetricsRegistry(metricsRegistry);
+        return this;
+    }
+
+    public long getRateLimitTimeout() {
+        return rateLimitTimeout;
+    }
+
+    /**
+     * Sets the maximum number of milliseconds a request waits for a rate limit permit (global or per host) before it
+     * fails with a {@link SmartClientException}. Set to 0 to fail immediately when no permit is available. Defaults
+     * to {@value #DEFAULT_RATE_LIMIT_TIMEOUT}.
+     */
+    public void setRateLimitTimeout(long rateLimitTimeout) {
+        this.rateLimitTimeout = rateLimitTimeout;
+    }
+
+    public SmartConfig withRateLimitTimeout(long rateLimitTimeout) {
+        setRateLimitTimeout(rateLimitTimeout);
+        return this;
+    }
+
+    public RequestBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Sets the budget that limits retries across all requests, so a cluster-wide problem does not multiply the load
+     * by the number of retry attempts. Each successful request earns a fraction of a retry, and a minimum number of
+     * retries per second is always allowed (e.g. <code>new RequestBudget(0.2).withMinRate(10)</code> allows 20% of
+     * successful requests to be retried, plus 10 retries per second). Defaults to null (no budget).
+     */
+    public void setRetryBudget(RequestBudget retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    public SmartConfig withRetryBudget(RequestBudget retryBudget) {
+        setRetryBudget(retryBudget);
+        return this;
+    }
+
+    public HedgingConfig getHedgingConfig() {
+        return hedgingConfig;
+    }
+
+    /**
+     * Enables hedging of idempotent requests with the given settings. Defaults to null (no hedging).
+     */
+    public void setHedgingConfig(HedgingConfig hedgingConfig) {
+        this.hedgingConfig = hedgingConfig;
+    }
+
+    public SmartConfig withHedgingConfig(HedgingConfig hedgingConfig) {
+        setHedgingConfig(hedgingConfig);
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Enables retries of idempotent requests on retryable status codes and exceptions (with back-off), in addition to
+     * connection errors. Retries are still limited by the max retry attempts and the retry budget. Defaults to null
+     * (only connection errors are retried).
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public SmartConfig withRetryPolicy(RetryPolicy retryPolicy) {
+        setRetryPolicy(retryPolicy);
+        return this;
+    }
+
+    public long getRequestDeadline() {
+        return requestDeadline;
+    }
+
+    /**
+     * Sets the default end-to-end time limit of a request in milliseconds, including all retries, hedges, back-off
+     * and rate limit waits. The connect and read timeouts of each attempt are shrunk to the remaining time, and no
+     * further attempt is made once it is used up. Can be overridden per request with the
+     * <code>com.emc.rest.smart.requestDeadline</code> request property. Defaults to 0 (no deadline).
+     */
+    public void setRequestDeadline(long requestDeadline) {
+        if (requestDeadline < 0) throw new IllegalArgumentException("requestDeadline must not be negative");
+        this.requestDeadline = requestDeadline;
+    }
+
+    public SmartConfig withRequestDeadline(long requestDeadline) {
+        setRequestDeadline(requestDeadline);
+        return this;
+    }
+
     public SmartConfig withProperty(String propName, Object value) {
         setProperty(propName, value);
         return this;
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Selects the host with the lowest load relative to its capacity, where load is the response index (plus one, so
+ * idle hosts are ranked by weight too) divided by the host's {@link Host#getWeight() weight}. Healthy hosts are
+ * preferred. Hosts with equal relative load are picked by smooth weighted round-robin, so over time each of them
+ * gets a share of ties proportional to its weight, spread out evenly rather than in bursts.
+ * <p>
+ * Selection is lock-free. The round-robin counters of tied hosts are updated atomically, but not as a group, so the
+ * tie-break order is approximate under contention (the counters still add up, so no host is starved).
+ */
+public class WeightedLeastRequestStrategy implements HostSelectionStrategy {
+    // smooth weighted round-robin state ("current weight") of each host
+    private final ConcurrentHashMap<Host, AtomicLong> currentWeights = new ConcurrentHashMap<>();
+
+    @Override
+    public Host selectHost(Host[] hosts, HostSelectionContext context) {
+        // find the lowest relative load (healthy hosts first); loads and health are read once, so that both passes
+        // see the same values even while requests complete concurrently
+        double[] loads = new double[hosts.length];
+        boolean[] healthy = new boolean[hosts.length];
+        double lowestLoad = Double.MAX_VALUE, lowestHealthyLoad = Double.MAX_VALUE;
+        for (int i = 0; i < hosts.length; i++) {
+            if (context.isVetoed(hosts[i])) {
+                loads[i] = Double.NaN;
+                continue;
+            }
+            double load = loads[i] = getRelativeLoad(hosts[i]);
+            healthy[i] = hosts[i].isHealthy();
+            if (load < lowestLoad) lowestLoad = load;
+            if (load < lowestHealthyLoad && healthy[i]) lowestHealthyLoad = load;
+        }
+        if (lowestLoad == Double.MAX_VALUE) return null;
+
+        // if there are no healthy hosts, we still need a host to contact
+        boolean healthyOnly = lowestHealthyLoad != Double.MAX_VALUE;
+        double targetLoad = healthyOnly ? lowestHealthyLoad : lowestLoad;
+
+        // smooth weighted round-robin among the hosts with that load (there is at least one)
+        Host topHost = null;
+        AtomicLong topWeight = null;
+        long topCurrent = Long.MIN_VALUE, totalWeight = 0;
+        for (int i = 0; i < hosts.length; i++) {
+            if (loads[i] != targetLoad || (healthyOnly && !healthy[i])) continue; // NaN (vetoed) never matches
+
+            Host host = hosts[i];
+            int weight = host.getWeight();
+            AtomicLong currentWeight = getCurrentWeight(host);
+            long current = currentWeight.addAndGet(weight);
+            totalWeight += weight;
+            if (current > topCurrent) {
+                topHost = host;
+                topWeight = currentWeight;
+                topCurrent = current;
+            }
+        }
+
+        topWeight.addAndGet(-totalWeight);
+        return topHost;
+    }
+
+    @Override
+    public void hostsChanged(Collection<Host> added, Collection<Host> removed) {
+        for (Host host : removed) {
+            currentWeights.remove(host);
+        }
+    }
+
+    static double getRelativeLoad(Host host) {
+        return (host.getResponseIndex() + 1) / (double) host.getWeight();
+    }
+
+    private AtomicLong getCurrentWeight(Host host) {
+        AtomicLong currentWeight = currentWeights.get(host);
+        return currentWeight != null ? currentWeight : currentWeights.computeIfAbsent(host, h -> new AtomicLong());
+    }
+}
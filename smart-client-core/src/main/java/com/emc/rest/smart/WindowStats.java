@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+/**
+ * Immutable totals of a host's (or all hosts') activity over a recent time window, with rate queries. Windows are
+ * made of whole time buckets, and the current bucket is still filling, so rates over short windows slightly
+ * underestimate the current rate.
+ *
+ * @see Host#getWindowStats(long)
+ */
+public final class WindowStats {
+    /**
+     * Standard windows, kept in {@link HostStatsSnapshot}s
+     */
+    public enum Window {
+        ONE_MINUTE(60000), FIVE_MINUTES(300000), FIFTEEN_MINUTES(900000);
+
+        private final long millis;
+
+        Window(long millis) {
+            this.millis = millis;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    private final long windowMillis;
+    private final long requests;
+    private final long errors;
+    private final long bytesReceived;
+    private final long bytesSent;
+    private final long latencyCount;
+    private final long latencySum;
+
+    /**
+     * @param latencyCount the number of requests with a response latency sample
+     * @param latencySum   the sum of response latencies in nanoseconds
+     */
+    public WindowStats(long windowMillis, long requests, long errors, long bytesReceived, long bytesSent,
+                       long latencyCount, long latencySum) {
+        this.windowMillis = windowMillis;
+        this.requests = requests;
+        this.errors = errors;
+        this.bytesReceived = bytesReceived;
+        this.bytesSent = bytesSent;
+        this.latencyCount = latencyCount;
+        this.latencySum = latencySum;
+    }
+
+    /**
+     * Returns the sum of these stats and <code>other</code> (which should cover the same window)
+     */
+    public WindowStats merge(WindowStats other) {
+        return new WindowStats(Math.max(windowMillis, other.windowMillis), requests + other.requests,
+                errors + other.errors, bytesReceived + other.bytesReceived, bytesSent + other.bytesSent,
+                latencyCount + other.latencyCount, latencySum + other.latencySum);
+    }
+
+    /**
+     * Returns the time span of these stats in milliseconds
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns the number of response body bytes read
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns the number of request body bytes written
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns requests per second
+     */
+    public double getRequestRate() {
+        return perSecond(requests);
+    }
+
+    /**
+     * Returns errors per second
+     */
+    public double getErrorRate() {
+        return perSecond(errors);
+    }
+
+    /**
+     * Returns the fraction of requests that failed (0 if there were no requests)
+     */
+    public double getErrorRatio() {
+        return requests == 0 ? 0 : (double) errors / requests;
+    }
+
+    /**
+     * Returns response body bytes per second
+     */
+    public double getThroughput() {
+        return perSecond(bytesReceived);
+    }
+
+    /**
+     * Returns request body bytes per second
+     */
+    public double getSendThroughput() {
+        return perSecond(bytesSent);
+    }
+
+    /**
+     * Returns the mean time until response headers were received, in nanoseconds (0 if there were no responses)
+     */
+    public long getMeanLatency() {
+        return latencyCount == 0 ? 0 : latencySum / latencyCount;
+    }
+
+    private double perSecond(long count) {
+        return windowMillis == 0 ? 0 : count * 1000.0 / windowMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WindowStats{windowMillis=%d, requests=%d, errors=%d, bytesReceived=%d, bytesSent=%d, "
+                + "meanLatency=%d}", windowMillis, requests, errors, bytesReceived, bytesSent, getMeanLatency());
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jfr;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Guards creation of the smart-client Flight Recorder events. Loading the first event class initializes the
+ * Flight Recorder framework, which takes a noticeable amount of time, so no event is instantiated until a
+ * recording has been started in this JVM.
+ */
+public final class FlightRecorderEvents {
+    /**
+     * Returns true if Flight Recorder has been initialized (a recording was started at some point), meaning it is
+     * worth creating events. Each event still needs to be enabled in the recording settings to be committed.
+     */
+    public static boolean isActive() {
+        return FlightRecorder.isInitialized();
+    }
+
+    private FlightRecorderEvents() {
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a host that is marked healthy or unhealthy, or that is ejected or restored by outlier
+ * detection. Disabled by default; enable
+ * <code>com.emc.rest.smart.HealthTransition</code> in the recording settings.
+ */
+@Name("com.emc.rest.smart.HealthTransition")
+@Label("Health Transition")
+@Category({"Smart Client"})
+@Description("A host was marked healthy or unhealthy, or ejected or restored by outlier detection")
+@Enabled(false)
+@StackTrace(false)
+public class HealthTransitionEvent extends Event {
+    @Label("Host")
+    private String host;
+
+    @Label("Healthy")
+    @Description("The new health state of the host")
+    private boolean healthy;
+
+    @Label("Outlier")
+    @Description("Whether the host was ejected or restored by outlier detection")
+    private boolean outlier;
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    public void setOutlier(boolean outlier) {
+        this.outlier = outlier;
+    }
+}
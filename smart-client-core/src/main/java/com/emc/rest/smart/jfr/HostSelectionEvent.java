@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for the selection of a host by the load balancer (the duration includes waiting for
+ * capacity). Disabled by default; enable <code>com.emc.rest.smart.HostSelection</code> in the recording settings.
+ */
+@Name("com.emc.rest.smart.HostSelection")
+@Label("Host Selection")
+@Category({"Smart Client"})
+@Description("Selection of a host by the load balancer")
+@Enabled(false)
+@StackTrace(false)
+public class HostSelectionEvent extends Event {
+    @Label("Host")
+    private String host;
+
+    @Label("Candidates")
+    @Description("The number of hosts in the load balancer")
+    private int candidates;
+
+    @Label("Excluded")
+    @Description("The number of hosts that were excluded (already tried, or refused the request)")
+    private int excluded;
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setCandidates(int candidates) {
+        this.candidates = candidates;
+    }
+
+    public void setExcluded(int excluded) {
+        this.excluded = excluded;
+    }
+}
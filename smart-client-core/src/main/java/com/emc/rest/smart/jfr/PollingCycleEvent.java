@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one cycle of the polling daemon (host discovery and health checks). Disabled by default;
+ * enable <code>com.emc.rest.smart.PollingCycle</code> in the recording settings.
+ */
+@Name("com.emc.rest.smart.PollingCycle")
+@Label("Polling Cycle")
+@Category({"Smart Client"})
+@Description("Host discovery and health checks of the polling daemon")
+@Enabled(false)
+@StackTrace(false)
+public class PollingCycleEvent extends Event {
+    @Label("Discovery Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    private long discoveryDuration;
+
+    @Label("Health Check Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    private long healthCheckDuration;
+
+    @Label("Hosts")
+    private int hosts;
+
+    @Label("Unhealthy Hosts")
+    @Description("The number of hosts that failed their health check")
+    private int unhealthyHosts;
+
+    public void setDiscoveryDuration(long discoveryDuration) {
+        this.discoveryDuration = discoveryDuration;
+    }
+
+    public void setHealthCheckDuration(long healthCheckDuration) {
+        this.healthCheckDuration = healthCheckDuration;
+    }
+
+    public void setHosts(int hosts) {
+        this.hosts = hosts;
+    }
+
+    public void setUnhealthyHosts(int unhealthyHosts) {
+        this.unhealthyHosts = unhealthyHosts;
+    }
+}
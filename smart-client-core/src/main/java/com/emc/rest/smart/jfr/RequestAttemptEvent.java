@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one attempt of a request (until response headers are received or the attempt fails).
+ * Disabled by default; enable <code>com.emc.rest.smart.RequestAttempt</code> in the recording settings.
+ */
+@Name("com.emc.rest.smart.RequestAttempt")
+@Label("Request Attempt")
+@Category({"Smart Client"})
+@Description("One attempt of a request to a host")
+@Enabled(false)
+@StackTrace(false)
+public class RequestAttemptEvent extends Event {
+    @Label("Host")
+    private String host;
+
+    @Label("Method")
+    private String method;
+
+    @Label("Attempt")
+    @Description("The attempt number, starting at 1")
+    private int attempt;
+
+    @Label("Status")
+    @Description("The response status, or 0 if the attempt failed")
+    private int status;
+
+    @Label("Error")
+    private String error;
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
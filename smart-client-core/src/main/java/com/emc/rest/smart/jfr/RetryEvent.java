@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for the decision to retry a request. Disabled by default; enable
+ * <code>com.emc.rest.smart.Retry</code> in the recording settings.
+ */
+@Name("com.emc.rest.smart.Retry")
+@Label("Retry")
+@Category({"Smart Client"})
+@Description("A failed request attempt that is retried")
+@Enabled(false)
+@StackTrace(false)
+public class RetryEvent extends Event {
+    @Label("Host")
+    @Description("The host of the failed attempt")
+    private String host;
+
+    @Label("Attempt")
+    @Description("The number of the failed attempt, starting at 1")
+    private int attempt;
+
+    @Label("Reason")
+    private String reason;
+
+    @Label("Delay")
+    @Timespan(Timespan.MILLISECONDS)
+    private long delay;
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+}
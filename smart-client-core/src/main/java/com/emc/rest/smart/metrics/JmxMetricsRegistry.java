@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.emc.rest.smart.LatencyHistogram;
+
+/**
+ * Publishes metrics as JMX MBeans, so that standard JMX tools and scrapers see them without any application code. All
+ * meters with the same scope and tags are attributes of one MBean, named
+ * <code>com.emc.rest.smart:type=&lt;Scope&gt;,client=&lt;name&gt;[,&lt;tag&gt;=&lt;value&gt;...]</code>, e.g.
+ * <code>com.emc.rest.smart:type=Host,client=smart-client-1,host=10.0.0.1</code> with attributes
+ * <code>selections</code>, <code>errors</code>, <code>inFlight</code>, <code>latencyMeanMillis</code>, etc.
+ * <p>
+ * Timers are exposed as <code>Count</code>, <code>MeanMillis</code>, <code>P99Millis</code> and
+ * <code>MaxMillis</code> attributes, histograms as <code>Count</code>, <code>Mean</code> and <code>Max</code>.
+ * Call {@link #close()} to unregister all MBeans.
+ */
+public class JmxMetricsRegistry implements MetricsRegistry, AutoCloseable {
+    public static final String DOMAIN = "com.emc.rest.smart";
+
+    private static final Logger log = LoggerFactory.getLogger(JmxMetricsRegistry.class);
+    private static final AtomicInteger instanceCount = new AtomicInteger();
+
+    private final String name;
+    private final MBeanServer mBeanServer;
+    private final Map<ObjectName, MeterGroup> groups = new HashMap<>();
+
+    /**
+     * Registers MBeans in the platform MBean server, under a generated client name
+     */
+    public JmxMetricsRegistry() {
+        this("smart-client-" + instanceCount.incrementAndGet());
+    }
+
+    /**
+     * @param name the client name used in the MBean names (must be unique within the JVM)
+     */
+    public JmxMetricsRegistry(String name) {
+        this(name, ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxMetricsRegistry(String name, MBeanServer mBeanServer) {
+        this.name = name;
+        this.mBeanServer = mBeanServer;
+    }
+
+    @Override
+    public Counter counter(String name, String... tags) {
+        return getOrCreate(JmxCounter.class, name, tags, JmxCounter::new);
+    }
+
+    @Override
+    public Timer timer(String name, String... tags) {
+        return getOrCreate(JmxTimer.class, name, tags, JmxTimer::new);
+    }
+
+    @Override
+    public Histogram histogram(String name, String... tags) {
+        return getOrCreate(JmxHistogram.class, name, tags, JmxHistogram::new);
+    }
+
+    @Override
+    public Gauge gauge(String name, DoubleSupplier value, String... tags) {
+        return getOrCreate(JmxGauge.class, name, tags, (group, attribute) -> new JmxGauge(group, attribute, value));
+    }
+
+    @Override
+    public synchronized void remove(Meter meter) {
+        if (!(meter instanceof JmxMeter)) return;
+        JmxMeter jmxMeter = (JmxMeter) meter;
+        MeterGroup group = jmxMeter.group;
+        if (group.meters.remove(jmxMeter.attribute, jmxMeter) && group.meters.isEmpty()) {
+            groups.remove(group.objectName);
+            unregister(group.objectName);
+        }
+    }
+
+    /**
+     * Unregisters all MBeans of this registry
+     */
+    @Override
+    public synchronized void close() {
+        for (ObjectName objectName : groups.keySet()) {
+            unregister(objectName);
+        }
+        groups.clear();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the name of the MBean that holds the meters with <code>scope</code> and <code>tags</code>
+     */
+    public ObjectName getObjectName(String scope, String... tags) {
+        if (tags.length % 2 != 0) throw new IllegalArgumentException("tags must be key/value pairs");
+        Hashtable<String, String> properties = new Hashtable<>();
+        properties.put("type", Character.toUpperCase(scope.charAt(0)) + scope.substring(1));
+        properties.put("client", quoteIfNeeded(name));
+        for (int i = 0; i < tags.length; i += 2) {
+            properties.put(tags[i], quoteIfNeeded(tags[i + 1]));
+        }
+        try {
+            return new ObjectName(DOMAIN, properties);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("invalid metric tags", e);
+        }
+    }
+
+    private synchronized <T extends JmxMeter> T getOrCreate(Class<T> type, String name, String[] tags,
+                                                            MeterFactory<T> factory) {
+        int dot = name.indexOf('.');
+        if (dot <= 0 || dot == name.length() - 1)
+            throw new IllegalArgumentException("metric name must be <scope>.<name>: " + name);
+        ObjectName objectName = getObjectName(name.substring(0, dot), tags);
+        String attribute = name.substring(dot + 1);
+
+        MeterGroup group = groups.get(objectName);
+        boolean newGroup = group == null;
+        if (newGroup) group = new MeterGroup(objectName);
+
+        JmxMeter meter = group.meters.get(attribute);
+        if (meter == null) {
+            meter = factory.create(group, attribute);
+            group.meters.put(attribute, meter);
+        } else if (!type.isInstance(meter)) {
+            throw new IllegalArgumentException(name + " is already registered as a different type of meter");
+        }
+
+        if (newGroup) {
+            groups.put(objectName, group);
+            try {
+                mBeanServer.registerMBean(group, objectName);
+            } catch (JMException e) {
+                log.warn("could not register MBean {}: {}", objectName, e.toString());
+            }
+        }
+        return type.cast(meter);
+    }
+
+    private void unregister(ObjectName objectName) {
+        try {
+            if (mBeanServer.isRegistered(objectName)) mBeanServer.unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn("could not unregister MBean {}: {}", objectName, e.toString());
+        }
+    }
+
+    private static String quoteIfNeeded(String value) {
+        for (char c : value.toCharArray()) {
+            if (",=:\"*?\n".indexOf(c) >= 0) return ObjectName.quote(value);
+        }
+        return value;
+    }
+
+    private interface MeterFactory<T extends JmxMeter> {
+        T create(MeterGroup group, String attribute);
+    }
+
+    /**
+     * An MBean holding all meters with the same scope and tags
+     */
+    private static final class MeterGroup implements DynamicMBean {
+        private final ObjectName objectName;
+        private final Map<String, JmxMeter> meters = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        MeterGroup(ObjectName objectName) {
+            this.objectName = objectName;
+        }
+
+        private List<JmxMeter> getMeters() {
+            synchronized (meters) {
+                return new ArrayList<>(meters.values());
+            }
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            for (JmxMeter meter : getMeters()) {
+                if (attribute.startsWith(meter.attribute)) {
+                    Object value = meter.getValue(attribute.substring(meter.attribute.length()));
+                    if (value != null) return value;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // skipped, as specified by DynamicMBean
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (JmxMeter meter : getMeters()) {
+                for (String suffix : meter.getSuffixes()) {
+                    String type = meter.getValue(suffix) instanceof Long ? "long" : "double";
+                    attributes.add(new MBeanAttributeInfo(meter.attribute + suffix, type, meter.attribute + suffix,
+                            true, false, false));
+                }
+            }
+            return new MBeanInfo(getClass().getName(), "smart client metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+
+    private abstract static class JmxMeter implements Meter {
+        final MeterGroup group;
+        final String attribute;
+
+        JmxMeter(MeterGroup group, String attribute) {
+            this.group = group;
+            this.attribute = attribute;
+        }
+
+        /**
+         * Returns the suffixes of the MBean attributes of this meter (the attribute name is the meter name plus the
+         * suffix)
+         */
+        abstract String[] getSuffixes();
+
+        /**
+         * Returns the value of the attribute with <code>suffix</code>, or null if there is no such attribute
+         */
+        abstract Object getValue(String suffix);
+    }
+
+    private static final class JmxCounter extends JmxMeter implements Counter {
+        private final LongAdder count = new LongAdder();
+
+        JmxCounter(MeterGroup group, String attribute) {
+            super(group, attribute);
+        }
+
+        @Override
+        public void increment(long amount) {
+            count.add(amount);
+        }
+
+        @Override
+        String[] getSuffixes() {
+            return new String[]{""};
+        }
+
+        @Override
+        Object getValue(String suffix) {
+            return suffix.isEmpty() ? (Object) count.sum() : null;
+        }
+    }
+
+    private static final class JmxGauge extends JmxMeter implements Gauge {
+        private final DoubleSupplier value;
+
+        JmxGauge(MeterGroup group, String attribute, DoubleSupplier value) {
+            super(group, attribute);
+            this.value = value;
+        }
+
+        @Override
+        public double getValue() {
+            return value.getAsDouble();
+        }
+
+        @Override
+        String[] getSuffixes() {
+            return new String[]{""};
+        }
+
+        @Override
+        Object getValue(String suffix) {
+            return suffix.isEmpty() ? (Object) getValue() : null;
+        }
+    }
+
+    private static final class JmxTimer extends JmxMeter implements Timer {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        JmxTimer(MeterGroup group, String attribute) {
+            super(group, attribute);
+        }
+
+        @Override
+        public void record(long durationNanos) {
+            histogram.record(durationNanos);
+        }
+
+        @Override
+        String[] getSuffixes() {
+            return new String[]{"Count", "MeanMillis", "P99Millis", "MaxMillis"};
+        }
+
+        @Override
+        Object getValue(String suffix) {
+            LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+            switch (suffix) {
+                case "Count":
+                    return snapshot.getCount();
+                case "MeanMillis":
+                    return snapshot.getMean() / 1000000.0;
+                case "P99Millis":
+                    return snapshot.getPercentile(99) / 1000000.0;
+                case "MaxMillis":
+                    return snapshot.getMax() / 1000000.0;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static final class JmxHistogram extends JmxMeter implements Histogram {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        JmxHistogram(MeterGroup group, String attribute) {
+            super(group, attribute);
+        }
+
+        @Override
+        public void record(long value) {
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        @Override
+        String[] getSuffixes() {
+            return new String[]{"Count", "Mean", "Max"};
+        }
+
+        @Override
+        Object getValue(String suffix) {
+            long count = this.count.sum();
+            switch (suffix) {
+                case "Count":
+                    return count;
+                case "Mean":
+                    return count == 0 ? 0.0 : (double) sum.sum() / count;
+                case "Max":
+                    return count == 0 ? 0L : max.get();
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Service provider interface to publish smart client metrics to a metrics library (or JMX, see
+ * {@link JmxMetricsRegistry}). Meters are identified by a dotted name (the first part is the scope, i.e.
+ * <code>loadBalancer</code> or <code>host</code>) and tags, given as alternating keys and values (e.g.
+ * <code>"host", "10.0.0.1"</code>).
+ * <p>
+ * Meters are created once and cached by the smart client where possible, but implementations must return the same
+ * meter when asked for the same name and tags again. Recording must be thread-safe and should not block.
+ *
+ * @see com.emc.rest.smart.LoadBalancer#setMetricsRegistry(MetricsRegistry)
+ */
+public interface MetricsRegistry {
+    Counter counter(String name, String... tags);
+
+    Timer timer(String name, String... tags);
+
+    Histogram histogram(String name, String... tags);
+
+    /**
+     * Registers a gauge that reads its value from <code>value</code>
+     */
+    Gauge gauge(String name, DoubleSupplier value, String... tags);
+
+    /**
+     * Removes <code>meter</code> (e.g. when its host is removed from the load balancer)
+     */
+    void remove(Meter meter);
+}
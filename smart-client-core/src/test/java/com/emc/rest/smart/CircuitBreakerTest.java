@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+public class CircuitBreakerTest {
+    @Test
+    public void testStateMachine() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(new CircuitBreakerConfig().withFailureThreshold(3)
+                .withOpenTime(200).withHalfOpenTrials(2).withSuccessThreshold(2));
+
+        // failures must be consecutive to open the circuit
+        breaker.recordResult(true);
+        breaker.recordResult(true);
+        breaker.recordResult(false);
+        breaker.recordResult(true);
+        breaker.recordResult(true);
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.recordResult(true);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assertions.assertFalse(breaker.allowsRequests());
+        Assertions.assertFalse(breaker.tryAcquirePermit());
+
+        // after the open time, only 2 concurrent trials are let through
+        Thread.sleep(250);
+        Assertions.assertTrue(breaker.allowsRequests());
+        Assertions.assertTrue(breaker.tryAcquirePermit());
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assertions.assertTrue(breaker.tryAcquirePermit());
+        Assertions.assertFalse(breaker.allowsRequests());
+        Assertions.assertFalse(breaker.tryAcquirePermit());
+
+        // a failed trial re-opens the circuit, for twice as long
+        breaker.recordResult(true);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(250);
+        Assertions.assertFalse(breaker.tryAcquirePermit());
+        Thread.sleep(200);
+
+        // enough successful trials close it
+        Assertions.assertTrue(breaker.tryAcquirePermit());
+        breaker.recordResult(false);
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assertions.assertTrue(breaker.tryAcquirePermit());
+        breaker.recordResult(false);
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assertions.assertTrue(breaker.tryAcquirePermit());
+    }
+
+    @Test
+    public void testHalfOpenSelection() throws Exception {
+        Host foo = new Host("foo"), bar = new Host("bar");
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(foo, bar)).withCircuitBreakerConfig(
+                new CircuitBreakerConfig().withFailureThreshold(2).withOpenTime(100).withHalfOpenTrials(1).withSuccessThreshold(1));
+        Assertions.assertNotNull(foo.getCircuitBreaker());
+        foo.setSlowStartWindow(60000);
+        Assertions.assertEquals(1, foo.getSlowStartWeight());
+
+        // trip foo's circuit
+        foo.callComplete(true);
+        foo.callComplete(true);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, foo.getCircuitState());
+        Assertions.assertFalse(foo.isHealthy());
+        for (int i = 0; i < 5; i++) {
+            bar.connectionOpened();
+            Assertions.assertSame(bar, loadBalancer.getTopHost(null));
+        }
+
+        // once half-open, foo (which has no connections) gets exactly one trial request; the rest go elsewhere
+        Thread.sleep(150);
+        int fooCount = 0;
+        long permitTime = 0;
+        for (int i = 0; i < 10; i++) {
+            if (loadBalancer.getTopHost(null) == foo) {
+                permitTime = System.nanoTime();
+                fooCount++;
+            }
+        }
+        Assertions.assertEquals(1, fooCount);
+
+        // a result without a permit is not a trial
+        foo.callComplete(false);
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, foo.getCircuitState());
+        Assertions.assertNotSame(foo, loadBalancer.getTopHost(null));
+
+        // a successful trial closes the circuit, and the recovered host starts slowly
+        foo.callComplete(false, -1, permitTime);
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, foo.getCircuitState());
+        Assertions.assertTrue(foo.getSlowStartWeight() < 1);
+        Assertions.assertSame(foo, loadBalancer.getTopHost(null, Arrays.asList(bar)));
+    }
+
+    @Test
+    public void testLateResultsAreNotTrials() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(new CircuitBreakerConfig().withFailureThreshold(1)
+                .withOpenTime(100).withHalfOpenTrials(1).withSuccessThreshold(1));
+
+        // a request is sent, then the circuit opens
+        long permitTime = System.nanoTime();
+        Assertions.assertTrue(breaker.tryAcquirePermit());
+        breaker.recordResult(true);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(150);
+        Assertions.assertTrue(breaker.tryAcquirePermit());
+        long trialTime = System.nanoTime();
+
+        // the result of the earlier request neither counts as a trial nor releases it
+        breaker.recordResult(false, permitTime);
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.releasePermit(permitTime);
+        Assertions.assertFalse(breaker.tryAcquirePermit());
+
+        // releasing the trial makes room for another one, whose result counts
+        breaker.releasePermit(trialTime);
+        Assertions.assertTrue(breaker.tryAcquirePermit());
+        breaker.recordResult(false, System.nanoTime());
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testNoHostAvailable() {
+        Host foo = new Host("foo"), bar = new Host("bar");
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(foo, bar)).withCircuitBreakerConfig(
+                new CircuitBreakerConfig().withFailureThreshold(1).withOpenTime(60000));
+
+        foo.callComplete(true);
+        Assertions.assertSame(bar, loadBalancer.getTopHost(null));
+        Assertions.assertNull(loadBalancer.getTopHost(null, Arrays.asList(bar)));
+
+        // with every circuit open, selection fails instead of picking a failing host
+        bar.callComplete(true);
+        Assertions.assertThrows(SmartClientException.class, () -> loadBalancer.getTopHost(null));
+    }
+}
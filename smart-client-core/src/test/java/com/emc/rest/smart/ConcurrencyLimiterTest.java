@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrencyLimiterTest {
+    @Test
+    public void testAimd() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ConcurrencyLimitConfig().withInitialLimit(10)
+                .withMinLimit(2).withMaxLimit(20));
+        Assertions.assertEquals(10, limiter.getLimit());
+
+        // fast calls under load raise the limit (up to the max)
+        for (int i = 0; i < 30; i++) {
+            limiter.onSample(false, 10000000, limiter.getLimit());
+        }
+        Assertions.assertEquals(20, limiter.getLimit());
+
+        // a lightly loaded host does not need a higher limit
+        limiter.onSample(false, 10000000, 1);
+        Assertions.assertEquals(20, limiter.getLimit());
+
+        // slow calls (queueing) shrink it, but only once per latency window: calls that were already in flight do
+        // not shrink it again
+        for (int i = 0; i < 5; i++) {
+            limiter.onSample(false, 100000000, 20);
+        }
+        Assertions.assertEquals(18, limiter.getLimit());
+
+        // slow calls do not move the baseline
+        Assertions.assertEquals(10000000, limiter.getBaselineLatency(), 1000);
+
+        // and so do errors, down to the min
+        for (int i = 0; i < 100 && limiter.getLimit() > 2; i++) {
+            Thread.sleep(25); // > the latency tolerance times the baseline
+            limiter.onDrop();
+        }
+        Assertions.assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testBurstOfErrors() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ConcurrencyLimitConfig().withInitialLimit(100));
+        limiter.onSample(false, 10000000, 1);
+
+        // failures of calls that were all in flight at once are one congestion signal
+        for (int i = 0; i < 50; i++) {
+            limiter.onSample(true, 5000000, 100);
+            limiter.onDrop();
+        }
+        Assertions.assertEquals(90, limiter.getLimit());
+    }
+
+    @Test
+    public void testSaturatedHostsAreSkipped() {
+        Host foo = new Host("foo"), bar = new Host("bar");
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(foo, bar)).withResponseIndexMode(
+                Host.ResponseIndexMode.PEAK_EWMA).withConcurrencyLimitConfig(new ConcurrencyLimitConfig()
+                .withInitialLimit(2).withSaturationPolicy(ConcurrencyLimitConfig.SaturationPolicy.FAIL_FAST));
+
+        // foo is much faster, so it is preferred until it is saturated
+        foo.callComplete(false, 1000000);
+        bar.callComplete(false, 100000000);
+        Assertions.assertSame(foo, loadBalancer.getTopHost(null));
+        long permitTime = System.nanoTime();
+        Assertions.assertSame(foo, loadBalancer.getTopHost(null));
+        Assertions.assertTrue(foo.isSaturated());
+        Assertions.assertSame(bar, loadBalancer.getTopHost(null));
+
+        // fail fast when all hosts are saturated
+        Assertions.assertSame(bar, loadBalancer.getTopHost(null));
+        Assertions.assertThrows(SmartClientException.class, () -> loadBalancer.getTopHost(null));
+
+        // a call tallied without its permit does not free a slot
+        foo.callComplete(false);
+        Assertions.assertThrows(SmartClientException.class, () -> loadBalancer.getTopHost(null));
+
+        // completing a call frees its slot
+        foo.callComplete(false, 1000000, permitTime);
+        Assertions.assertSame(foo, loadBalancer.getTopHost(null));
+    }
+
+    @Test
+    public void testBoundedWait() throws Exception {
+        Host foo = new Host("foo");
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(foo)).withConcurrencyLimitConfig(
+                new ConcurrencyLimitConfig().withInitialLimit(1).withMinLimit(1).withMaxWaitTime(2000));
+        Assertions.assertSame(foo, loadBalancer.getTopHost(null));
+        long permitTime = System.nanoTime();
+
+        // capacity frees up while waiting
+        Thread closer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            foo.releasePermit(permitTime);
+        });
+        closer.start();
+        long start = System.currentTimeMillis();
+        Assertions.assertSame(foo, loadBalancer.getTopHost(null));
+        Assertions.assertTrue(System.currentTimeMillis() - start >= 90);
+        closer.join();
+
+        // the wait is bounded
+        loadBalancer.getConcurrencyLimitConfig().setMaxWaitTime(100);
+        start = System.currentTimeMillis();
+        Assertions.assertThrows(SmartClientException.class, () -> loadBalancer.getTopHost(null));
+        Assertions.assertTrue(System.currentTimeMillis() - start < 1000);
+
+        // callers that must not block fail fast
+        loadBalancer.getConcurrencyLimitConfig().setMaxWaitTime(5000);
+        start = System.currentTimeMillis();
+        Assertions.assertThrows(SmartClientException.class, () -> loadBalancer.getTopHost(null, null, false));
+        Assertions.assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void testSaturatedRetryFallsBack() {
+        Host foo = new Host("foo"), bar = new Host("bar");
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(foo, bar)).withConcurrencyLimitConfig(
+                new ConcurrencyLimitConfig().withInitialLimit(1).withMinLimit(1).withMaxWaitTime(2000));
+        Assertions.assertSame(foo, loadBalancer.getTopHost(null));
+        Assertions.assertTrue(foo.isSaturated());
+
+        // bar was already tried and foo is saturated: no waiting or failing, so the caller can go back to bar
+        long start = System.currentTimeMillis();
+        Assertions.assertNull(loadBalancer.getTopHost(null, Collections.singletonList(bar)));
+        Assertions.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assertions.assertSame(bar, loadBalancer.getTopHost(null));
+
+        loadBalancer.getConcurrencyLimitConfig().setSaturationPolicy(ConcurrencyLimitConfig.SaturationPolicy.FAIL_FAST);
+        Assertions.assertNull(loadBalancer.getTopHost(null, Collections.singletonList(bar)));
+    }
+
+    @Test
+    public void testConcurrentPermits() throws Exception {
+        Host foo = new Host("foo");
+        foo.setConcurrencyLimiter(new ConcurrencyLimiter(new ConcurrencyLimitConfig().withInitialLimit(5)));
+
+        // a burst of requests never takes more slots than the limit
+        int threads = 32;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger permitted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (foo.tryAcquirePermit()) permitted.incrementAndGet();
+                });
+            }
+            start.countDown();
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(5, permitted.get());
+        Assertions.assertTrue(foo.isSaturated());
+
+        foo.releasePermit(System.nanoTime());
+        Assertions.assertFalse(foo.isSaturated());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ConsistentHashStrategyTest {
+    @Test
+    public void testKeyAffinity() {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar", "baz", "biz").getLoadBalancer()
+                .withSelectionStrategy(new ConsistentHashStrategy());
+
+        // the same key always goes to the same host
+        for (int k = 0; k < 100; k++) {
+            Map<String, Object> properties = keyProperties("bucket/object-" + k);
+            Host host = loadBalancer.getTopHost(properties);
+            for (int i = 0; i < 5; i++) {
+                Assertions.assertSame(host, loadBalancer.getTopHost(properties));
+            }
+        }
+
+        // requests without a key are balanced as usual
+        Assertions.assertNotNull(loadBalancer.getTopHost(null));
+    }
+
+    @Test
+    public void testMinimalReshuffle() {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar", "baz", "biz").getLoadBalancer()
+                .withSelectionStrategy(new ConsistentHashStrategy());
+
+        int keyCount = 1000;
+        List<String> before = new ArrayList<>();
+        for (int k = 0; k < keyCount; k++) {
+            before.add(loadBalancer.getTopHost(keyProperties("key-" + k)).getName());
+        }
+
+        // add a host; only keys that now belong to the new host should move
+        List<Host> updated = new ArrayList<>(loadBalancer.getAllHosts());
+        updated.add(new Host("boz"));
+        loadBalancer.updateHosts(updated);
+
+        int moved = 0;
+        for (int k = 0; k < keyCount; k++) {
+            String host = loadBalancer.getTopHost(keyProperties("key-" + k)).getName();
+            if (!host.equals(before.get(k))) {
+                Assertions.assertEquals("boz", host, "key moved between existing hosts");
+                moved++;
+            }
+        }
+        Assertions.assertTrue(moved > keyCount / 10 && moved < keyCount / 3, "unexpected number of moved keys: " + moved);
+
+        // remove a host; its keys are redistributed, all others stay put
+        updated.remove(0);
+        loadBalancer.updateHosts(updated);
+        for (int k = 0; k < keyCount; k++) {
+            String host = loadBalancer.getTopHost(keyProperties("key-" + k)).getName();
+            if (!before.get(k).equals("foo")) {
+                Assertions.assertTrue(host.equals(before.get(k)) || host.equals("boz"));
+            }
+            Assertions.assertNotEquals("foo", host);
+        }
+    }
+
+    @Test
+    public void testBoundedLoad() {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar", "baz", "biz").getLoadBalancer()
+                .withSelectionStrategy(new ConsistentHashStrategy());
+        Map<String, Object> properties = keyProperties("hot-object");
+        Host owner = loadBalancer.getTopHost(properties);
+
+        // the owner takes requests until it carries more than its share of the load
+        Assertions.assertSame(owner, loadBalancer.getTopHost(properties));
+        owner.connectionOpened();
+        Host overflow = loadBalancer.getTopHost(properties);
+        Assertions.assertNotSame(owner, overflow);
+
+        // once the rest of the cluster catches up, the key goes back to its owner
+        for (Host host : loadBalancer.getAllHosts()) {
+            if (host != owner) host.connectionOpened();
+        }
+        Assertions.assertSame(owner, loadBalancer.getTopHost(properties));
+
+        // an unhealthy owner is skipped
+        owner.setHealthy(false);
+        Assertions.assertNotSame(owner, loadBalancer.getTopHost(properties));
+        owner.setHealthy(true);
+        Assertions.assertSame(owner, loadBalancer.getTopHost(properties));
+    }
+
+    @Test
+    public void testHostSubset() {
+        ConsistentHashStrategy strategy = new ConsistentHashStrategy();
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar", "baz", "biz").getLoadBalancer()
+                .withSelectionStrategy(strategy);
+        List<Host> hosts = loadBalancer.getAllHosts();
+        Host[] subset = {hosts.get(0), hosts.get(1)};
+
+        // only hosts in the given list are chosen, and keys still stick to their host
+        for (int k = 0; k < 100; k++) {
+            HostSelectionContext context = new HostSelectionContext(loadBalancer, keyProperties("key-" + k));
+            Host host = strategy.selectHost(subset, context);
+            Assertions.assertTrue(host == subset[0] || host == subset[1], "host outside the subset: " + host);
+            Assertions.assertSame(host, strategy.selectHost(subset, context));
+        }
+    }
+
+    @Test
+    public void testRingIndependentOfOrder() {
+        List<Host> hosts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            hosts.add(new Host("host" + i));
+        }
+        List<Host> reversed = new ArrayList<>(hosts);
+        Collections.reverse(reversed);
+        ConsistentHashStrategy strategy = new ConsistentHashStrategy(), reversedStrategy = new ConsistentHashStrategy();
+        strategy.hostsChanged(hosts, Collections.emptyList());
+        reversedStrategy.hostsChanged(reversed, Collections.emptyList());
+
+        LoadBalancer loadBalancer = new LoadBalancer(hosts);
+        Host[] hostArray = hosts.toArray(new Host[0]);
+        for (int k = 0; k < 1000; k++) {
+            HostSelectionContext context = new HostSelectionContext(loadBalancer, keyProperties("key-" + k));
+            Assertions.assertSame(strategy.selectHost(hostArray, context), reversedStrategy.selectHost(hostArray, context));
+        }
+    }
+
+    @Test
+    public void testFallbackSeesHostChanges() {
+        List<String> changes = new ArrayList<>();
+        HostSelectionStrategy fallback = new HostSelectionStrategy() {
+            @Override
+            public Host selectHost(Host[] hosts, HostSelectionContext context) {
+                return hosts[0];
+            }
+
+            @Override
+            public void hostsChanged(Collection<Host> addedHosts, Collection<Host> removedHosts) {
+                for (Host host : addedHosts) changes.add("+" + host.getName());
+                for (Host host : removedHosts) changes.add("-" + host.getName());
+            }
+        };
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar").getLoadBalancer()
+                .withSelectionStrategy(new ConsistentHashStrategy());
+
+        // a new fallback starts with the current hosts, and is told about later changes
+        ((ConsistentHashStrategy) loadBalancer.getSelectionStrategy()).setFallbackStrategy(fallback);
+        Assertions.assertEquals(Arrays.asList("+foo", "+bar"), changes);
+        changes.clear();
+        loadBalancer.updateHosts(Arrays.asList(new Host("foo"), new Host("baz")));
+        Assertions.assertEquals(Arrays.asList("+baz", "-bar"), changes);
+    }
+
+    private static Map<String, Object> keyProperties(String key) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ConsistentHashStrategy.AFFINITY_KEY, key);
+        return Collections.unmodifiableMap(properties);
+    }
+}
@@ -15,6 +15,13 @@
  */
 package com.emc.rest.smart;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -133,4 +140,202 @@ public class HostTest {
 
         Assertions.assertTrue(host.isHealthy());
     }
+
+    @Test
+    public void testPeakEwmaResponseIndex() {
+        Host fast = new Host("fast").withResponseIndexMode(Host.ResponseIndexMode.PEAK_EWMA);
+        Host slow = new Host("slow").withResponseIndexMode(Host.ResponseIndexMode.PEAK_EWMA);
+
+        for (int i = 0; i < 10; i++) {
+            fast.connectionOpened();
+            fast.callComplete(false, 2000000); // 2ms
+            fast.connectionClosed(3000000);
+            slow.connectionOpened();
+            slow.callComplete(false, 200000000); // 200ms
+            slow.connectionClosed(300000000);
+        }
+
+        // a peak in latency should be reflected immediately
+        Assertions.assertTrue(slow.getResponseLatencyEwma() > 150000000);
+        Assertions.assertTrue(fast.getResponseLatencyEwma() < 3000000);
+        Assertions.assertTrue(slow.getCompletionLatencyEwma() > fast.getCompletionLatencyEwma());
+
+        // the slow host should rank worse, even with fewer open connections
+        for (int i = 0; i < 5; i++) {
+            fast.connectionOpened();
+        }
+        Assertions.assertTrue(slow.getResponseIndex() > fast.getResponseIndex());
+
+        // open-connections mode ignores latency
+        slow.setResponseIndexMode(Host.ResponseIndexMode.OPEN_CONNECTIONS);
+        fast.setResponseIndexMode(Host.ResponseIndexMode.OPEN_CONNECTIONS);
+        Assertions.assertEquals(0, slow.getResponseIndex());
+        Assertions.assertEquals(5, fast.getResponseIndex());
+    }
+
+    @Test
+    public void testUnsampledPeakEwma() {
+        Host foo = new Host("foo"), bar = new Host("bar"), baz = new Host("baz");
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(foo, bar, baz))
+                .withResponseIndexMode(Host.ResponseIndexMode.PEAK_EWMA);
+        foo.callComplete(false, 10000000); // 10ms
+        bar.callComplete(false, 30000000); // 30ms
+
+        // a host without samples is assumed to be as fast as the mean of the others (20ms), not free
+        long index = baz.getResponseIndex();
+        Assertions.assertTrue(index > 15000 && index <= 20000, "unexpected index: " + index);
+
+        // the mean is cached rather than recomputed for every index, so a slower sample of a known host is not
+        // seen right away (only a host's first sample refreshes it)
+        bar.callComplete(false, 100000000);
+        Assertions.assertEquals(index, baz.getResponseIndex(), 1000);
+        for (int i = 0; i < 3; i++) {
+            baz.connectionOpened();
+        }
+        Assertions.assertTrue(baz.getResponseIndex() > foo.getResponseIndex());
+        Assertions.assertSame(foo, loadBalancer.getTopHost(null));
+
+        // a default latency takes precedence over the other hosts
+        baz.setDefaultLatency(1);
+        Assertions.assertEquals(4000, baz.getResponseIndex());
+
+        // once the host responds, its own latency is used
+        baz.callComplete(false, 2000000);
+        Assertions.assertTrue(baz.getResponseIndex() <= 8000);
+    }
+
+    @Test
+    public void testSlowStart() throws Exception {
+        Host host = new Host("foo").withSlowStartWindow(500).withSlowStartMinWeight(0.25);
+
+        // no ramp until the host recovers
+        Assertions.assertEquals(1.0, host.getSlowStartWeight());
+        Assertions.assertEquals(0, host.getResponseIndex());
+
+        host.setHealthy(false);
+        host.setHealthy(true);
+
+        // an idle host looks busy at first...
+        double weight = host.getSlowStartWeight();
+        Assertions.assertTrue(weight >= 0.25 && weight < 0.5, "unexpected weight: " + weight);
+        Assertions.assertTrue(host.getResponseIndex() >= 1);
+
+        // ...and ramps up to full weight over the window
+        Thread.sleep(250);
+        Assertions.assertTrue(host.getSlowStartWeight() > weight);
+        Thread.sleep(300);
+        Assertions.assertEquals(1.0, host.getSlowStartWeight());
+        Assertions.assertEquals(0, host.getResponseIndex());
+
+        // staying healthy does not restart the window
+        host.setHealthy(true);
+        Assertions.assertEquals(1.0, host.getSlowStartWeight());
+    }
+
+    @Test
+    public void testConcurrentStats() throws Exception {
+        Host host = new Host("baz");
+        int threads = 16, callsPerThread = 10000;
+
+        ExecutorService service = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(service.submit(() -> {
+                for (int i = 0; i < callsPerThread; i++) {
+                    host.connectionOpened();
+                    host.callComplete(i % 10 == 0);
+                    host.connectionClosed();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        service.shutdown();
+
+        HostStatsSnapshot snapshot = host.getSnapshot();
+        Assertions.assertEquals("baz", snapshot.getName());
+        Assertions.assertEquals((long) threads * callsPerThread, snapshot.getTotalConnections());
+        Assertions.assertEquals((long) threads * callsPerThread / 10, snapshot.getTotalErrors());
+        Assertions.assertEquals(0, snapshot.getOpenConnections());
+        Assertions.assertSame(snapshot, snapshot.getSnapshot());
+    }
+
+    @Test
+    public void testWindowStats() {
+        Host host = new Host("foo");
+        for (int i = 0; i < 30; i++) {
+            host.connectionOpened();
+            host.callComplete(i % 10 == 0, 2000000);
+            host.bytesReceived(1000);
+            host.connectionClosed();
+        }
+
+        WindowStats stats = host.getWindowStats(WindowStats.Window.ONE_MINUTE);
+        Assertions.assertEquals(60000, stats.getWindowMillis());
+        Assertions.assertEquals(30, stats.getRequests());
+        Assertions.assertEquals(3, stats.getErrors());
+        Assertions.assertEquals(0.1, stats.getErrorRatio(), 0.0001);
+        Assertions.assertEquals(0.5, stats.getRequestRate(), 0.0001);
+        Assertions.assertEquals(500, stats.getThroughput(), 0.0001);
+        Assertions.assertEquals(2000000, stats.getMeanLatency());
+
+        // windows longer than a minute are kept in whole minutes...
+        Assertions.assertEquals(120000, host.getWindowStats(90000).getWindowMillis());
+        Assertions.assertEquals(30, host.getWindowStats(90000).getRequests());
+
+        // ...and capped at 15 minutes
+        Assertions.assertEquals(900000, host.getWindowStats(3600000).getWindowMillis());
+        Assertions.assertEquals(30, host.getWindowStats(3600000).getRequests());
+
+        // snapshots keep the standard windows
+        HostStatsSnapshot snapshot = host.getSnapshot();
+        Assertions.assertEquals(30, snapshot.getWindowStats(WindowStats.Window.FIFTEEN_MINUTES).getRequests());
+        Assertions.assertEquals(30000, snapshot.getWindowStats(WindowStats.Window.FIVE_MINUTES).getBytesReceived());
+
+        // load balancer aggregates across hosts
+        Host bar = new Host("bar");
+        bar.callComplete(false, 4000000);
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(host, bar));
+        WindowStats total = loadBalancer.getWindowStats(WindowStats.Window.ONE_MINUTE);
+        Assertions.assertEquals(31, total.getRequests());
+        Assertions.assertEquals((30 * 2000000L + 4000000) / 31, total.getMeanLatency());
+
+        host.resetStats();
+        Assertions.assertEquals(0, host.getWindowStats(60000).getRequests());
+    }
+
+    @Test
+    public void testByteAccounting() {
+        Host download = new Host("download").withResponseIndexMode(Host.ResponseIndexMode.IN_FLIGHT_BYTES);
+        Host head = new Host("head").withResponseIndexMode(Host.ResponseIndexMode.IN_FLIGHT_BYTES);
+
+        // one 5GB download and one HEAD request are not equal load
+        long size = 5L * 1024 * 1024 * 1024;
+        download.connectionOpened();
+        download.addInFlightBytes(size);
+        head.connectionOpened();
+        Assertions.assertEquals(1, head.getResponseIndex());
+        Assertions.assertEquals(1 + size / Host.IN_FLIGHT_BYTES_PER_CONNECTION, download.getResponseIndex());
+
+        // the download becomes lighter as it progresses
+        download.bytesReceived(size - 1024);
+        download.addInFlightBytes(-(size - 1024));
+        Assertions.assertEquals(1024, download.getInFlightBytes());
+        Assertions.assertEquals(1, download.getResponseIndex());
+
+        download.bytesSent(300);
+        HostStatsSnapshot snapshot = download.getSnapshot();
+        Assertions.assertEquals(size - 1024, snapshot.getTotalBytesReceived());
+        Assertions.assertEquals(300, snapshot.getTotalBytesSent());
+        Assertions.assertEquals(1024, snapshot.getInFlightBytes());
+        Assertions.assertEquals(300, snapshot.getWindowStats(WindowStats.Window.ONE_MINUTE).getBytesSent());
+        Assertions.assertEquals(5, snapshot.getWindowStats(WindowStats.Window.ONE_MINUTE).getSendThroughput(), 0.0001);
+
+        // in-flight bytes are live, so they survive a reset
+        download.resetStats();
+        Assertions.assertEquals(0, download.getTotalBytesReceived());
+        Assertions.assertEquals(0, download.getTotalBytesSent());
+        Assertions.assertEquals(1024, download.getInFlightBytes());
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBuckets() {
+        // every value must fall into a bucket whose upper bound is within the precision of the histogram
+        for (long micros = 0; micros < 1000000; micros += 7) {
+            int index = LatencyHistogram.bucketIndex(micros);
+            long upperBound = LatencyHistogram.bucketUpperBound(index);
+            Assertions.assertTrue(upperBound >= micros);
+            Assertions.assertTrue(upperBound - micros <= micros / LatencyHistogram.SUB_BUCKETS, "bucket too wide for " + micros);
+        }
+        Assertions.assertEquals(LatencyHistogram.BUCKET_COUNT - 1,
+                LatencyHistogram.bucketIndex(LatencyHistogram.MAX_TRACKABLE_MICROS));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assertions.assertEquals(0, histogram.getSnapshot().getPercentile(99));
+
+        // 1ms .. 1000ms
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        Assertions.assertEquals(1000, snapshot.getCount());
+        Assertions.assertEquals(1000000000L, snapshot.getMax());
+        assertWithin(500500000L, snapshot.getMean(), 0.01);
+        assertWithin(500000000L, snapshot.getPercentile(50), 0.07);
+        assertWithin(990000000L, snapshot.getPercentile(99), 0.07);
+        assertWithin(999000000L, snapshot.getPercentile(99.9), 0.07);
+        Assertions.assertEquals(snapshot.getMax(), snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void testMerge() {
+        LatencyHistogram fast = new LatencyHistogram(), slow = new LatencyHistogram();
+        for (int i = 0; i < 900; i++) {
+            fast.record(1000000L); // 1ms
+        }
+        for (int i = 0; i < 100; i++) {
+            slow.record(100000000L); // 100ms
+        }
+
+        LatencyHistogram.Snapshot merged = fast.getSnapshot().merge(slow.getSnapshot());
+        Assertions.assertEquals(1000, merged.getCount());
+        assertWithin(1000000L, merged.getPercentile(90), 0.07);
+        assertWithin(100000000L, merged.getPercentile(91), 0.07);
+        Assertions.assertEquals(100000000L, merged.getMax());
+
+        // merging must not change the source snapshots
+        Assertions.assertEquals(900, fast.getSnapshot().getCount());
+
+        fast.reset();
+        Assertions.assertEquals(0, fast.getSnapshot().getCount());
+    }
+
+    private static void assertWithin(long expected, long actual, double tolerance) {
+        Assertions.assertTrue(Math.abs(expected - actual) <= expected * tolerance,
+                "expected " + expected + " but was " + actual);
+    }
+}
@@ -15,19 +15,38 @@
  */
 package com.emc.rest.smart;
 
+import com.emc.rest.smart.jfr.HealthTransitionEvent;
+import com.emc.rest.smart.jfr.HostSelectionEvent;
+import com.emc.rest.smart.metrics.JmxMetricsRegistry;
 import com.emc.rest.util.RequestSimulator;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 public class LoadBalancerTest {
     private static final Logger l4j = LoggerFactory.getLogger(LoadBalancerTest.class);
@@ -88,6 +107,144 @@ public class LoadBalancerTest {
         Assertions.assertTrue(perCallOverhead < 100000, "call overhead too high"); // must be less than .1ms
     }
 
+    @Test
+    public void testTieBreakRotation() {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar", "baz", "biz").getLoadBalancer();
+
+        // with no open connections, consecutive selections should cycle through every host
+        Set<Host> selected = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            selected.add(loadBalancer.getTopHost(null));
+        }
+        Assertions.assertEquals(4, selected.size());
+    }
+
+    @Test
+    public void testPowerOfTwoChoices() {
+        String[] hostList = new String[]{"foo", "bar", "baz", "biz", "boz", "buz"};
+        final int callCount = 1200;
+
+        SmartConfig smartConfig = new SmartConfig(hostList);
+        LoadBalancer loadBalancer = smartConfig.getLoadBalancer().withSelectionStrategy(new PowerOfTwoChoicesStrategy());
+
+        // vetoed hosts must never be selected
+        Host vetoed = loadBalancer.getAllHosts().get(0);
+        loadBalancer.setVetoRules(Collections.singletonList((host, requestProperties) -> host == vetoed));
+
+        RequestSimulator simulator = new RequestSimulator(loadBalancer, callCount);
+        simulator.run();
+
+        Assertions.assertEquals(0, simulator.getErrors().size(), "errors during call simulation");
+
+        l4j.info(Arrays.toString(loadBalancer.getHostStats()));
+
+        for (HostStats stats : loadBalancer.getHostStats()) {
+            if (stats == vetoed) {
+                Assertions.assertEquals(0, stats.getTotalConnections(), "vetoed host should be ignored");
+            } else {
+                // random sampling is not exact, but no host should be starved or flooded
+                long expected = callCount / (hostList.length - 1);
+                Assertions.assertTrue(Math.abs(expected - stats.getTotalConnections()) < expected / 2, "unbalanced call count");
+            }
+        }
+    }
+
+    @Test
+    public void testVetoRuleRequiredProperties() {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar").getLoadBalancer();
+        Host foo = loadBalancer.getAllHosts().get(0);
+        final AtomicInteger evaluations = new AtomicInteger();
+        loadBalancer.setVetoRules(Collections.singletonList(new HostVetoRule() {
+            @Override
+            public boolean shouldVeto(Host host, Map<String, Object> requestProperties) {
+                evaluations.incrementAndGet();
+                return host.getName().equals(requestProperties.get("veto"));
+            }
+
+            @Override
+            public Set<String> getRequiredProperties() {
+                return Collections.singleton("veto");
+            }
+        }));
+
+        // rule does not apply without its property, so it is never evaluated
+        for (int i = 0; i < 10; i++) {
+            loadBalancer.getTopHost(null);
+            loadBalancer.getTopHost(Collections.singletonMap("other", "foo"));
+        }
+        Assertions.assertEquals(0, evaluations.get());
+
+        // rule applies when its property is present
+        Map<String, Object> props = Collections.singletonMap("veto", "foo");
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertNotSame(foo, loadBalancer.getTopHost(props));
+        }
+        Assertions.assertTrue(evaluations.get() > 0);
+    }
+
+    @Test
+    public void testVetoRulesAreCopied() {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar").getLoadBalancer();
+        Host foo = loadBalancer.getAllHosts().get(0);
+        List<HostVetoRule> rules = new ArrayList<>();
+        rules.add((host, requestProperties) -> host == foo);
+        loadBalancer.setVetoRules(rules);
+
+        // later changes to the list have no effect, and the rules in effect cannot be changed through the getter
+        rules.clear();
+        Assertions.assertEquals(1, loadBalancer.getVetoRules().size());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> loadBalancer.getVetoRules().clear());
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertNotSame(foo, loadBalancer.getTopHost(null));
+        }
+    }
+
+    @Test
+    public void testSlowStartAddedHost() {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar").getLoadBalancer().withSlowStartWindow(60000)
+                .withSlowStartMinWeight(0.25);
+        for (Host host : loadBalancer.getAllHosts()) {
+            for (int i = 0; i < 4; i++) {
+                host.connectionOpened();
+            }
+        }
+
+        // without slow start, the idle host would get the next 4 requests
+        Host baz = new Host("baz");
+        List<Host> updatedHosts = loadBalancer.getAllHosts();
+        updatedHosts.add(baz);
+        loadBalancer.updateHosts(updatedHosts);
+        Assertions.assertEquals(60000, baz.getSlowStartWindow());
+
+        int bazCount = 0;
+        for (int i = 0; i < 8; i++) {
+            Host host = loadBalancer.getTopHost(null);
+            host.connectionOpened();
+            if (host == baz) bazCount++;
+        }
+        Assertions.assertTrue(bazCount > 0 && bazCount < 4, "baz selected " + bazCount + " times");
+
+        // hosts that were already known are not ramped
+        for (Host host : loadBalancer.getAllHosts()) {
+            if (host != baz) Assertions.assertEquals(1.0, host.getSlowStartWeight());
+        }
+    }
+
+    @Test
+    public void testUpdateHostsPreservesState() {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar").getLoadBalancer();
+        Host foo = loadBalancer.getAllHosts().get(0);
+        foo.connectionOpened();
+
+        loadBalancer.updateHosts(Arrays.asList(new Host("foo"), new Host("baz")));
+
+        List<Host> hosts = loadBalancer.getAllHosts();
+        Assertions.assertEquals(2, hosts.size());
+        Assertions.assertSame(foo, hosts.get(0), "existing host instance should be kept");
+        Assertions.assertEquals(1, hosts.get(0).getOpenConnections());
+        Assertions.assertEquals("baz", hosts.get(1).getName());
+    }
+
     static class LBOverheadTask implements Callable<Long> {
         LoadBalancer loadBalancer;
 
@@ -105,4 +262,122 @@ public class LoadBalancerTest {
             return System.nanoTime() - start;
         }
     }
+
+    @Test
+    public void testJmxMetrics() throws Exception {
+        MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+        JmxMetricsRegistry registry = new JmxMetricsRegistry("test", mBeanServer);
+        SmartConfig smartConfig = new SmartConfig("foo", "bar").withRateLimiter(new RateLimiter(1000, 10))
+                .withHostRateLimit(1000, 10).withMetricsRegistry(registry);
+        LoadBalancer loadBalancer = smartConfig.getLoadBalancer();
+
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(smartConfig.getRateLimiter().tryAcquire());
+            Host host = loadBalancer.getTopHost(null);
+            Assertions.assertTrue(host.getRateLimiter().tryAcquire());
+            host.connectionOpened();
+            host.callComplete(false, 5000000);
+        }
+        Host bar = loadBalancer.getAllHosts().get(1);
+        bar.callComplete(true);
+        bar.callComplete(true);
+        loadBalancer.countRetry();
+        loadBalancer.countHedge();
+        loadBalancer.countHedge();
+
+        ObjectName lbName = registry.getObjectName("loadBalancer");
+        ObjectName fooName = registry.getObjectName("host", "host", "foo");
+        Assertions.assertEquals(new ObjectName("com.emc.rest.smart:type=Host,client=test,host=foo"), fooName);
+        Assertions.assertEquals(2.0, mBeanServer.getAttribute(lbName, "hosts"));
+        Assertions.assertEquals(4.0, mBeanServer.getAttribute(lbName, "inFlight"));
+        Assertions.assertEquals(2L, mBeanServer.getAttribute(fooName, "selections"));
+        Assertions.assertEquals(2L, mBeanServer.getAttribute(fooName, "calls"));
+        Assertions.assertEquals(0L, mBeanServer.getAttribute(fooName, "errors"));
+        Assertions.assertEquals(2L, mBeanServer.getAttribute(fooName, "latencyCount"));
+        Assertions.assertEquals(5.0, (Double) mBeanServer.getAttribute(fooName, "latencyMeanMillis"), 0.1);
+        Assertions.assertEquals(2.0, mBeanServer.getAttribute(fooName, "inFlight"));
+        Assertions.assertEquals(2L, mBeanServer.getAttribute(fooName, "rateLimitWaitCount"));
+        Assertions.assertEquals(4L, mBeanServer.getAttribute(lbName, "rateLimitWaitCount"));
+        Assertions.assertEquals(1L, mBeanServer.getAttribute(lbName, "retries"));
+        Assertions.assertEquals(2L, mBeanServer.getAttribute(lbName, "hedges"));
+        Assertions.assertEquals(2L,
+                mBeanServer.getAttribute(registry.getObjectName("host", "host", "bar"), "errors"));
+        Assertions.assertTrue(mBeanServer.getMBeanInfo(fooName).getAttributes().length > 10);
+
+        // removed hosts are unregistered, added hosts are registered
+        loadBalancer.updateHosts(Arrays.asList(new Host("foo"), new Host("baz")));
+        Assertions.assertFalse(mBeanServer.isRegistered(registry.getObjectName("host", "host", "bar")));
+        Assertions.assertTrue(mBeanServer.isRegistered(registry.getObjectName("host", "host", "baz")));
+        Assertions.assertEquals(2L, mBeanServer.getAttribute(fooName, "selections"));
+
+        // removing the registry unregisters everything
+        loadBalancer.setMetricsRegistry(null);
+        Assertions.assertTrue(mBeanServer.queryNames(new ObjectName(JmxMetricsRegistry.DOMAIN + ":*"), null).isEmpty());
+        loadBalancer.getTopHost(null).callComplete(false, 1000);
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar").getLoadBalancer();
+        Path file = Files.createTempFile("smart-client", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(HostSelectionEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(HealthTransitionEvent.class);
+            recording.start();
+
+            Host host = loadBalancer.getTopHost(null);
+            host.setHealthy(false);
+            host.setHealthy(false); // not a transition
+            loadBalancer.getTopHost(null, Collections.singleton(host));
+
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<RecordedEvent> selections = new ArrayList<>(), transitions = new ArrayList<>();
+            for (RecordedEvent event : events) {
+                if (event.getEventType().getName().equals("com.emc.rest.smart.HostSelection")) selections.add(event);
+                if (event.getEventType().getName().equals("com.emc.rest.smart.HealthTransition")) transitions.add(event);
+            }
+            Assertions.assertEquals(2, selections.size());
+            Assertions.assertEquals(host.getName(), selections.get(0).getString("host"));
+            Assertions.assertEquals(2, selections.get(1).getInt("candidates"));
+            Assertions.assertEquals(1, selections.get(1).getInt("excluded"));
+            Assertions.assertEquals(1, transitions.size());
+            Assertions.assertFalse(transitions.get(0).getBoolean("healthy"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testHostListener() {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar").getLoadBalancer();
+        Host foo = loadBalancer.getAllHosts().get(0), bar = loadBalancer.getAllHosts().get(1);
+        List<Runnable> tasks = new ArrayList<>();
+        List<String> events = new ArrayList<>();
+        loadBalancer.withHostEventExecutor(tasks::add).addHostListener(event -> events.add(event.toString()));
+
+        // a flapping host only reports its latest state, and delivery is never done on the calling thread
+        foo.setHealthy(false);
+        foo.setHealthy(true);
+        foo.setHealthy(false);
+        loadBalancer.updateHosts(Arrays.asList(new Host("foo"), new Host("baz")));
+        loadBalancer.setCircuitBreakerConfig(new CircuitBreakerConfig().withFailureThreshold(1));
+        foo.callComplete(true);
+        Assertions.assertEquals(0, events.size());
+        Assertions.assertEquals(1, tasks.size());
+
+        tasks.remove(0).run();
+        Assertions.assertEquals(Arrays.asList("UNHEALTHY foo", "REMOVED bar", "ADDED baz", "CIRCUIT_STATE_CHANGED(OPEN) foo"),
+                events);
+
+        // a removed host no longer reports to the load balancer
+        events.clear();
+        bar.setHealthy(false);
+        foo.setHealthy(true);
+        Assertions.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        Assertions.assertEquals(Collections.singletonList("HEALTHY foo"), events);
+    }
 }
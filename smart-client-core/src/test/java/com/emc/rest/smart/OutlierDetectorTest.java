@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class OutlierDetectorTest {
+    @Test
+    public void testErrorRateOutlier() throws Exception {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar", "baz", "biz").getLoadBalancer();
+        List<Host> hosts = loadBalancer.getAllHosts();
+        Host flaky = hosts.get(0);
+        OutlierDetector detector = new OutlierDetector().withBaseEjectionTime(200);
+        List<String> events = new ArrayList<>();
+        loadBalancer.withHostEventExecutor(Runnable::run).addHostListener(event -> events.add(event.toString()));
+
+        // the flaky host fails 40% of calls, so its consecutive error count never builds up
+        for (int i = 0; i < 100; i++) {
+            for (Host host : hosts) {
+                host.callComplete(host == flaky && i % 5 < 2, 1000000);
+            }
+        }
+        Assertions.assertTrue(flaky.isHealthy());
+
+        detector.detectOutliers(loadBalancer);
+        Assertions.assertTrue(flaky.isEjected());
+        Assertions.assertFalse(flaky.isHealthy());
+        Assertions.assertEquals(Collections.singletonList("EJECTED foo"), events);
+        for (Host host : hosts) {
+            if (host != flaky) Assertions.assertFalse(host.isEjected());
+        }
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertNotSame(flaky, loadBalancer.getTopHost(null));
+        }
+
+        // ejection is bounded in time
+        Thread.sleep(250);
+        Assertions.assertFalse(flaky.isEjected());
+        Assertions.assertTrue(flaky.isHealthy());
+
+        // (the window still contains the errors) a second ejection lasts longer
+        detector.detectOutliers(loadBalancer);
+        Assertions.assertTrue(flaky.isEjected());
+        Assertions.assertEquals(Arrays.asList("EJECTED foo", "RESTORED foo", "EJECTED foo"), events);
+        Thread.sleep(250);
+        Assertions.assertTrue(flaky.isEjected());
+    }
+
+    @Test
+    public void testLatencyOutlier() {
+        LoadBalancer loadBalancer = new SmartConfig("foo", "bar", "baz").getLoadBalancer();
+        List<Host> hosts = loadBalancer.getAllHosts();
+        Host slow = hosts.get(1);
+
+        for (int i = 0; i < 50; i++) {
+            for (Host host : hosts) {
+                host.callComplete(false, host == slow ? 500000000 : 20000000);
+            }
+        }
+
+        new OutlierDetector().withLatencyFactor(0).detectOutliers(loadBalancer);
+        Assertions.assertFalse(slow.isEjected());
+
+        new OutlierDetector().detectOutliers(loadBalancer);
+        Assertions.assertTrue(slow.isEjected());
+    }
+
+    @Test
+    public void testMaxEjectionPercent() {
+        List<Host> hostList = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            hostList.add(new Host("host" + i));
+        }
+        LoadBalancer loadBalancer = new LoadBalancer(hostList);
+
+        // 3 of 10 hosts are bad
+        for (int i = 0; i < 100; i++) {
+            for (int h = 0; h < hostList.size(); h++) {
+                hostList.get(h).callComplete(h < 3 && i % 2 == 0, 1000000);
+            }
+        }
+
+        OutlierDetector detector = new OutlierDetector().withMaxEjectionPercent(20).withStdevFactor(1);
+        detector.detectOutliers(loadBalancer);
+        detector.detectOutliers(loadBalancer);
+        int ejected = 0;
+        for (Host host : hostList) {
+            if (host.isEjected()) ejected++;
+        }
+        Assertions.assertEquals(2, ejected);
+
+        // too little traffic means no detection
+        LoadBalancer idle = new SmartConfig("foo", "bar", "baz").getLoadBalancer();
+        Host foo = idle.getAllHosts().get(0);
+        for (int i = 0; i < 5; i++) {
+            foo.callComplete(true);
+        }
+        new OutlierDetector().detectOutliers(idle);
+        Assertions.assertFalse(foo.isEjected());
+    }
+}
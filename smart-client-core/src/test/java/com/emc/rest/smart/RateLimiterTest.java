@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class RateLimiterTest {
+    @Test
+    public void testBurstAndRate() {
+        RateLimiter rateLimiter = new RateLimiter(10, 5);
+
+        // the burst is available at once
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertTrue(rateLimiter.tryAcquire());
+        }
+        Assertions.assertFalse(rateLimiter.isAvailable());
+        Assertions.assertFalse(rateLimiter.tryAcquire());
+        Assertions.assertEquals(5, rateLimiter.getAcquiredCount());
+        Assertions.assertEquals(1, rateLimiter.getRejectedCount());
+
+        // then one permit every 100ms
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertTrue(rateLimiter.tryAcquire(500));
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        Assertions.assertTrue(elapsedMs >= 250 && elapsedMs < 1000, "elapsed: " + elapsedMs);
+
+        // waits are recorded
+        LatencyHistogram.Snapshot waitTimes = rateLimiter.getWaitTimeHistogram();
+        Assertions.assertEquals(8, waitTimes.getCount());
+        Assertions.assertTrue(waitTimes.getMax() >= 80000000);
+
+        // a permit that is further away than the timeout is not reserved
+        Assertions.assertFalse(rateLimiter.tryAcquire(10));
+        Assertions.assertTrue(rateLimiter.tryAcquire(200));
+
+        // a reservation leaves the waiting to the caller
+        long waitNanos = rateLimiter.reserve(500);
+        Assertions.assertTrue(waitNanos > 50000000 && waitNanos <= 100000000, "wait: " + waitNanos);
+        Assertions.assertEquals(-1, rateLimiter.reserve(10));
+    }
+
+    @Test
+    public void testHostRateLimit() {
+        SmartConfig smartConfig = new SmartConfig("foo", "bar").withHostRateLimit(1, 2);
+        LoadBalancer loadBalancer = smartConfig.getLoadBalancer();
+        List<Host> hosts = loadBalancer.getAllHosts();
+        Host foo = hosts.get(0), bar = hosts.get(1);
+        Assertions.assertNotNull(foo.getRateLimiter());
+
+        // hosts without permits are avoided
+        Assertions.assertTrue(foo.getRateLimiter().tryAcquire());
+        Assertions.assertTrue(foo.getRateLimiter().tryAcquire());
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertSame(bar, loadBalancer.getTopHost(null));
+        }
+
+        // limits can be changed or removed at runtime
+        loadBalancer.setHostRateLimit(100, 10);
+        Assertions.assertEquals(100, foo.getRateLimiter().getRate(), 0.01);
+        loadBalancer.setHostRateLimit(0, 0);
+        Assertions.assertNull(foo.getRateLimiter());
+    }
+}
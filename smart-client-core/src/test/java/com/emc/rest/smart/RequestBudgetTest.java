@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RequestBudgetTest {
+    @Test
+    public void testRatio() {
+        RequestBudget budget = new RequestBudget(0.5, 2);
+        Assertions.assertFalse(budget.tryWithdraw());
+
+        budget.deposit();
+        Assertions.assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        Assertions.assertTrue(budget.tryWithdraw());
+        Assertions.assertFalse(budget.tryWithdraw());
+
+        // balance is capped
+        for (int i = 0; i < 10; i++) budget.deposit();
+        Assertions.assertEquals(2, budget.getBalance(), 0.001);
+    }
+
+    @Test
+    public void testMinRate() {
+        RequestBudget budget = new RequestBudget(0.1).withMinRate(2);
+        Assertions.assertEquals(2, budget.getMinRate(), 0.001);
+
+        // the minimum rate allows a burst without any balance
+        Assertions.assertTrue(budget.tryWithdraw());
+        Assertions.assertTrue(budget.tryWithdraw());
+        Assertions.assertFalse(budget.tryWithdraw());
+
+        budget.setMinRate(0);
+        Assertions.assertEquals(0, budget.getMinRate(), 0.001);
+        Assertions.assertFalse(budget.tryWithdraw());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RetryPolicyTest {
+    @Test
+    public void testDefaults() {
+        RetryPolicy policy = new RetryPolicy();
+        Assertions.assertTrue(policy.isIdempotent("get"));
+        Assertions.assertTrue(policy.isIdempotent("PUT"));
+        Assertions.assertFalse(policy.isIdempotent("POST"));
+        Assertions.assertTrue(policy.isRetryableStatus(503));
+        Assertions.assertFalse(policy.isRetryableStatus(500));
+        Assertions.assertTrue(policy.isRetryableException(
+                new RuntimeException(new SocketTimeoutException("Read timed out"))));
+        Assertions.assertFalse(policy.isRetryableException(new IOException("stream closed")));
+    }
+
+    @Test
+    public void testBackoff() {
+        RetryPolicy policy = new RetryPolicy().withInitialBackoff(100).withMaxBackoff(300);
+        for (int i = 0; i < 100; i++) {
+            long backoff = policy.getBackoff(0);
+            Assertions.assertTrue(backoff >= 0 && backoff <= 100, "backoff " + backoff);
+            backoff = policy.getBackoff(1);
+            Assertions.assertTrue(backoff >= 0 && backoff <= 200, "backoff " + backoff);
+            backoff = policy.getBackoff(40);
+            Assertions.assertTrue(backoff >= 0 && backoff <= 300, "backoff " + backoff);
+        }
+        Assertions.assertEquals(0, new RetryPolicy().withInitialBackoff(0).getBackoff(3));
+    }
+
+    @Test
+    public void testRetryAfter() {
+        long now = System.currentTimeMillis();
+        Assertions.assertEquals(0, RetryPolicy.parseRetryAfter(null, now));
+        Assertions.assertEquals(0, RetryPolicy.parseRetryAfter("garbage", now));
+        Assertions.assertEquals(3000, RetryPolicy.parseRetryAfter(" 3 ", now));
+
+        long second = now / 1000 * 1000;
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(second + 5000).atOffset(ZoneOffset.UTC));
+        Assertions.assertEquals(5000, RetryPolicy.parseRetryAfter(date, second));
+        Assertions.assertEquals(0, RetryPolicy.parseRetryAfter(date, second + 10000));
+
+        RetryPolicy policy = new RetryPolicy().withInitialBackoff(0).withMaxRetryAfter(2000);
+        Assertions.assertEquals(1000, policy.getRetryDelay(0, "1"));
+        Assertions.assertEquals(-1, policy.getRetryDelay(0, "3"));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RollingWindowTest {
+    @Test
+    public void testSlidingSums() {
+        RollingWindow window = new RollingWindow(10, 1000, 2);
+        long start = 1000000;
+
+        // one call per 100ms for 20s
+        for (long time = start; time < start + 20000; time += 100) {
+            window.add(0, 1, time);
+            window.add(1, 5, time);
+        }
+        long now = start + 19999;
+
+        // only the last 10 buckets are kept
+        Assertions.assertEquals(100, window.sum(0, 10000, now));
+        Assertions.assertEquals(500, window.sum(1, 10000, now));
+        Assertions.assertEquals(100, window.sum(0, 60000, now));
+        Assertions.assertEquals(30, window.sum(0, 3000, now));
+        Assertions.assertEquals(10, window.sum(0, 1, now));
+
+        // buckets age out
+        Assertions.assertEquals(50, window.sum(0, 10000, now + 5000));
+        Assertions.assertEquals(0, window.sum(0, 10000, now + 10001));
+
+        // stale buckets are reused
+        window.add(0, 7, now + 30000);
+        Assertions.assertEquals(7, window.sum(0, 10000, now + 30000));
+
+        window.reset();
+        Assertions.assertEquals(0, window.sum(0, 10000, now + 30000));
+    }
+
+    @Test
+    public void testSumAll() {
+        RollingWindow window = new RollingWindow(10, 1000, 3);
+        long start = 1000000;
+        for (long time = start; time < start + 5000; time += 500) {
+            window.add(0, 1, time);
+            window.add(2, 3, time);
+        }
+        long now = start + 4999;
+
+        Assertions.assertArrayEquals(new long[]{10, 0, 30}, window.sumAll(10000, now));
+        Assertions.assertArrayEquals(new long[]{4, 0, 12}, window.sumAll(2000, now));
+        for (int metric = 0; metric < 3; metric++) {
+            Assertions.assertEquals(window.sum(metric, 3000, now), window.sumAll(3000, now)[metric]);
+        }
+    }
+}
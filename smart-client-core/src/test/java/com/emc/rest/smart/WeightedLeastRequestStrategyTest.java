@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class WeightedLeastRequestStrategyTest {
+    @Test
+    public void testWeightedLoad() {
+        Host small = new Host("small").withWeight(100), large = new Host("large").withWeight(300);
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(small, large))
+                .withSelectionStrategy(new WeightedLeastRequestStrategy());
+
+        // open connections should follow the weights
+        for (int i = 0; i < 400; i++) {
+            loadBalancer.getTopHost(null).connectionOpened();
+        }
+        Assertions.assertEquals(100, small.getOpenConnections(), 1);
+        Assertions.assertEquals(300, large.getOpenConnections(), 1);
+    }
+
+    @Test
+    public void testSmoothRoundRobinTies() {
+        Host foo = new Host("foo").withWeight(100), bar = new Host("bar").withWeight(200);
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(foo, bar))
+                .withSelectionStrategy(new WeightedLeastRequestStrategy());
+
+        // foo has 1 open connection, bar has 3, so both are always tied at a relative load of 0.02 per weight unit
+        foo.connectionOpened();
+        for (int i = 0; i < 3; i++) {
+            bar.connectionOpened();
+        }
+
+        // ties are split 1:2, interleaved (never the same host 3 times in a row)
+        int fooCount = 0, streak = 0;
+        Host last = null;
+        for (int i = 0; i < 300; i++) {
+            Host host = loadBalancer.getTopHost(null);
+            if (host == foo) fooCount++;
+            streak = host == last ? streak + 1 : 1;
+            last = host;
+            Assertions.assertTrue(streak < 3);
+        }
+        Assertions.assertEquals(100, fooCount);
+    }
+
+    @Test
+    public void testConcurrentLoadChanges() throws Exception {
+        Host foo = new Host("foo"), bar = new Host("bar").withWeight(200);
+        Host[] hosts = {foo, bar};
+        WeightedLeastRequestStrategy strategy = new WeightedLeastRequestStrategy();
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(hosts)).withSelectionStrategy(strategy);
+
+        // the load of both hosts keeps changing while hosts are selected
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread churner = new Thread(() -> {
+            while (running.get()) {
+                for (Host host : hosts) {
+                    host.connectionOpened();
+                    host.connectionClosed();
+                }
+            }
+        });
+        churner.start();
+        try {
+            for (int i = 0; i < 100000; i++) {
+                Assertions.assertNotNull(strategy.selectHost(hosts, new HostSelectionContext(loadBalancer, null)));
+            }
+        } finally {
+            running.set(false);
+            churner.join();
+        }
+    }
+
+    @Test
+    public void testWeightUpdate() {
+        Host foo = new Host("foo"), bar = new Host("bar").withWeight(50);
+        LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(foo, bar));
+        foo.connectionOpened();
+        foo.callComplete(false);
+
+        // the provider's weight is applied to the known host, which keeps its stats
+        List<Host> updatedHosts = Arrays.asList(new Host("foo").withWeight(400), new Host("bar"));
+        loadBalancer.updateHosts(updatedHosts);
+        Assertions.assertSame(foo, loadBalancer.getAllHosts().get(0));
+        Assertions.assertEquals(400, foo.getWeight());
+        Assertions.assertEquals(1, foo.getTotalConnections());
+        Assertions.assertEquals(1, foo.getOpenConnections());
+
+        // a host without an explicit weight leaves the weight alone
+        Assertions.assertEquals(50, bar.getWeight());
+    }
+}
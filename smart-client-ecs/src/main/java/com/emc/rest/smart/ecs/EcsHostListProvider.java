@@ -22,9 +22,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.SimpleTimeZone;
 
 import javax.crypto.Mac;
@@ -178,39 +179,33 @@ public class EcsHostListProvider implements HostListProvider {
     protected void updateVdcNodes(Vdc vdc, List<Host> nodeList) {
         if (nodeList == null || nodeList.isEmpty()) throw new RuntimeException("node list is empty");
 
-        // make sure the hosts are associated with the VDC first
-        List<VdcHost> vdcNodeList = new ArrayList<>();
+        // names of the nodes that should be in the VDC
+        Set<String> newNodeNames = new LinkedHashSet<>();
         for (Host host : nodeList) {
-            vdcNodeList.add(new VdcHost(vdc, host.getName()));
+            newNodeNames.add(host.getName());
         }
 
         // we need to maintain references to existing hosts to preserve health status, which is managed by the load
         // balancer
-        for (Iterator<VdcHost> vdcI = vdc.iterator(); vdcI.hasNext(); ) {
-            VdcHost vdcHost = vdcI.next();
-            boolean hostPresent = false;
-            for (Iterator<VdcHost> nodeI = vdcNodeList.iterator(); nodeI.hasNext(); ) {
-                VdcHost node = nodeI.next();
-
-                // already aware of this node; remove from new node list
-                if (vdcHost.equals(node)) {
-                    hostPresent = true;
-                    nodeI.remove();
-                }
-            }
-
-            // host is not in the updated host list, so remove it from the VDC
-            if (!hostPresent) {
+        List<VdcHost> vdcHosts = new ArrayList<>(newNodeNames.size());
+        for (VdcHost vdcHost : vdc) {
+            if (newNodeNames.remove(vdcHost.getName())) {
+                // already aware of this node
+                vdcHosts.add(vdcHost);
+            } else {
+                // host is not in the updated host list, so remove it from the VDC
                 log.info("host " + vdcHost.getName() + " was not in the updated node list; removing from VDC " + vdc.getName());
-                vdcI.remove();
             }
         }
 
         // add any remaining new hosts we weren't previously aware of
-        for (VdcHost node : vdcNodeList) {
-            log.info("adding host " + node.getName() + " to VDC " + vdc.getName());
-            vdc.getHosts().add(new VdcHost(vdc, node.getName()));
+        for (String nodeName : newNodeNames) {
+            log.info("adding host " + nodeName + " to VDC " + vdc.getName());
+            vdcHosts.add(new VdcHost(vdc, nodeName));
         }
+
+        // publish the new host list in one step
+        vdc.setHosts(vdcHosts);
     }
 
     public javax.ws.rs.client.Client getClient() {
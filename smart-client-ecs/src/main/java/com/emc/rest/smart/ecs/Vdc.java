@@ -23,7 +23,7 @@ import java.util.List;
 
 public class Vdc implements Iterable<VdcHost> {
     private String name;
-    private final List<VdcHost> hosts;
+    private volatile List<VdcHost> hosts;
 
     public Vdc(String... hostNames) {
         this.name = hostNames[0];
@@ -48,7 +48,7 @@ public class Vdc implements Iterable<VdcHost> {
     }
 
     public boolean isHealthy() {
-        for (Host host : hosts) {
+        for (Host host : getHosts()) {
             if (!host.isHealthy()) return false;
         }
         return true;
@@ -102,6 +102,13 @@ public class Vdc implements Iterable<VdcHost> {
         return hosts;
     }
 
+    /**
+     * Replaces the host list of this VDC in one step, so concurrent readers see either the old or the new list.
+     */
+    void setHosts(List<VdcHost> hosts) {
+        this.hosts = hosts;
+    }
+
     public Vdc withName(String name) {
         setName(name);
         return this;
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.ecs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.emc.rest.smart.Host;
+import com.emc.rest.smart.HostSelectionContext;
+import com.emc.rest.smart.HostSelectionStrategy;
+import com.emc.rest.smart.LeastConnectionsStrategy;
+
+/**
+ * Keeps traffic in the preferred (usually local) VDC and only spills over to other VDCs when needed.
+ * <p>
+ * VDCs are tried in the order they are configured. Within a VDC, the host is chosen by the delegate strategy
+ * (by default, {@link LeastConnectionsStrategy}); if the chosen host is unhealthy or its response index is at or above
+ * the load threshold, the next VDC is tried. Hosts that do not belong to any configured VDC are tried last. If no VDC
+ * has a usable host, the delegate strategy picks from all hosts.
+ */
+public class VdcAffinityStrategy implements HostSelectionStrategy {
+    private final List<Vdc> vdcs;
+    private volatile HostSelectionStrategy delegate = new LeastConnectionsStrategy();
+    private final Set<Host> knownHosts = new LinkedHashSet<>(); // guarded by this
+    private long loadThreshold = Long.MAX_VALUE;
+
+    // host groups for the last seen host list (the list only changes when hosts are updated)
+    private volatile Partition partition;
+
+    /**
+     * @param vdcs VDCs in order of preference (the first is the preferred VDC)
+     */
+    public VdcAffinityStrategy(Vdc... vdcs) {
+        this(Arrays.asList(vdcs));
+    }
+
+    /**
+     * @param vdcs VDCs in order of preference (the first is the preferred VDC)
+     */
+    public VdcAffinityStrategy(List<Vdc> vdcs) {
+        if (vdcs == null || vdcs.isEmpty()) throw new IllegalArgumentException("at least one VDC is required");
+        this.vdcs = new ArrayList<>(vdcs);
+    }
+
+    @Override
+    public Host selectHost(Host[] hosts, HostSelectionContext context) {
+        for (Host[] group : getPartition(hosts).groups) {
+            if (group.length == 0) continue;
+            Host host = delegate.selectHost(group, context);
+            if (host != null && host.isHealthy() && host.getResponseIndex() < loadThreshold) return host;
+        }
+
+        // every VDC is unhealthy or overloaded
+        return delegate.selectHost(hosts, context);
+    }
+
+    @Override
+    public synchronized void hostsChanged(Collection<Host> addedHosts, Collection<Host> removedHosts) {
+        knownHosts.removeAll(removedHosts);
+        knownHosts.addAll(addedHosts);
+        delegate.hostsChanged(addedHosts, removedHosts);
+    }
+
+    private Partition getPartition(Host[] hosts) {
+        Partition partition = this.partition;
+        if (partition == null || partition.hosts != hosts) {
+            partition = new Partition(hosts, vdcs);
+            this.partition = partition;
+        }
+        return partition;
+    }
+
+    public List<Vdc> getVdcs() {
+        return vdcs;
+    }
+
+    public HostSelectionStrategy getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Sets the strategy used to pick a host within a VDC. Defaults to {@link LeastConnectionsStrategy}. The delegate
+     * is told about the current hosts and all later host changes.
+     */
+    public synchronized void setDelegate(HostSelectionStrategy delegate) {
+        if (delegate == null) throw new NullPointerException("delegate");
+        delegate.hostsChanged(new ArrayList<>(knownHosts), Collections.emptyList());
+        this.delegate = delegate;
+    }
+
+    public long getLoadThreshold() {
+        return loadThreshold;
+    }
+
+    /**
+     * Sets the response index at which a host is considered overloaded, causing traffic to spill over to the next VDC.
+     * With the default response index mode, this is the number of open connections. Defaults to no limit (only
+     * unhealthy VDCs are skipped).
+     */
+    public void setLoadThreshold(long loadThreshold) {
+        this.loadThreshold = loadThreshold;
+    }
+
+    public VdcAffinityStrategy withDelegate(HostSelectionStrategy delegate) {
+        setDelegate(delegate);
+        return this;
+    }
+
+    public VdcAffinityStrategy withLoadThreshold(long loadThreshold) {
+        setLoadThreshold(loadThreshold);
+        return this;
+    }
+
+    private static class Partition {
+        final Host[] hosts;
+        final Host[][] groups;
+
+        Partition(Host[] hosts, List<Vdc> vdcs) {
+            this.hosts = hosts;
+
+            List<List<Host>> groupLists = new ArrayList<>();
+            for (int i = 0; i <= vdcs.size(); i++) {
+                groupLists.add(new ArrayList<>());
+            }
+            for (Host host : hosts) {
+                int index = host instanceof VdcHost ? vdcs.indexOf(((VdcHost) host).getVdc()) : -1;
+                if (index < 0) index = vdcs.size(); // not in a configured VDC; try last
+                groupLists.get(index).add(host);
+            }
+
+            groups = new Host[groupLists.size()][];
+            for (int i = 0; i < groups.length; i++) {
+                groups[i] = groupLists.get(i).toArray(new Host[0]);
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package com.emc.rest.smart.ecs;
 
 import com.emc.rest.smart.Host;
+import com.emc.rest.smart.HostEvent;
 
 public class VdcHost extends Host {
     private final Vdc vdc;
@@ -64,6 +65,10 @@ public class VdcHost extends Host {
     }
 
     public void setMaintenanceMode(boolean maintenanceMode) {
+        boolean wasMaintenanceMode = this.maintenanceMode;
         this.maintenanceMode = maintenanceMode;
+        if (wasMaintenanceMode == maintenanceMode) return;
+        if (!maintenanceMode) startSlowStart();
+        postEvent(new HostEvent(maintenanceMode ? HostEvent.Type.MAINTENANCE_ON : HostEvent.Type.MAINTENANCE_OFF, this));
     }
 }
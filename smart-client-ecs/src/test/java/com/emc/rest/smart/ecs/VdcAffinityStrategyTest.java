@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.ecs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.emc.rest.smart.ConsistentHashStrategy;
+import com.emc.rest.smart.Host;
+import com.emc.rest.smart.LoadBalancer;
+
+public class VdcAffinityStrategyTest {
+    @Test
+    public void testLocalVdcPreferred() {
+        Vdc local = new Vdc("local1", "local2").withName("local");
+        Vdc remote = new Vdc("remote1", "remote2").withName("remote");
+        LoadBalancer loadBalancer = createLoadBalancer(remote, local)
+                .withSelectionStrategy(new VdcAffinityStrategy(local, remote));
+
+        for (int i = 0; i < 100; i++) {
+            Host host = loadBalancer.getTopHost(null);
+            Assertions.assertEquals(local, ((VdcHost) host).getVdc(), "request should stay in the local VDC");
+            host.connectionOpened();
+        }
+    }
+
+    @Test
+    public void testSpillOver() {
+        Vdc local = new Vdc("local1", "local2").withName("local");
+        Vdc remote = new Vdc("remote1", "remote2").withName("remote");
+        LoadBalancer loadBalancer = createLoadBalancer(local, remote)
+                .withSelectionStrategy(new VdcAffinityStrategy(local, remote).withLoadThreshold(5));
+
+        // fill the local VDC up to the threshold
+        for (int i = 0; i < 10; i++) {
+            Host host = loadBalancer.getTopHost(null);
+            Assertions.assertEquals(local, ((VdcHost) host).getVdc());
+            host.connectionOpened();
+        }
+
+        // local VDC is at its limit, so the next request should go to the remote VDC
+        Host host = loadBalancer.getTopHost(null);
+        Assertions.assertEquals(remote, ((VdcHost) host).getVdc());
+
+        // an unhealthy local VDC is skipped
+        for (VdcHost vdcHost : local) {
+            for (int i = 0; i < 10; i++) vdcHost.connectionClosed();
+            vdcHost.setMaintenanceMode(true);
+        }
+        Assertions.assertEquals(remote, ((VdcHost) loadBalancer.getTopHost(null)).getVdc());
+
+        // once it's back, traffic returns to the local VDC
+        for (VdcHost vdcHost : local) {
+            vdcHost.setMaintenanceMode(false);
+        }
+        Assertions.assertEquals(local, ((VdcHost) loadBalancer.getTopHost(null)).getVdc());
+    }
+
+    @Test
+    public void testConsistentHashDelegate() {
+        Vdc local = new Vdc("local1", "local2", "local3").withName("local");
+        Vdc remote = new Vdc("remote1", "remote2").withName("remote");
+        LoadBalancer loadBalancer = createLoadBalancer(local, remote)
+                .withSelectionStrategy(new VdcAffinityStrategy(local, remote).withDelegate(new ConsistentHashStrategy()));
+
+        // keys stick to their host within the local VDC (a delegate without a ring would rotate between hosts)
+        for (int k = 0; k < 50; k++) {
+            Map<String, Object> properties = Collections.singletonMap(ConsistentHashStrategy.AFFINITY_KEY, "key-" + k);
+            Host host = loadBalancer.getTopHost(properties);
+            Assertions.assertEquals(local, ((VdcHost) host).getVdc());
+            for (int i = 0; i < 5; i++) {
+                Assertions.assertSame(host, loadBalancer.getTopHost(properties));
+            }
+        }
+    }
+
+    private LoadBalancer createLoadBalancer(Vdc... vdcs) {
+        List<Host> hosts = new ArrayList<>();
+        for (Vdc vdc : vdcs) {
+            hosts.addAll(vdc.getHosts());
+        }
+        return new LoadBalancer(hosts);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jersey;
+
+import java.io.IOException;
+
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Retry handler for the Apache connector that never retries a request that was aborted by its {@link RequestAbort}
+ * (i.e. the losing request of a hedged pair, whose connection was shut down), so the abort is not mistaken for an I/O
+ * error worth retrying. Other requests are passed on to the wrapped handler.
+ */
+final class AbortAwareRetryHandler implements HttpRequestRetryHandler {
+    private final HttpRequestRetryHandler delegate;
+
+    AbortAwareRetryHandler(HttpRequestRetryHandler delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+        // called on the thread that executes the request
+        RequestAbort abort = TimingConnectionManager.getCurrentAbort();
+        if (abort != null && abort.isAborted()) return false;
+        return delegate.retryRequest(exception, executionCount, context);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jersey;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import com.emc.rest.smart.Host;
+
+/**
+ * Counts the request body bytes written to the host chosen by {@link SmartFilter} (see
+ * {@link SmartFilter#SELECTED_HOST}). If the size of the body is known up front, it is also tracked as in-flight bytes
+ * of the host until it is written. Register it with a priority below {@link javax.ws.rs.Priorities#ENTITY_CODER}, so it
+ * runs outside of any entity coders and the bytes counted are those sent.
+ */
+public class ByteCountingInterceptor implements WriterInterceptor {
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        Object host = context.getProperty(SmartFilter.SELECTED_HOST);
+        if (!(host instanceof Host)) {
+            context.proceed();
+            return;
+        }
+
+        CountingOutputStream out = new CountingOutputStream(context.getOutputStream(), (Host) host,
+                getExpectedSize(context));
+        context.setOutputStream(out);
+        try {
+            context.proceed();
+        } finally {
+            out.finished();
+        }
+    }
+
+    /**
+     * Returns the size of the request body, or -1 if it is not known before it is written
+     */
+    private long getExpectedSize(WriterInterceptorContext context) {
+        Object contentLength = context.getHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.toString());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        Long entitySize = SizeOverrideWriter.getEntitySize();
+        if (entitySize != null) return entitySize;
+        Object entity = context.getEntity();
+        if (entity instanceof byte[]) return ((byte[]) entity).length;
+        if (entity instanceof File) return ((File) entity).length();
+        return -1;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final Host host;
+        private long inFlight; // bytes of the expected size not yet written
+
+        CountingOutputStream(OutputStream out, Host host, long expectedSize) {
+            super(out);
+            this.host = host;
+            if (expectedSize > 0) {
+                inFlight = expectedSize;
+                host.addInFlightBytes(expectedSize);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written(len);
+        }
+
+        private void written(long count) {
+            host.bytesSent(count);
+            if (inFlight > 0) {
+                long done = Math.min(count, inFlight);
+                inFlight -= done;
+                host.addInFlightBytes(-done);
+            }
+        }
+
+        // releases whatever is left of the expected size (i.e. if the write failed)
+        void finished() {
+            if (inFlight > 0) {
+                host.addInFlightBytes(-inFlight);
+                inFlight = 0;
+            }
+        }
+    }
+}
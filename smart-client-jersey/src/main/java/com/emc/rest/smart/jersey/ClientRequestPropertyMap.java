@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jersey;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.glassfish.jersey.client.ClientRequest;
+
+/**
+ * A read-only {@link java.util.Map} view of the properties of a {@link ClientRequest}. Lookups go directly to the
+ * request, so nothing is copied unless the map is iterated.
+ */
+public class ClientRequestPropertyMap extends AbstractMap<String, Object> {
+    private final ClientRequest request;
+
+    public ClientRequestPropertyMap(ClientRequest request) {
+        this.request = request;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return key instanceof String ? request.getProperty((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return request.getPropertyNames().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return request.getPropertyNames().isEmpty();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                Iterator<String> names = request.getPropertyNames().iterator();
+                return new Iterator<Entry<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return names.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        String name = names.next();
+                        return new SimpleImmutableEntry<>(name, request.getProperty(name));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ClientRequestPropertyMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Returns the underlying request (e.g. for veto rules that need more than its properties)
+     */
+    public ClientRequest getRequest() {
+        return request;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jersey;
+
+import java.io.IOException;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets one thread abort a request that another thread is executing (i.e. the losing request of a hedged pair). The
+ * {@link TimingConnectionManager} reports the connection lease of the executing thread, and aborting cancels a pending
+ * lease or shuts down the leased connection, which makes the blocked call fail. Requests executed by other connectors
+ * cannot be aborted; their response is closed when it arrives instead.
+ */
+final class RequestAbort {
+    private static final Logger log = LoggerFactory.getLogger(RequestAbort.class);
+
+    private ConnectionRequest connectionRequest; // guarded by this
+    private HttpClientConnection connection; // guarded by this
+    private boolean aborted, finished; // guarded by this
+
+    synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Aborts the request, unless it has already finished (i.e. its response has arrived)
+     */
+    synchronized void abort() {
+        if (aborted || finished) return;
+        aborted = true;
+        if (connectionRequest != null) connectionRequest.cancel();
+        if (connection != null) shutdown(connection);
+    }
+
+    /**
+     * Called by the executing thread once the call has returned; the connection is no longer touched after this
+     */
+    synchronized void finish() {
+        finished = true;
+        connectionRequest = null;
+        connection = null;
+    }
+
+    synchronized void connectionRequested(ConnectionRequest connectionRequest) {
+        this.connectionRequest = connectionRequest;
+        if (aborted) connectionRequest.cancel();
+    }
+
+    /**
+     * Returns false (after shutting down <code>connection</code>) if the request was aborted before the lease
+     */
+    synchronized boolean connectionLeased(HttpClientConnection connection) {
+        connectionRequest = null;
+        if (aborted) {
+            shutdown(connection);
+            return false;
+        }
+        this.connection = connection;
+        return true;
+    }
+
+    // the connection goes back to the pool, where it may be leased by another request
+    synchronized void connectionReleased(HttpClientConnection connection) {
+        if (this.connection == connection) this.connection = null;
+    }
+
+    private static void shutdown(HttpClientConnection connection) {
+        try {
+            connection.shutdown();
+        } catch (IOException e) {
+            log.debug("error shutting down connection of aborted request", e);
+        }
+    }
+}
@@ -19,6 +19,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import javax.ws.rs.Priorities;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 
@@ -31,8 +32,10 @@ import org.glassfish.jersey.client.spi.ConnectorProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.emc.rest.smart.OutlierDetector;
 import com.emc.rest.smart.PollingDaemon;
 import com.emc.rest.smart.SmartConfig;
+import com.emc.rest.smart.metrics.JmxMetricsRegistry;
 import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
 
 public final class SmartClientFactory {
@@ -47,6 +50,13 @@ public final class SmartClientFactory {
 
     public static final String IDLE_CONNECTION_MONITOR_PROPERTY_KEY = "com.emc.rest.smart.idleConnectionsExecSvc";
     public static final String CONNECTION_MANAGER_PROPERTY_KEY = "com.emc.rest.smart.apacheConnectionManager";
+    public static final String OUTLIER_DETECTION_EXEC_SVC_PROPERTY_KEY = "com.emc.rest.smart.outlierDetectionExecSvc";
+    public static final String JMX_REGISTRY_PROPERTY_KEY = "com.emc.rest.smart.jmxMetricsRegistry";
+    /**
+     * System property that publishes the metrics of every smart client as JMX MBeans (if the client has no other
+     * metrics registry), e.g. <code>-Dcom.emc.rest.smart.jmx=true</code>
+     */
+    public static final String JMX_ENABLED_SYSTEM_PROPERTY = "com.emc.rest.smart.jmx";
 
     public static Client createSmartClient(SmartConfig smartConfig) {
         return createSmartClient(smartConfig, new ApacheConnectorProvider());
@@ -75,6 +85,31 @@ public final class SmartClientFactory {
         // store polling daemon and other resources in the config so they can be retrieved later in destroy()
         clientConfig.property(PollingDaemon.PROPERTY_KEY, pollingDaemon);
 
+        // run outlier detection in the background (if enabled)
+        OutlierDetector outlierDetector = smartConfig.getOutlierDetector();
+        if (outlierDetector != null) {
+            ScheduledExecutorService sched = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "smart-client-outlier-detection");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sched.scheduleWithFixedDelay(() -> {
+                try {
+                    outlierDetector.detectOutliers(smartConfig.getLoadBalancer());
+                } catch (Throwable t) {
+                    log.warn("outlier detection failed", t);
+                }
+            }, outlierDetector.getInterval(), outlierDetector.getInterval(), TimeUnit.MILLISECONDS);
+            clientConfig.property(OUTLIER_DETECTION_EXEC_SVC_PROPERTY_KEY, sched);
+        }
+
+        // publish metrics via JMX (if enabled)
+        if (Boolean.getBoolean(JMX_ENABLED_SYSTEM_PROPERTY) && smartConfig.getMetricsRegistry() == null) {
+            JmxMetricsRegistry jmxRegistry = new JmxMetricsRegistry();
+            smartConfig.setMetricsRegistry(jmxRegistry);
+            clientConfig.property(JMX_REGISTRY_PROPERTY_KEY, jmxRegistry);
+        }
+
         return ClientBuilder.newClient(clientConfig);
     }
 
@@ -124,6 +159,20 @@ public final class SmartClientFactory {
             }
         }
 
+        JmxMetricsRegistry jmxRegistry = (JmxMetricsRegistry) client.getConfiguration().getProperty(JMX_REGISTRY_PROPERTY_KEY);
+        if (jmxRegistry != null) {
+            log.debug("unregistering JMX MBeans");
+            if (pollingDaemon != null && pollingDaemon.getSmartConfig().getMetricsRegistry() == jmxRegistry)
+                pollingDaemon.getSmartConfig().setMetricsRegistry(null);
+            jmxRegistry.close();
+        }
+
+        ScheduledExecutorService outlierSched = (ScheduledExecutorService) client.getConfiguration().getProperty(OUTLIER_DETECTION_EXEC_SVC_PROPERTY_KEY);
+        if (outlierSched != null) {
+            log.debug("shutting down outlier detection task");
+            outlierSched.shutdownNow();
+        }
+
         ScheduledExecutorService sched = (ScheduledExecutorService) client.getConfiguration().getProperty(IDLE_CONNECTION_MONITOR_PROPERTY_KEY);
         if (sched != null) {
             log.debug("shutting down scheduled idle connections monitoring task");
@@ -154,6 +203,9 @@ public final class SmartClientFactory {
         clientConfig.register(SizeOverrideWriter.SizedInputStream.class);
         clientConfig.register(SizeOverrideWriter.InputStream.class);
 
+        // count request body bytes per host (outside of any entity coders)
+        clientConfig.register(ByteCountingInterceptor.class, Priorities.ENTITY_CODER - 1);
+
         // add support for XML with no content-type
         clientConfig.register(OctetStreamXmlProvider.class);
 
@@ -170,7 +222,7 @@ public final class SmartClientFactory {
 
     static void configureApacheConnector(SmartConfig smartConfig, ClientConfig clientConfig) {
         // set up multi-threaded connection pool
-        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        PoolingHttpClientConnectionManager connectionManager = new TimingConnectionManager();
         connectionManager.setDefaultMaxPerRoute(smartConfig.getIntProperty(MAX_CONNECTIONS_PER_HOST, MAX_CONNECTIONS_PER_HOST_DEFAULT));
         connectionManager.setMaxTotal(smartConfig.getIntProperty(MAX_CONNECTIONS, MAX_CONNECTIONS_DEFAULT));
         clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
@@ -193,11 +245,12 @@ public final class SmartClientFactory {
         if (smartConfig.getProxyPass() != null)
             clientConfig.property(ClientProperties.PROXY_PASSWORD, smartConfig.getProxyPass());
 
-        // disable the retry handler if necessary
-        if (smartConfig.getProperty(DISABLE_APACHE_RETRY) != null) {
-            clientConfig.property(ApacheClientProperties.RETRY_HANDLER,
-                    new org.apache.http.impl.client.DefaultHttpRequestRetryHandler(0, false));
-        }
+        // disable the retry handler if necessary (aborted hedge requests are never retried)
+        org.apache.http.impl.client.DefaultHttpRequestRetryHandler retryHandler =
+                smartConfig.getProperty(DISABLE_APACHE_RETRY) != null
+                        ? new org.apache.http.impl.client.DefaultHttpRequestRetryHandler(0, false)
+                        : org.apache.http.impl.client.DefaultHttpRequestRetryHandler.INSTANCE;
+        clientConfig.property(ApacheClientProperties.RETRY_HANDLER, new AbortAwareRetryHandler(retryHandler));
     }
 
     private SmartClientFactory() {
@@ -24,10 +24,21 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import javax.ws.rs.ProcessingException;
+
+import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.client.ClientRequest;
 import org.glassfish.jersey.client.ClientResponse;
 import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
@@ -35,17 +46,43 @@ import org.glassfish.jersey.client.spi.Connector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.emc.rest.smart.HedgingConfig;
 import com.emc.rest.smart.Host;
+import com.emc.rest.smart.LoadBalancer;
+import com.emc.rest.smart.RateLimiter;
+import com.emc.rest.smart.RequestBudget;
+import com.emc.rest.smart.RequestTiming;
+import com.emc.rest.smart.RetryPolicy;
 import com.emc.rest.smart.SmartClientException;
 import com.emc.rest.smart.SmartConfig;
+import com.emc.rest.smart.jfr.FlightRecorderEvents;
+import com.emc.rest.smart.jfr.RequestAttemptEvent;
+import com.emc.rest.smart.jfr.RetryEvent;
 
 public class SmartFilter implements Connector {
     private static final Logger log = LoggerFactory.getLogger(SmartFilter.class);
 
     public static final String BYPASS_LOAD_BALANCER = "com.emc.rest.smart.bypassLoadBalancer";
+    /**
+     * Request property to set the end-to-end time limit of a request in milliseconds (overrides
+     * {@link SmartConfig#getRequestDeadline()}; 0 means no deadline)
+     */
+    public static final String REQUEST_DEADLINE = "com.emc.rest.smart.requestDeadline";
+    /**
+     * Request property in which the {@link RequestTiming} of the last attempt is stored once its response arrives
+     * (read it from the request context of the response, e.g. in a <code>ClientResponseFilter</code>). The body phase
+     * is complete once the response is closed.
+     */
+    public static final String REQUEST_TIMING = "com.emc.rest.smart.requestTiming";
+    /**
+     * Request property in which the {@link Host} chosen for the current attempt is stored (used by the
+     * {@link ByteCountingInterceptor} to count request bytes)
+     */
+    public static final String SELECTED_HOST = "com.emc.rest.smart.selectedHost";
 
     private final Connector delegate;
     private final SmartConfig smartConfig;
+    private volatile ExecutorService hedgeExecutor; // created on first use
 
     public SmartFilter(Connector delegate, SmartConfig smartConfig) {
         this.delegate = delegate;
@@ -62,52 +99,275 @@ public class SmartFilter implements Connector {
 
         int maxRetries = smartConfig.getMaxRetryAttempts();
         RuntimeException lastException = null;
+        Map<String, Object> requestProperties = new ClientRequestPropertyMap(request);
+        List<Host> triedHosts = new ArrayList<>(1);
+        Deadline deadline = getDeadline(request);
 
         for (int attempt = 0; attempt <= maxRetries; attempt++) {
-            // get highest ranked host for next request
-            Map<String, Object> requestProperties = getRequestProperties(request);
-            Host host = smartConfig.getLoadBalancer().getTopHost(requestProperties);
+            // get highest ranked host for next request (within rate limits)
+            RequestTiming timing = new RequestTiming();
+            Host host;
+            long permitTime;
+            try {
+                acquireRateLimit(smartConfig.getRateLimiter(), "global", deadline);
+                host = selectHost(requestProperties, triedHosts, true);
+                permitTime = System.nanoTime();
+                prepareAttempt(request, host, permitTime, deadline);
+            } catch (RuntimeException e) {
+                // don't lose the failure of the previous attempt
+                if (lastException != null) e.addSuppressed(lastException);
+                throw e;
+            }
+            timing.hostSelected();
+            triedHosts.add(host);
 
             // replace the host in the request
             rewriteUri(request, host);
 
-            // track requests stats for LB ranking
-            host.connectionOpened(); // not really, but we can't (cleanly) intercept any lower than this
+            ClientResponse response;
+            RequestAttemptEvent attemptEvent = beginAttempt();
             try {
-                // call to delegate
-                ClientResponse response = delegate.apply(request);
-
-                // capture request stats
-                // except for 501 (not implemented), all 50x responses are considered server errors
-                host.callComplete(response.getStatus() >= 500 && response.getStatus() != 501);
-
-                // wrap the input stream so we can capture the actual connection close
-                response.setEntityStream(new WrappedInputStream(response.getEntityStream(), host));
-
-                return response;
+                HedgingConfig hedgingConfig = smartConfig.getHedgingConfig();
+                if (hedgingConfig != null && !request.hasEntity() && hedgingConfig.isHedgeable(request.getMethod())) {
+                    response = executeHedged(request, host, permitTime, requestProperties, hedgingConfig, timing,
+                            deadline, triedHosts);
+                    host = (Host) request.getProperty(SELECTED_HOST); // the hedge host, if the hedge won
+                } else {
+                    response = execute(request, host, permitTime, timing, null);
+                }
             } catch (RuntimeException e) {
-                // Connection-level failures (timeouts, refused, etc.) and unknown errors
-                // should be counted against the host. Only client-side (4xx) errors from
-                // SmartClientException are not the host's fault.
-                boolean isError = isHostError(e);
-                host.callComplete(isError);
-                host.connectionClosed();
+                commitAttempt(attemptEvent, request, host, attempt, 0, e);
 
-                // retry transparently on connection-level errors
-                if (isConnectError(e) && attempt < maxRetries) {
-                    log.warn("connection error to host {} (attempt {}/{}), retrying with next host: {}",
+                // retry transparently on connection-level errors (and errors allowed by the retry policy)
+                long retryDelay = getRetryDelay(request, e, attempt, maxRetries, deadline);
+                if (retryDelay >= 0) {
+                    log.warn("error from host {} (attempt {}/{}), retrying with next host: {}",
                             host.getName(), attempt + 1, maxRetries + 1, e.toString());
+                    retrying(host, attempt, e.toString(), retryDelay);
                     lastException = e;
+                    waitForRetry(retryDelay);
                     continue;
                 }
 
                 throw e;
             }
+
+            commitAttempt(attemptEvent, request, host, attempt, response.getStatus(), null);
+
+            // retry on status codes allowed by the retry policy
+            long retryDelay = getRetryDelay(request, response, attempt, maxRetries, deadline);
+            if (retryDelay < 0) return response;
+            log.warn("status {} from host {} (attempt {}/{}), retrying with next host",
+                    response.getStatus(), host.getName(), attempt + 1, maxRetries + 1);
+            retrying(host, attempt, "status " + response.getStatus(), retryDelay);
+            response.close();
+            waitForRetry(retryDelay);
         }
         // all retry attempts exhausted
         throw lastException;
     }
 
+    /**
+     * Sends <code>request</code> (which must already point to <code>host</code>) and tracks the call in the host's
+     * statistics. The connection lease and connect phases are marked in <code>timing</code> by the
+     * {@link TimingConnectionManager} (if the connector uses one). <code>permitTime</code> is the
+     * {@link System#nanoTime()} taken when the load balancer granted the host. If <code>abort</code> is not null, the
+     * call can be aborted by another thread; an aborted call is not counted against the host.
+     */
+    private ClientResponse execute(ClientRequest request, Host host, long permitTime, RequestTiming timing,
+                                   RequestAbort abort) {
+        // track requests stats for LB ranking
+        host.connectionOpened(); // not really, but we can't (cleanly) intercept any lower than this
+        long startTime = System.nanoTime();
+        timing.requestSent();
+        request.setProperty(SELECTED_HOST, host);
+        TimingConnectionManager.setCurrentTiming(timing);
+        TimingConnectionManager.setCurrentAbort(abort);
+        try {
+            // call to delegate
+            ClientResponse response = delegate.apply(request);
+            timing.firstByteReceived();
+            request.setProperty(REQUEST_TIMING, timing);
+
+            // capture request stats (including time to response headers)
+            // except for 501 (not implemented), all 50x responses are considered server errors
+            boolean isError = response.getStatus() >= 500 && response.getStatus() != 501;
+            host.callComplete(isError, System.nanoTime() - startTime, permitTime);
+            if (!isError) earnRetry();
+
+            // wrap the input stream so we can capture the actual connection close
+            response.setEntityStream(new WrappedInputStream(response.getEntityStream(), host, startTime, timing,
+                    getExpectedSize(request, response)));
+
+            return response;
+        } catch (RuntimeException e) {
+            if (abort != null && abort.isAborted()) {
+                host.releasePermit(permitTime);
+            } else {
+                // Connection-level failures (timeouts, refused, etc.) and unknown errors
+                // should be counted against the host. Only client-side (4xx) errors from
+                // SmartClientException are not the host's fault.
+                boolean isError = isHostError(e);
+                host.callComplete(isError, -1, permitTime);
+            }
+            host.connectionClosed();
+            throw e;
+        } finally {
+            if (abort != null) abort.finish();
+            TimingConnectionManager.setCurrentTiming(null);
+            TimingConnectionManager.setCurrentAbort(null);
+        }
+    }
+
+    /**
+     * Sends <code>request</code> to <code>host</code> on the calling thread; if there is no response within the hedge
+     * delay (capped by the request deadline), sends a copy to another host and returns whichever response arrives
+     * first. The other request is aborted (or its response is closed when it arrives, if the connector cannot abort
+     * it), and each call is tracked in the statistics of its own host. If both calls fail, the original failure is
+     * thrown. If the hedge wins, its host and timing are set on <code>request</code>. A hedge host is added to
+     * <code>triedHosts</code>, so a retry avoids it.
+     */
+    private ClientResponse executeHedged(ClientRequest request, Host host, long permitTime,
+                                         Map<String, Object> requestProperties, HedgingConfig hedgingConfig,
+                                         RequestTiming timing, Deadline deadline, List<Host> triedHosts) {
+        HedgedCall call = new HedgedCall();
+        try {
+            return executeHedged(call, request, host, permitTime, requestProperties, hedgingConfig, timing, deadline);
+        } finally {
+            Host hedgeHost = call.hedgeHost;
+            if (hedgeHost != null && !triedHosts.contains(hedgeHost)) triedHosts.add(hedgeHost);
+        }
+    }
+
+    private ClientResponse executeHedged(HedgedCall call, ClientRequest request, Host host, long permitTime,
+                                         Map<String, Object> requestProperties, HedgingConfig hedgingConfig,
+                                         RequestTiming timing, Deadline deadline) {
+        hedgingConfig.getBudget().deposit();
+        long delay = hedgingConfig.getDelay(host);
+        if (deadline != null) delay = Math.max(Math.min(delay, deadline.getRemainingMillis()), 0);
+
+        // only the hedge runs on another thread
+        ClientRequest hedgeRequest = new ClientRequest(request);
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, getHedgeExecutor()).execute(
+                () -> sendHedge(call, hedgeRequest, host, requestProperties, hedgingConfig));
+
+        ClientResponse response;
+        try {
+            response = execute(request, host, permitTime, timing, call.primaryAbort);
+        } catch (RuntimeException e) {
+            if (call.cancelHedge()) throw e;
+
+            // the hedge was sent; it wins if it succeeds (the original failure is reported if it fails too)
+            try {
+                ClientResponse hedgeResponse = call.hedge.get();
+                if (hedgeResponse != null) return adoptHedge(request, hedgeRequest, hedgeResponse);
+            } catch (ExecutionException ignored) {
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                call.hedgeAbort.abort();
+                call.hedge.thenAccept(hedgeResponse -> {
+                    if (hedgeResponse != null) hedgeResponse.close();
+                });
+            }
+            throw e;
+        }
+
+        if (call.first.complete(response)) {
+            if (!call.cancelHedge()) call.hedgeAbort.abort();
+            return response;
+        }
+
+        // the hedge won while the response was on its way
+        response.close();
+        return adoptHedge(request, hedgeRequest, call.first.join());
+    }
+
+    // the hedge ran on a copy of the request, so the caller's request must be told which host answered
+    private static ClientResponse adoptHedge(ClientRequest request, ClientRequest hedgeRequest,
+                                             ClientResponse hedgeResponse) {
+        request.setProperty(SELECTED_HOST, hedgeRequest.getProperty(SELECTED_HOST));
+        request.setProperty(REQUEST_TIMING, hedgeRequest.getProperty(REQUEST_TIMING));
+        return hedgeResponse;
+    }
+
+    private void sendHedge(HedgedCall call, ClientRequest hedgeRequest, Host host,
+                           Map<String, Object> requestProperties, HedgingConfig hedgingConfig) {
+        if (!call.startHedge()) return; // the primary call is already done
+        try {
+            RequestTiming hedgeTiming = new RequestTiming();
+            Host hedgeHost = selectHedgeHost(host, requestProperties, hedgingConfig);
+            if (hedgeHost == null) {
+                call.hedge.complete(null);
+                return;
+            }
+            long hedgePermitTime = System.nanoTime();
+            if (call.hedgeAbort.isAborted()) { // the primary call finished in the meantime
+                hedgeHost.releasePermit(hedgePermitTime);
+                call.hedge.complete(null);
+                return;
+            }
+            hedgeTiming.hostSelected();
+            call.hedgeHost = hedgeHost;
+
+            rewriteUri(hedgeRequest, hedgeHost);
+            hedgingConfig.hedgeSent();
+            smartConfig.getLoadBalancer().countHedge();
+            log.debug("no response from {} within hedge delay; hedging request to {}",
+                    host.getName(), hedgeHost.getName());
+            ClientResponse response = execute(hedgeRequest, hedgeHost, hedgePermitTime, hedgeTiming, call.hedgeAbort);
+            call.hedge.complete(response);
+
+            // first response wins; the loser is aborted
+            if (call.first.complete(response)) {
+                hedgingConfig.hedgeWon();
+                call.primaryAbort.abort();
+            } else {
+                response.close();
+            }
+        } catch (Throwable t) {
+            call.hedge.completeExceptionally(t);
+        }
+    }
+
+    private Host selectHedgeHost(Host host, Map<String, Object> requestProperties, HedgingConfig hedgingConfig) {
+        if (!hedgingConfig.getBudget().tryWithdraw()) return null;
+
+        // hedges are never worth waiting for
+        RateLimiter rateLimiter = smartConfig.getRateLimiter();
+        if (rateLimiter != null && !rateLimiter.tryAcquire()) return null;
+        Host hedgeHost;
+        try {
+            hedgeHost = smartConfig.getLoadBalancer().getTopHost(requestProperties, Collections.singleton(host));
+        } catch (SmartClientException e) {
+            return null; // all hosts are saturated
+        }
+        if (hedgeHost == null) return null;
+        rateLimiter = hedgeHost.getRateLimiter();
+        if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+            hedgeHost.releasePermit(System.nanoTime());
+            return null;
+        }
+        return hedgeHost;
+    }
+
+    // hedges are limited by the hedge budget, so this pool only grows with the share of requests that are hedged
+    private ExecutorService getHedgeExecutor() {
+        ExecutorService executor = hedgeExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                if (hedgeExecutor == null) {
+                    hedgeExecutor = Executors.newCachedThreadPool(runnable -> {
+                        Thread thread = new Thread(runnable, "smart-client-hedge");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                executor = hedgeExecutor;
+            }
+        }
+        return executor;
+    }
+
     @Override
     public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
         // check for bypass flag
@@ -116,41 +376,116 @@ public class SmartFilter implements Connector {
             return delegate.apply(request, callback);
         }
 
-        return applyAsync(request, callback, 0);
+        return applyAsync(request, callback, 0, new ArrayList<>(1), getDeadline(request), null);
     }
 
-    private Future<?> applyAsync(ClientRequest request, AsyncConnectorCallback callback, int attempt) {
-        int maxRetries = smartConfig.getMaxRetryAttempts();
-
+    private Future<?> applyAsync(ClientRequest request, AsyncConnectorCallback callback, int attempt,
+                                 List<Host> triedHosts, Deadline deadline, Throwable lastFailure) {
         // get highest ranked host for next request
-        Map<String, Object> requestProperties = getRequestProperties(request);
-        Host host = smartConfig.getLoadBalancer().getTopHost(requestProperties);
+        Map<String, Object> requestProperties = new ClientRequestPropertyMap(request);
+        RequestTiming timing = new RequestTiming();
+        Host host;
+        long permitTime, delayNanos;
+        try {
+            delayNanos = reserveRateLimit(smartConfig.getRateLimiter(), "global", deadline);
+            // like rate limits, saturated hosts must not block the caller, so fail fast rather than wait for capacity
+            host = selectHost(requestProperties, triedHosts, false);
+            permitTime = System.nanoTime();
+            try {
+                delayNanos = Math.max(delayNanos, reserveRateLimit(host.getRateLimiter(), host.getName(), deadline));
+            } catch (RuntimeException e) {
+                host.releasePermit(permitTime);
+                throw e;
+            }
+            triedHosts.add(host);
+        } catch (SmartClientException e) {
+            // i.e. no host is available or no rate limit permit is available
+            return failAsync(callback, e, lastFailure);
+        }
+
+        // the rate limit permits are reserved; rather than blocking the caller, send the request when they are due
+        if (delayNanos > 0) {
+            DelayedRequestFuture future = new DelayedRequestFuture();
+            CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(() -> {
+                if (future.isCancelled()) {
+                    host.releasePermit(permitTime);
+                    return;
+                }
+                try {
+                    future.sent(sendAsync(request, callback, attempt, triedHosts, deadline, lastFailure, host,
+                            permitTime, timing));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        }
+        return sendAsync(request, callback, attempt, triedHosts, deadline, lastFailure, host, permitTime, timing);
+    }
+
+    private Future<?> sendAsync(ClientRequest request, AsyncConnectorCallback callback, int attempt,
+                                List<Host> triedHosts, Deadline deadline, Throwable lastFailure, Host host,
+                                long permitTime, RequestTiming timing) {
+        int maxRetries = smartConfig.getMaxRetryAttempts();
+        try {
+            if (deadline != null) deadline.apply(request);
+        } catch (SmartClientException e) {
+            host.releasePermit(permitTime);
+            return failAsync(callback, e, lastFailure);
+        }
+        timing.hostSelected();
 
         // replace the host in the request
         rewriteUri(request, host);
 
         // track requests stats for LB ranking
+        // (the connector runs the request on its own thread, so the connection phases are not timed)
         host.connectionOpened();
+        long startTime = System.nanoTime();
+        timing.requestSent();
+        request.setProperty(SELECTED_HOST, host);
+        RequestAttemptEvent attemptEvent = beginAttempt();
 
         return delegate.apply(request, new AsyncConnectorCallback() {
             @Override
             public void response(ClientResponse response) {
-                host.callComplete(response.getStatus() >= 500 && response.getStatus() != 501);
-                response.setEntityStream(new WrappedInputStream(response.getEntityStream(), host));
+                timing.firstByteReceived();
+                request.setProperty(REQUEST_TIMING, timing);
+                commitAttempt(attemptEvent, request, host, attempt, response.getStatus(), null);
+                boolean isError = response.getStatus() >= 500 && response.getStatus() != 501;
+                host.callComplete(isError, System.nanoTime() - startTime, permitTime);
+                if (!isError) earnRetry();
+                response.setEntityStream(new WrappedInputStream(response.getEntityStream(), host, startTime, timing,
+                        getExpectedSize(request, response)));
+
+                // retry on status codes allowed by the retry policy
+                long retryDelay = getRetryDelay(request, response, attempt, maxRetries, deadline);
+                if (retryDelay >= 0) {
+                    log.warn("async status {} from host {} (attempt {}/{}), retrying with next host",
+                            response.getStatus(), host.getName(), attempt + 1, maxRetries + 1);
+                    retrying(host, attempt, "status " + response.getStatus(), retryDelay);
+                    response.close();
+                    retryAsync(request, callback, attempt, triedHosts, deadline, retryDelay, null);
+                    return;
+                }
+
                 callback.response(response);
             }
 
             @Override
             public void failure(Throwable failure) {
+                commitAttempt(attemptEvent, request, host, attempt, 0, failure);
                 boolean isError = isHostError(failure);
-                host.callComplete(isError);
+                host.callComplete(isError, -1, permitTime);
                 host.connectionClosed();
 
-                // retry transparently on connection-level errors
-                if (isConnectError(failure) && attempt < maxRetries) {
-                    log.warn("async connection error to host {} (attempt {}/{}), retrying with next host: {}",
+                // retry transparently on connection-level errors (and errors allowed by the retry policy)
+                long retryDelay = getRetryDelay(request, failure, attempt, maxRetries, deadline);
+                if (retryDelay >= 0) {
+                    log.warn("async error from host {} (attempt {}/{}), retrying with next host: {}",
                             host.getName(), attempt + 1, maxRetries + 1, failure.toString());
-                    applyAsync(request, callback, attempt + 1);
+                    retrying(host, attempt, failure.toString(), retryDelay);
+                    retryAsync(request, callback, attempt, triedHosts, deadline, retryDelay, failure);
                     return;
                 }
 
@@ -159,6 +494,13 @@ public class SmartFilter implements Connector {
         });
     }
 
+    private static Future<?> failAsync(AsyncConnectorCallback callback, SmartClientException e, Throwable lastFailure) {
+        // don't lose the failure of the previous attempt
+        if (lastFailure != null) e.addSuppressed(lastFailure);
+        callback.failure(e);
+        return CompletableFuture.failedFuture(e);
+    }
+
     @Override
     public String getName() {
         return "SmartFilter(" + delegate.getName() + ")";
@@ -166,9 +508,191 @@ public class SmartFilter implements Connector {
 
     @Override
     public void close() {
+        if (hedgeExecutor != null) hedgeExecutor.shutdown();
         delegate.close();
     }
 
+    /**
+     * Returns the top host, avoiding the hosts already tried for this request (unless all hosts have been tried). If
+     * <code>mayWait</code> is false, this fails instead of waiting for a host to free up capacity.
+     */
+    private Host selectHost(Map<String, Object> requestProperties, List<Host> triedHosts, boolean mayWait) {
+        LoadBalancer loadBalancer = smartConfig.getLoadBalancer();
+        if (triedHosts.isEmpty()) return loadBalancer.getTopHost(requestProperties, null, mayWait);
+        Host host = loadBalancer.getTopHost(requestProperties, triedHosts);
+        return host != null ? host : loadBalancer.getTopHost(requestProperties, null, mayWait);
+    }
+
+    private void retryAsync(ClientRequest request, AsyncConnectorCallback callback, int attempt, List<Host> triedHosts,
+                            Deadline deadline, long retryDelay, Throwable lastFailure) {
+        if (retryDelay == 0) {
+            applyAsync(request, callback, attempt + 1, triedHosts, deadline, lastFailure);
+        } else {
+            CompletableFuture.delayedExecutor(retryDelay, TimeUnit.MILLISECONDS)
+                    .execute(() -> applyAsync(request, callback, attempt + 1, triedHosts, deadline, lastFailure));
+        }
+    }
+
+    /**
+     * Returns the wait in milliseconds before retrying after <code>failure</code>, or -1 if it is not retried.
+     * Connection-level errors are retried immediately; other errors only if the retry policy allows it. Retries are
+     * limited by the max retry attempts and the retry budget (if one is set).
+     */
+    private long getRetryDelay(ClientRequest request, Throwable failure, int attempt, int maxRetries,
+                               Deadline deadline) {
+        if (attempt >= maxRetries) return -1;
+        long retryDelay = 0;
+        if (!isConnectError(failure)) {
+            RetryPolicy retryPolicy = smartConfig.getRetryPolicy();
+            if (!isRetryable(request, retryPolicy) || !retryPolicy.isRetryableException(failure)) return -1;
+            retryDelay = retryPolicy.getRetryDelay(attempt, null);
+        }
+        if (deadline != null && !deadline.allows(retryDelay)) return -1;
+        return withdrawRetry(failure.toString()) ? retryDelay : -1;
+    }
+
+    /**
+     * Returns the wait in milliseconds before retrying after <code>response</code>, or -1 if it is not retried
+     */
+    private long getRetryDelay(ClientRequest request, ClientResponse response, int attempt, int maxRetries,
+                               Deadline deadline) {
+        RetryPolicy retryPolicy = smartConfig.getRetryPolicy();
+        if (attempt >= maxRetries || !isRetryable(request, retryPolicy)
+                || !retryPolicy.isRetryableStatus(response.getStatus())) return -1;
+        long retryDelay = retryPolicy.getRetryDelay(attempt, response.getHeaderString("Retry-After"));
+        if (retryDelay < 0) return -1; // server asked for a longer wait than we allow
+        if (deadline != null && !deadline.allows(retryDelay)) return -1;
+        return withdrawRetry("status " + response.getStatus()) ? retryDelay : -1;
+    }
+
+    /**
+     * Only idempotent requests whose entity can be written again are retried by the retry policy
+     */
+    private boolean isRetryable(ClientRequest request, RetryPolicy retryPolicy) {
+        return retryPolicy != null && retryPolicy.isIdempotent(request.getMethod())
+                && !(request.getEntity() instanceof InputStream);
+    }
+
+    private boolean withdrawRetry(String cause) {
+        RequestBudget retryBudget = smartConfig.getRetryBudget();
+        if (retryBudget != null && !retryBudget.tryWithdraw()) {
+            log.warn("retry budget exhausted; not retrying after {}", cause);
+            return false;
+        }
+        return true;
+    }
+
+    private void waitForRetry(long retryDelay) {
+        if (retryDelay == 0) return;
+        try {
+            Thread.sleep(retryDelay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("interrupted while waiting to retry", e);
+        }
+    }
+
+    private static RequestAttemptEvent beginAttempt() {
+        if (!FlightRecorderEvents.isActive()) return null;
+        RequestAttemptEvent event = new RequestAttemptEvent();
+        event.begin();
+        return event;
+    }
+
+    private static void commitAttempt(RequestAttemptEvent event, ClientRequest request, Host host, int attempt,
+                                      int status, Throwable failure) {
+        if (event != null && event.shouldCommit()) {
+            event.setHost(host.getName());
+            event.setMethod(request.getMethod());
+            event.setAttempt(attempt + 1);
+            event.setStatus(status);
+            if (failure != null) event.setError(failure.toString());
+            event.commit();
+        }
+    }
+
+    private void retrying(Host host, int attempt, String reason, long retryDelay) {
+        smartConfig.getLoadBalancer().countRetry();
+        if (!FlightRecorderEvents.isActive()) return;
+        RetryEvent event = new RetryEvent();
+        if (event.isEnabled()) {
+            event.setHost(host.getName());
+            event.setAttempt(attempt + 1);
+            event.setReason(reason);
+            event.setDelay(retryDelay);
+            event.commit();
+        }
+    }
+
+    private void earnRetry() {
+        RequestBudget retryBudget = smartConfig.getRetryBudget();
+        if (retryBudget != null) retryBudget.deposit();
+    }
+
+    /**
+     * Acquires a permit from <code>rateLimiter</code> (if not null), waiting up to the configured rate limit timeout
+     */
+    private void acquireRateLimit(RateLimiter rateLimiter, String scope, Deadline deadline) {
+        if (rateLimiter == null) return;
+        if (!rateLimiter.tryAcquire(getRateLimitTimeout(deadline)))
+            throw new SmartClientException("rate limit exceeded (" + scope + ")");
+    }
+
+    /**
+     * Like {@link #acquireRateLimit(RateLimiter, String, Deadline)}, but returns the time in nanoseconds until the
+     * reserved permit may be used instead of waiting for it
+     */
+    private long reserveRateLimit(RateLimiter rateLimiter, String scope, Deadline deadline) {
+        if (rateLimiter == null) return 0;
+        long waitNanos = rateLimiter.reserve(getRateLimitTimeout(deadline));
+        if (waitNanos < 0) throw new SmartClientException("rate limit exceeded (" + scope + ")");
+        return waitNanos;
+    }
+
+    private long getRateLimitTimeout(Deadline deadline) {
+        long timeout = smartConfig.getRateLimitTimeout();
+        if (deadline != null) timeout = Math.max(Math.min(timeout, deadline.getRemainingMillis()), 0);
+        return timeout;
+    }
+
+    /**
+     * Waits for a rate limit permit of the selected host and shrinks the timeouts of <code>request</code> to its
+     * deadline. If either fails, the permit the load balancer granted for the host is released.
+     */
+    private void prepareAttempt(ClientRequest request, Host host, long permitTime, Deadline deadline) {
+        try {
+            acquireRateLimit(host.getRateLimiter(), host.getName(), deadline);
+            if (deadline != null) deadline.apply(request);
+        } catch (RuntimeException e) {
+            host.releasePermit(permitTime);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the deadline of <code>request</code> (from the request property or the smart config), or null if it has
+     * none
+     */
+    private Deadline getDeadline(ClientRequest request) {
+        Object requestDeadline = request.getProperty(REQUEST_DEADLINE);
+        long timeLimit = requestDeadline instanceof Number
+                ? ((Number) requestDeadline).longValue() : smartConfig.getRequestDeadline();
+        if (timeLimit <= 0) return null;
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeLimit),
+                request.resolveProperty(ClientProperties.CONNECT_TIMEOUT, 0),
+                request.resolveProperty(ClientProperties.READ_TIMEOUT, 0));
+    }
+
+    /**
+     * Returns the size of the response body from its content length, or -1 if it is unknown (HEAD responses and
+     * responses without content have no body, whatever their content length says)
+     */
+    private static long getExpectedSize(ClientRequest request, ClientResponse response) {
+        int status = response.getStatus();
+        if ("HEAD".equals(request.getMethod()) || status == 204 || status == 304) return 0;
+        return response.getLength();
+    }
+
     private void rewriteUri(ClientRequest request, Host host) {
         URI uri = request.getUri();
         try {
@@ -181,14 +705,6 @@ public class SmartFilter implements Connector {
         request.setUri(uri);
     }
 
-    private Map<String, Object> getRequestProperties(ClientRequest request) {
-        Map<String, Object> props = new HashMap<>();
-        for (String name : request.getPropertyNames()) {
-            props.put(name, request.getProperty(name));
-        }
-        return props;
-    }
-
     /**
      * Determines if an exception should be counted as a host error for load-balancing purposes.
      * All exceptions are considered host errors except SmartClientException with ErrorType.Client
@@ -229,26 +745,199 @@ public class SmartFilter implements Connector {
     }
 
     /**
-     * captures closure in host statistics
+     * captures bytes read, closure (and total call duration) in host statistics
      */
     protected static class WrappedInputStream extends FilterInputStream {
         private final Host host;
+        private final long startTime;
+        private final RequestTiming timing;
+        private long inFlight; // bytes of the expected size not yet read
         private boolean closed = false;
 
         public WrappedInputStream(InputStream in, Host host) {
+            this(in, host, System.nanoTime());
+        }
+
+        /**
+         * @param startTime the {@link System#nanoTime()} at which the request was started
+         */
+        public WrappedInputStream(InputStream in, Host host, long startTime) {
+            this(in, host, startTime, null);
+        }
+
+        /**
+         * @param timing the timing of the request, which is completed (and recorded in the host's statistics) when
+         *               the stream is closed
+         */
+        public WrappedInputStream(InputStream in, Host host, long startTime, RequestTiming timing) {
+            this(in, host, startTime, timing, -1);
+        }
+
+        /**
+         * @param expectedSize the size of the response body (-1 if unknown), which is tracked as in-flight bytes of
+         *                     the host until it is read or the stream is closed
+         */
+        public WrappedInputStream(InputStream in, Host host, long startTime, RequestTiming timing, long expectedSize) {
             super(in);
             this.host = host;
+            this.startTime = startTime;
+            this.timing = timing;
+            if (expectedSize > 0) {
+                inFlight = expectedSize;
+                host.addInFlightBytes(expectedSize);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) received(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) received(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(n);
+            if (count > 0) received(count);
+            return count;
+        }
+
+        private synchronized void received(long count) {
+            host.bytesReceived(count);
+            if (inFlight > 0) {
+                long done = Math.min(count, inFlight);
+                inFlight -= done;
+                host.addInFlightBytes(-done);
+            }
         }
 
         @Override
         public void close() throws IOException {
             synchronized (this) {
                 if (!closed) {
-                    host.connectionClosed(); // capture closure
+                    host.connectionClosed(System.nanoTime() - startTime); // capture closure
+                    if (inFlight > 0) {
+                        host.addInFlightBytes(-inFlight); // the rest of the body will not be read
+                        inFlight = 0;
+                    }
+                    if (timing != null) {
+                        timing.completed();
+                        host.requestTimed(timing);
+                    }
                     closed = true;
                 }
             }
             super.close();
         }
     }
+
+    /**
+     * The state of a hedged request: the first response wins, and the hedge is sent only if the primary call has not
+     * finished by the time the hedge delay has passed.
+     */
+    private static final class HedgedCall {
+        final CompletableFuture<ClientResponse> first = new CompletableFuture<>();
+        // the hedge response, or null if no hedge host was available
+        final CompletableFuture<ClientResponse> hedge = new CompletableFuture<>();
+        final RequestAbort primaryAbort = new RequestAbort();
+        final RequestAbort hedgeAbort = new RequestAbort();
+        volatile Host hedgeHost; // set once the hedge is sent
+        private boolean hedgeStarted, hedgeCancelled; // guarded by this
+
+        synchronized boolean startHedge() {
+            if (hedgeCancelled) return false;
+            hedgeStarted = true;
+            return true;
+        }
+
+        /**
+         * Returns true if the hedge will not be sent (it has not been started)
+         */
+        synchronized boolean cancelHedge() {
+            if (hedgeStarted) return false;
+            hedgeCancelled = true;
+            return true;
+        }
+    }
+
+    /**
+     * The future of a request that is sent once its rate limit permits are due. It completes with the future returned
+     * by the connector, and cancelling it cancels the sent request (or keeps it from being sent).
+     */
+    private static final class DelayedRequestFuture extends CompletableFuture<Object> {
+        private volatile Future<?> sent;
+
+        void sent(Future<?> sent) {
+            this.sent = sent;
+            if (isCancelled()) { // cancelled while it was being sent
+                sent.cancel(true);
+            } else if (sent instanceof CompletionStage) {
+                ((CompletionStage<?>) sent).whenComplete((result, failure) -> {
+                    if (failure != null) completeExceptionally(failure);
+                    else complete(result);
+                });
+            } else {
+                complete(null); // the connector's future can't be followed, but it can still be cancelled
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<?> sent = this.sent;
+            if (sent != null) cancelled = sent.cancel(mayInterruptIfRunning) || cancelled;
+            return cancelled;
+        }
+    }
+
+    /**
+     * End-to-end deadline of a request. Each attempt gets the configured connect and read timeouts, shrunk to the
+     * remaining time.
+     */
+    private static final class Deadline {
+        private final long deadline; // System.nanoTime()
+        private final int connectTimeout;
+        private final int readTimeout;
+
+        Deadline(long deadline, int connectTimeout, int readTimeout) {
+            this.deadline = deadline;
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+        }
+
+        long getRemainingMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        }
+
+        /**
+         * Returns true if there is time left after waiting <code>millis</code>
+         */
+        boolean allows(long millis) {
+            return getRemainingMillis() > millis;
+        }
+
+        /**
+         * Shrinks the timeouts of the next attempt of <code>request</code> to the remaining time, or fails if there is
+         * none left
+         */
+        void apply(ClientRequest request) {
+            long remaining = getRemainingMillis();
+            if (remaining <= 0) throw new SmartClientException("request deadline exceeded");
+            request.setProperty(ClientProperties.CONNECT_TIMEOUT, shrink(connectTimeout, remaining));
+            request.setProperty(ClientProperties.READ_TIMEOUT, shrink(readTimeout, remaining));
+        }
+
+        private static int shrink(int timeout, long remaining) {
+            // 0 means no timeout
+            return (int) (timeout > 0 ? Math.min(timeout, remaining) : Math.min(remaining, Integer.MAX_VALUE));
+        }
+    }
+
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015-2021 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.emc.rest.smart.jersey;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import com.emc.rest.smart.RequestTiming;
+
+/**
+ * Connection pool that marks the connection lease and connect (including the TLS handshake) in the
+ * {@link RequestTiming} of the current thread. {@link SmartFilter} sets the timing while a synchronous request is
+ * executed; requests executed on other threads (i.e. async requests) are not timed at this level. The connection of
+ * a hedged request is also reported to its {@link RequestAbort}, so the losing request can be aborted.
+ */
+public class TimingConnectionManager extends PoolingHttpClientConnectionManager {
+    private static final ThreadLocal<RequestTiming> currentTiming = new ThreadLocal<>();
+    private static final ThreadLocal<RequestAbort> currentAbort = new ThreadLocal<>();
+
+    public static RequestTiming getCurrentTiming() {
+        return currentTiming.get();
+    }
+
+    public static void setCurrentTiming(RequestTiming timing) {
+        if (timing == null) currentTiming.remove();
+        else currentTiming.set(timing);
+    }
+
+    static RequestAbort getCurrentAbort() {
+        return currentAbort.get();
+    }
+
+    static void setCurrentAbort(RequestAbort abort) {
+        if (abort == null) currentAbort.remove();
+        else currentAbort.set(abort);
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        ConnectionRequest connectionRequest = super.requestConnection(route, state);
+        RequestTiming timing = currentTiming.get();
+        RequestAbort abort = currentAbort.get();
+        if (timing == null && abort == null) return connectionRequest;
+        if (abort != null) abort.connectionRequested(connectionRequest);
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit timeUnit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                HttpClientConnection connection = connectionRequest.get(timeout, timeUnit);
+                if (abort != null && !abort.connectionLeased(connection)) {
+                    releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+                    throw new ExecutionException(new IOException("request aborted"));
+                }
+                if (timing != null) timing.connectionLeased();
+                return connection;
+            }
+
+            @Override
+            public boolean cancel() {
+                return connectionRequest.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void releaseConnection(HttpClientConnection managedConn, Object state, long keepalive, TimeUnit timeUnit) {
+        RequestAbort abort = currentAbort.get();
+        if (abort != null) abort.connectionReleased(managedConn);
+        super.releaseConnection(managedConn, state, keepalive, timeUnit);
+    }
+
+    @Override
+    public void routeComplete(HttpClientConnection managedConn, HttpRoute route, HttpContext context)
+            throws IOException {
+        super.routeComplete(managedConn, route, context);
+        RequestTiming timing = currentTiming.get();
+        if (timing != null) timing.connected();
+    }
+}
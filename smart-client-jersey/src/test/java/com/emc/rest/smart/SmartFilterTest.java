@@ -15,25 +15,46 @@
  */
 package com.emc.rest.smart;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
 import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
 
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Response;
 
+import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.client.ClientRequest;
 import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.JerseyClient;
+import org.glassfish.jersey.client.JerseyClientBuilder;
 import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
 import org.glassfish.jersey.client.spi.Connector;
 import org.glassfish.jersey.client.spi.ConnectorProvider;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
@@ -41,6 +62,7 @@ import org.slf4j.LoggerFactory;
 
 import com.emc.rest.smart.jersey.SmartClientFactory;
 import com.emc.rest.smart.jersey.SmartFilter;
+import com.emc.rest.smart.jersey.TimingConnectionManager;
 
 public class SmartFilterTest {
     private static final Logger log = LoggerFactory.getLogger(SmartFilterTest.class);
@@ -359,4 +381,629 @@ public class SmartFilterTest {
             SmartClientFactory.destroy(client);
         }
     }
+
+    @Test
+    public void testRetryExcludesTriedHosts() {
+        SmartConfig smartConfig = new SmartConfig("bad1", "bad2", "bad3");
+        smartConfig.setMaxRetryAttempts(2);
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+        // keep failed hosts eligible, so only the exclusion keeps retries off them
+        for (Host host : smartConfig.getLoadBalancer().getAllHosts()) {
+            host.setErrorWaitTime(0);
+        }
+
+        List<String> attemptedHosts = Collections.synchronizedList(new ArrayList<>());
+
+        ConnectorProvider mockProvider = (jaxRsClient, runtimeConfig) -> new Connector() {
+            @Override
+            public ClientResponse apply(ClientRequest request) {
+                attemptedHosts.add(request.getUri().getHost());
+                throw new ProcessingException(new ConnectException("Connection refused"));
+            }
+
+            @Override
+            public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String getName() { return "MockConnector"; }
+
+            @Override
+            public void close() { }
+        };
+
+        Client client = SmartClientFactory.createSmartClient(smartConfig, mockProvider);
+
+        try {
+            Assertions.assertThrows(ProcessingException.class,
+                    () -> client.target("http://original-host:9020/test").request().get());
+
+            Assertions.assertEquals(3, attemptedHosts.size());
+            Assertions.assertEquals(3, new HashSet<>(attemptedHosts).size(), "retried the same host: " + attemptedHosts);
+        } finally {
+            SmartClientFactory.destroy(client);
+        }
+    }
+
+    @Test
+    public void testRetryBudget() {
+        SmartConfig smartConfig = new SmartConfig("bad", "good");
+        smartConfig.setMaxRetryAttempts(2);
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+        smartConfig.setRetryBudget(new RequestBudget(1)); // no minimum rate, so retries must be earned
+
+        List<String> attemptedHosts = Collections.synchronizedList(new ArrayList<>());
+
+        ConnectorProvider mockProvider = (jaxRsClient, runtimeConfig) -> new Connector() {
+            @Override
+            public ClientResponse apply(ClientRequest request) {
+                String host = request.getUri().getHost();
+                attemptedHosts.add(host);
+                if ("bad".equals(host)) {
+                    throw new ProcessingException(new ConnectException("Connection refused"));
+                }
+                return new ClientResponse(Response.Status.OK, request);
+            }
+
+            @Override
+            public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String getName() { return "MockConnector"; }
+
+            @Override
+            public void close() { }
+        };
+
+        Client client = SmartClientFactory.createSmartClient(smartConfig, mockProvider);
+
+        try {
+            // the budget is empty, so the first (failed) request is not retried
+            Assertions.assertThrows(ProcessingException.class,
+                    () -> client.target("http://original-host:9020/test").request().get());
+            Assertions.assertEquals(Collections.singletonList("bad"), attemptedHosts);
+
+            // a successful request earns a retry
+            Assertions.assertEquals(200, client.target("http://original-host:9020/test").request().get().getStatus());
+            Assertions.assertEquals(1, smartConfig.getRetryBudget().getBalance(), 0.001);
+        } finally {
+            SmartClientFactory.destroy(client);
+        }
+    }
+
+    @Test
+    public void testRetryPolicy() {
+        SmartConfig smartConfig = new SmartConfig("busy", "slow", "good");
+        smartConfig.setMaxRetryAttempts(2);
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+        smartConfig.setRetryPolicy(new RetryPolicy().withInitialBackoff(10));
+
+        List<String> attemptedHosts = Collections.synchronizedList(new ArrayList<>());
+
+        ConnectorProvider mockProvider = (jaxRsClient, runtimeConfig) -> new Connector() {
+            @Override
+            public ClientResponse apply(ClientRequest request) {
+                String host = request.getUri().getHost();
+                attemptedHosts.add(host);
+                if ("busy".equals(host)) {
+                    ClientResponse response = new ClientResponse(Response.Status.SERVICE_UNAVAILABLE, request);
+                    response.getHeaders().putSingle("Retry-After", "0");
+                    return response;
+                }
+                if ("slow".equals(host)) throw new ProcessingException(new SocketTimeoutException("Read timed out"));
+                return new ClientResponse(Response.Status.OK, request);
+            }
+
+            @Override
+            public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String getName() { return "MockConnector"; }
+
+            @Override
+            public void close() { }
+        };
+
+        Client client = SmartClientFactory.createSmartClient(smartConfig, mockProvider);
+
+        try {
+            // the 503 and the read timeout are both retried on the next host
+            Response response = client.target("http://original-host:9020/test").request().get();
+            Assertions.assertEquals(200, response.getStatus());
+            response.close();
+            Assertions.assertEquals(Arrays.asList("busy", "slow", "good"), attemptedHosts);
+            for (Host host : smartConfig.getLoadBalancer().getAllHosts()) {
+                Assertions.assertEquals(0, host.getOpenConnections(), host.getName());
+            }
+
+            // POST is not idempotent, so the 503 is returned to the caller
+            smartConfig.getLoadBalancer().getAllHosts().forEach(Host::resetStats);
+            attemptedHosts.clear();
+            Assertions.assertEquals(503, client.target("http://original-host:9020/test").request()
+                    .post(Entity.text("foo")).getStatus());
+            Assertions.assertEquals(Collections.singletonList("busy"), attemptedHosts);
+        } finally {
+            SmartClientFactory.destroy(client);
+        }
+    }
+
+    @Test
+    public void testRequestDeadline() {
+        SmartConfig smartConfig = new SmartConfig("host1", "host2", "host3");
+        smartConfig.setMaxRetryAttempts(5);
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+        smartConfig.setRetryPolicy(new RetryPolicy().withInitialBackoff(0));
+        smartConfig.setProperty(ClientProperties.READ_TIMEOUT, 10000);
+
+        List<Integer> readTimeouts = Collections.synchronizedList(new ArrayList<>());
+
+        ConnectorProvider mockProvider = (jaxRsClient, runtimeConfig) -> new Connector() {
+            @Override
+            public ClientResponse apply(ClientRequest request) {
+                int readTimeout = request.resolveProperty(ClientProperties.READ_TIMEOUT, 0);
+                readTimeouts.add(readTimeout);
+                try {
+                    Thread.sleep(Math.min(150, readTimeout)); // the host is slow, the read times out
+                } catch (InterruptedException e) {
+                    throw new ProcessingException(e);
+                }
+                throw new ProcessingException(new SocketTimeoutException("Read timed out"));
+            }
+
+            @Override
+            public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String getName() { return "MockConnector"; }
+
+            @Override
+            public void close() { }
+        };
+
+        Client client = SmartClientFactory.createSmartClient(smartConfig, mockProvider);
+
+        try {
+            long start = System.currentTimeMillis();
+            Assertions.assertThrows(ProcessingException.class, () -> client.target("http://original-host:9020/test")
+                    .request().property(SmartFilter.REQUEST_DEADLINE, 400).get());
+            long duration = System.currentTimeMillis() - start;
+
+            // each attempt gets the remaining time as its read timeout, and no attempt starts after the deadline
+            log.info("read timeouts: {}, duration: {}ms", readTimeouts, duration);
+            Assertions.assertTrue(readTimeouts.size() >= 2 && readTimeouts.size() <= 3, "attempts: " + readTimeouts);
+            Assertions.assertTrue(readTimeouts.get(0) <= 400 && readTimeouts.get(0) > 300, "timeouts: " + readTimeouts);
+            Assertions.assertTrue(readTimeouts.get(1) <= 250, "timeouts: " + readTimeouts);
+            Assertions.assertTrue(duration < 600, "deadline not enforced: " + duration + "ms");
+        } finally {
+            SmartClientFactory.destroy(client);
+        }
+    }
+
+    @Test
+    public void testGlobalRateLimit() {
+        SmartConfig smartConfig = new SmartConfig("host1", "host2");
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+        smartConfig.setRateLimiter(new RateLimiter(0.1, 2));
+        smartConfig.setRateLimitTimeout(0); // fail immediately
+
+        List<String> attemptedHosts = Collections.synchronizedList(new ArrayList<>());
+
+        ConnectorProvider mockProvider = (jaxRsClient, runtimeConfig) -> new Connector() {
+            @Override
+            public ClientResponse apply(ClientRequest request) {
+                attemptedHosts.add(request.getUri().getHost());
+                return new ClientResponse(Response.Status.OK, request);
+            }
+
+            @Override
+            public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String getName() { return "MockConnector"; }
+
+            @Override
+            public void close() { }
+        };
+
+        Client client = SmartClientFactory.createSmartClient(smartConfig, mockProvider);
+
+        try {
+            // the burst goes through, the next request is rejected before reaching any host
+            for (int i = 0; i < 2; i++) {
+                Assertions.assertEquals(200, client.target("http://original-host:9020/test").request().get().getStatus());
+            }
+            Assertions.assertThrows(ProcessingException.class,
+                    () -> client.target("http://original-host:9020/test").request().get());
+
+            Assertions.assertEquals(2, attemptedHosts.size());
+            Assertions.assertEquals(1, smartConfig.getRateLimiter().getRejectedCount());
+        } finally {
+            SmartClientFactory.destroy(client);
+        }
+    }
+
+    @Test
+    public void testHostRateLimitReleasesPermit() {
+        SmartConfig smartConfig = new SmartConfig("host1");
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+        smartConfig.setRateLimitTimeout(0); // fail immediately
+        LoadBalancer loadBalancer = smartConfig.getLoadBalancer();
+        loadBalancer.setHostRateLimit(0.1, 1);
+        loadBalancer.setConcurrencyLimitConfig(new ConcurrencyLimitConfig().withInitialLimit(1).withMinLimit(1)
+                .withSaturationPolicy(ConcurrencyLimitConfig.SaturationPolicy.FAIL_FAST));
+
+        ConnectorProvider mockProvider = (jaxRsClient, runtimeConfig) -> new Connector() {
+            @Override
+            public ClientResponse apply(ClientRequest request) {
+                return new ClientResponse(Response.Status.OK, request);
+            }
+
+            @Override
+            public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String getName() { return "MockConnector"; }
+
+            @Override
+            public void close() { }
+        };
+
+        Client client = SmartClientFactory.createSmartClient(smartConfig, mockProvider);
+
+        try {
+            Host host = loadBalancer.getAllHosts().get(0);
+            client.target("http://original-host:9020/test").request().get().close();
+            Assertions.assertFalse(host.isSaturated());
+
+            // the host was selected, but its rate limit rejects the request: its concurrency slot is released
+            Assertions.assertThrows(ProcessingException.class,
+                    () -> client.target("http://original-host:9020/test").request().get());
+            Assertions.assertFalse(host.isSaturated());
+        } finally {
+            SmartClientFactory.destroy(client);
+        }
+    }
+
+    @Test
+    public void testAsyncRateLimitDoesNotBlock() throws Exception {
+        SmartConfig smartConfig = new SmartConfig("host1");
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+        smartConfig.setRateLimiter(new RateLimiter(2, 1));
+        smartConfig.setRateLimitTimeout(2000);
+
+        List<Long> sendTimes = Collections.synchronizedList(new ArrayList<>());
+        Connector mockConnector = new Connector() {
+            @Override
+            public ClientResponse apply(ClientRequest request) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+                sendTimes.add(System.nanoTime());
+                callback.response(new ClientResponse(Response.Status.OK, request));
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public String getName() { return "MockConnector"; }
+
+            @Override
+            public void close() { }
+        };
+
+        SmartFilter filter = new SmartFilter(mockConnector, smartConfig);
+        CountDownLatch responses = new CountDownLatch(2);
+        AsyncConnectorCallback callback = new AsyncConnectorCallback() {
+            @Override
+            public void response(ClientResponse response) {
+                response.close();
+                responses.countDown();
+            }
+
+            @Override
+            public void failure(Throwable failure) {
+                log.error("unexpected failure", failure);
+            }
+        };
+
+        JerseyClient client = JerseyClientBuilder.createClient();
+        try {
+            ClientRequest[] requests = new ClientRequest[2];
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = new ClientRequest(URI.create("http://original-host:9020/test"),
+                        client.getConfiguration(), new MapPropertiesDelegate()) {
+                };
+            }
+            filter.apply(requests[0], callback);
+
+            // the second request waits for its permit on a timer, not in the calling thread
+            long start = System.nanoTime();
+            filter.apply(requests[1], callback);
+            long applyTime = System.nanoTime() - start;
+            Assertions.assertTrue(applyTime < TimeUnit.MILLISECONDS.toNanos(50), "apply took " + applyTime + "ns");
+            Assertions.assertTrue(responses.await(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(sendTimes.get(1) - start >= TimeUnit.MILLISECONDS.toNanos(300),
+                    "sent after " + (sendTimes.get(1) - start) + "ns");
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testAsyncRateLimitCancel() throws Exception {
+        SmartConfig smartConfig = new SmartConfig("host1");
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+        smartConfig.setRateLimiter(new RateLimiter(5, 1));
+        smartConfig.setRateLimitTimeout(5000);
+
+        // requests never complete, so they can be cancelled
+        List<CompletableFuture<Object>> sent = Collections.synchronizedList(new ArrayList<>());
+        Connector mockConnector = new Connector() {
+            @Override
+            public ClientResponse apply(ClientRequest request) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+                CompletableFuture<Object> future = new CompletableFuture<>();
+                sent.add(future);
+                return future;
+            }
+
+            @Override
+            public String getName() { return "MockConnector"; }
+
+            @Override
+            public void close() { }
+        };
+
+        SmartFilter filter = new SmartFilter(mockConnector, smartConfig);
+        AsyncConnectorCallback callback = new AsyncConnectorCallback() {
+            @Override
+            public void response(ClientResponse response) {
+                response.close();
+            }
+
+            @Override
+            public void failure(Throwable failure) {
+                log.error("unexpected failure", failure);
+            }
+        };
+
+        JerseyClient client = JerseyClientBuilder.createClient();
+        try {
+            ClientRequest[] requests = new ClientRequest[3];
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = new ClientRequest(URI.create("http://original-host:9020/test"),
+                        client.getConfiguration(), new MapPropertiesDelegate()) {
+                };
+            }
+            filter.apply(requests[0], callback);
+            Assertions.assertEquals(1, sent.size());
+
+            // cancelled while waiting for its permit, the request is never sent
+            Assertions.assertTrue(filter.apply(requests[1], callback).cancel(true));
+            Thread.sleep(500);
+            Assertions.assertEquals(1, sent.size());
+
+            // cancelled after it was sent, the request is cancelled in the connector
+            Future<?> future = filter.apply(requests[2], callback);
+            long timeout = System.currentTimeMillis() + 5000;
+            while (sent.size() < 2 && System.currentTimeMillis() < timeout) Thread.sleep(10);
+            Assertions.assertEquals(2, sent.size());
+            Assertions.assertFalse(future.isDone());
+            Assertions.assertTrue(future.cancel(true));
+            Assertions.assertTrue(sent.get(1).isCancelled());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testRequestTiming() {
+        SmartConfig smartConfig = new SmartConfig("host1");
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+
+        ConnectorProvider mockProvider = (jaxRsClient, runtimeConfig) -> new Connector() {
+            @Override
+            public ClientResponse apply(ClientRequest request) {
+                // what the timing connection manager does when a new connection is opened
+                RequestTiming timing = TimingConnectionManager.getCurrentTiming();
+                timing.connectionLeased();
+                timing.connected();
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new ProcessingException(e);
+                }
+                ClientResponse response = new ClientResponse(Response.Status.OK, request);
+                response.setEntityStream(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)));
+                return response;
+            }
+
+            @Override
+            public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String getName() { return "MockConnector"; }
+
+            @Override
+            public void close() { }
+        };
+
+        Client client = SmartClientFactory.createSmartClient(smartConfig, mockProvider);
+        List<RequestTiming> timings = new ArrayList<>();
+        client.register((ClientResponseFilter) (requestContext, responseContext) ->
+                timings.add((RequestTiming) requestContext.getProperty(SmartFilter.REQUEST_TIMING)));
+
+        try {
+            Assertions.assertEquals("hello", client.target("http://original-host:9020/test").request().get(String.class));
+            Assertions.assertEquals(1, timings.size());
+            RequestTiming timing = timings.get(0);
+            for (RequestTiming.Phase phase : RequestTiming.Phase.values()) {
+                Assertions.assertTrue(timing.getDuration(phase) >= 0, phase.toString());
+            }
+            Assertions.assertTrue(timing.getDuration(RequestTiming.Phase.FIRST_BYTE) >= TimeUnit.MILLISECONDS.toNanos(20));
+            Assertions.assertTrue(timing.getTotalTime() >= timing.getDuration(RequestTiming.Phase.FIRST_BYTE));
+
+            // the phases of the completed request are recorded in the host's statistics
+            Host host = smartConfig.getLoadBalancer().getAllHosts().get(0);
+            for (RequestTiming.Phase phase : RequestTiming.Phase.values()) {
+                Assertions.assertEquals(1, host.getPhaseLatencyHistogram(phase).getCount(), phase.toString());
+            }
+        } finally {
+            SmartClientFactory.destroy(client);
+        }
+    }
+
+    @Test
+    public void testByteCounting() throws Exception {
+        SmartConfig smartConfig = new SmartConfig("host1");
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+
+        ConnectorProvider mockProvider = (jaxRsClient, runtimeConfig) -> new Connector() {
+            @Override
+            public ClientResponse apply(ClientRequest request) {
+                if (request.hasEntity()) {
+                    ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+                    request.setStreamProvider(contentLength -> requestBody);
+                    try {
+                        request.writeEntity();
+                    } catch (IOException e) {
+                        throw new ProcessingException(e);
+                    }
+                }
+                ClientResponse response = new ClientResponse(Response.Status.OK, request);
+                response.getHeaders().putSingle("Content-Length", "1000");
+                response.setEntityStream(new ByteArrayInputStream(new byte[1000]));
+                return response;
+            }
+
+            @Override
+            public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String getName() { return "MockConnector"; }
+
+            @Override
+            public void close() { }
+        };
+
+        Client client = SmartClientFactory.createSmartClient(smartConfig, mockProvider);
+        Host host = smartConfig.getLoadBalancer().getAllHosts().get(0);
+
+        try {
+            // the response body is in flight until it is read
+            Response response = client.target("http://original-host:9020/test").request()
+                    .post(Entity.entity(new byte[500], "application/octet-stream"));
+            Assertions.assertEquals(500, host.getTotalBytesSent());
+            Assertions.assertEquals(1000, host.getInFlightBytes());
+            Assertions.assertEquals(1000, response.readEntity(byte[].class).length);
+            Assertions.assertEquals(1000, host.getTotalBytesReceived());
+            Assertions.assertEquals(0, host.getInFlightBytes());
+
+            // a response that is closed early no longer counts as in flight
+            client.target("http://original-host:9020/test").request().get().close();
+            Assertions.assertEquals(0, host.getInFlightBytes());
+            Assertions.assertEquals(1000, host.getTotalBytesReceived());
+        } finally {
+            SmartClientFactory.destroy(client);
+        }
+    }
+
+    @Test
+    public void testHedgedRequest() throws Exception {
+        // the first request hangs; later requests are answered right away with the host they were sent to
+        AtomicInteger requestCount = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/test", exchange -> {
+            if (requestCount.getAndIncrement() == 0) {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            byte[] body = URI.create("http://" + exchange.getRequestHeaders().getFirst("Host")).getHost()
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            try {
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (IOException e) {
+                log.debug("client went away", e); // i.e. the request was aborted
+            }
+            exchange.close();
+        });
+        server.start();
+        String loopback = InetAddress.getLoopbackAddress().getHostAddress();
+
+        SmartConfig smartConfig = new SmartConfig(loopback, "localhost");
+        smartConfig.setHostUpdateEnabled(false);
+        smartConfig.setHealthCheckEnabled(false);
+        smartConfig.setHedgingConfig(new HedgingConfig().withDelay(50).withDelayPercentile(0).withBudgetRatio(1));
+
+        Client client = SmartClientFactory.createSmartClient(smartConfig);
+        String uri = "http://original-host:" + server.getAddress().getPort() + "/test";
+        List<Object> selectedHosts = Collections.synchronizedList(new ArrayList<>());
+        client.register((ClientResponseFilter) (requestContext, responseContext) -> {
+            selectedHosts.add(requestContext.getProperty(SmartFilter.SELECTED_HOST));
+            selectedHosts.add(requestContext.getProperty(SmartFilter.REQUEST_TIMING));
+        });
+
+        try {
+            // the first host is tried first (it is first in the list), but the hedge to the other host wins
+            long start = System.currentTimeMillis();
+            String body = client.target(uri).request().get(String.class);
+            Assertions.assertEquals("localhost", body);
+
+            // the caller's request reports the host that answered, and its timing
+            Assertions.assertEquals("localhost", ((Host) selectedHosts.get(0)).getName());
+            Assertions.assertNotNull(selectedHosts.get(1));
+            Assertions.assertTrue(System.currentTimeMillis() - start < 1000, "hedge did not cut latency");
+            Assertions.assertEquals(1, smartConfig.getHedgingConfig().getHedgeCount());
+            Assertions.assertEquals(1, smartConfig.getHedgingConfig().getHedgeWinCount());
+
+            // the losing request is aborted (without counting an error), so no connections are left open
+            for (Host host : smartConfig.getLoadBalancer().getAllHosts()) {
+                Assertions.assertEquals(0, host.getOpenConnections(), host.getName());
+                Assertions.assertEquals(1, host.getTotalConnections(), host.getName());
+                Assertions.assertEquals(0, host.getTotalErrors(), host.getName());
+            }
+
+            // POST is not hedged
+            Assertions.assertEquals(200, client.target(uri).request().post(Entity.text("foo")).getStatus());
+            Assertions.assertEquals(1, smartConfig.getHedgingConfig().getHedgeCount());
+        } finally {
+            SmartClientFactory.destroy(client);
+            server.stop(0);
+        }
+    }
 }